@@ -121,4 +121,12 @@ public abstract class BetterPortalsAPI {
      * @return The portal, or null if there is none with this ID
      */
     public abstract @Nullable BetterPortal getPortalById(@NotNull UUID id);
+
+    /**
+     * Gets statistics about the updates that send the blocks visible through portals to players, recorded since the plugin was enabled.
+     * This can be polled and graphed to find if the server is falling behind on view updates.
+     * @return A copy of the current statistics, which doesn't change as more updates are recorded
+     * @throws IllegalStateException if BetterPortals is not enabled
+     */
+    public abstract @NotNull ViewUpdateStatistics getViewUpdateStatistics();
 }
@@ -0,0 +1,34 @@
+package com.lauriethefish.betterportals.api;
+
+/**
+ * A copy of the values recorded by a histogram at one point in time.
+ * Values are grouped into buckets whose width grows with the value, so percentiles are accurate to within a few percent.
+ */
+public interface HistogramSnapshot {
+    /**
+     * @return The number of values recorded
+     */
+    long getCount();
+
+    /**
+     * @return The smallest value recorded, or 0 if none were
+     */
+    long getMin();
+
+    /**
+     * @return The largest value recorded, or 0 if none were
+     */
+    long getMax();
+
+    /**
+     * @return The exact mean of the values recorded, or 0 if none were
+     */
+    double getMean();
+
+    /**
+     * Finds the value that <code>percentile</code> percent of recorded values are less than or equal to.
+     * @param percentile The percentile, from 0 to 100
+     * @return The value at the percentile, or 0 if no values were recorded
+     */
+    long getValueAtPercentile(double percentile);
+}
@@ -0,0 +1,70 @@
+package com.lauriethefish.betterportals.api;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Statistics about the updates that find which blocks each player can see through portals, and send them.
+ * An update is scheduled whenever a player moves near a portal, then finished on another thread.
+ * All times are in nanoseconds.
+ */
+public interface ViewUpdateStatistics {
+    /**
+     * @return The number of views waiting to be updated, sampled each time a view is queued
+     */
+    @NotNull HistogramSnapshot getQueueDepth();
+
+    /**
+     * @return The time between an update being scheduled and it starting to be processed
+     */
+    @NotNull HistogramSnapshot getQueueWaitNanos();
+
+    /**
+     * @return The time taken to process each update, including sending the changed blocks
+     */
+    @NotNull HistogramSnapshot getProcessingNanos();
+
+    /**
+     * @return The time between an update being scheduled and its block changes being sent
+     */
+    @NotNull HistogramSnapshot getLatencyNanos();
+
+    /**
+     * @return The number of blocks changed for the player by each update
+     */
+    @NotNull HistogramSnapshot getBlocksSent();
+
+    /**
+     * @return The number of updates scheduled, including those that were coalesced or superseded
+     */
+    long getScheduledUpdates();
+
+    /**
+     * @return The number of updates dropped since an update doing at least as much was already pending for the same view
+     */
+    long getCoalescedUpdates();
+
+    /**
+     * @return The number of pending updates that were replaced by an update doing more, e.g. a regular update replaced by a refresh
+     */
+    long getSupersededUpdates();
+
+    /**
+     * @return The number of updates that reused the visible blocks found for another player with their eyes in nearly the same place
+     */
+    long getVisibilityCacheHits();
+
+    /**
+     * @return The number of updates that had to check which blocks are visible
+     */
+    long getVisibilityCacheMisses();
+
+    /**
+     * @return The number of updates that used the blocks found visible ahead of time from where the player was predicted to move
+     */
+    long getPredictionHits();
+
+    /**
+     * @return The number of predictions that were too far from where the player actually moved, so weren't used
+     */
+    long getPredictionMisses();
+}
@@ -5,6 +5,7 @@ import com.lauriethefish.betterportals.api.*;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.bukkit.portal.IPortalManager;
 import com.lauriethefish.betterportals.bukkit.portal.predicate.IPortalPredicateManager;
+import com.lauriethefish.betterportals.bukkit.util.performance.ViewUpdateMetrics;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import org.bukkit.util.Vector;
 import org.jetbrains.annotations.NotNull;
@@ -20,13 +21,15 @@ public class API extends BetterPortalsAPI {
     private final IPortal.Factory portalFactory;
     private final IPortalManager portalManager;
     private final IPortalPredicateManager portalPredicateManager;
+    private final ViewUpdateMetrics viewUpdateMetrics;
 
     @Inject
-    public API(Logger logger, IPortal.Factory portalFactory, IPortalManager portalManager, IPortalPredicateManager portalPredicateManager) {
+    public API(Logger logger, IPortal.Factory portalFactory, IPortalManager portalManager, IPortalPredicateManager portalPredicateManager, ViewUpdateMetrics viewUpdateMetrics) {
         this.logger = logger;
         this.portalFactory = portalFactory;
         this.portalManager = portalManager;
         this.portalPredicateManager = portalPredicateManager;
+        this.viewUpdateMetrics = viewUpdateMetrics;
 
         onEnable();
     }
@@ -111,4 +114,10 @@ public class API extends BetterPortalsAPI {
         verifyEnabled();
         return portalManager.getPortalById(id);
     }
+
+    @Override
+    public @NotNull ViewUpdateStatistics getViewUpdateStatistics() {
+        verifyEnabled();
+        return viewUpdateMetrics.getStatistics();
+    }
 }
@@ -3,6 +3,8 @@ package com.lauriethefish.betterportals.bukkit;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.lauriethefish.betterportals.bukkit.block.BlockDataInterner;
+import com.lauriethefish.betterportals.bukkit.block.bukkit.SectionPacketCache;
 import com.lauriethefish.betterportals.bukkit.command.framework.CommandTree;
 import com.lauriethefish.betterportals.bukkit.config.ConfigManager;
 import com.lauriethefish.betterportals.bukkit.config.MiscConfig;
@@ -12,6 +14,7 @@ import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
 import com.lauriethefish.betterportals.bukkit.player.IPlayerDataManager;
 import com.lauriethefish.betterportals.bukkit.portal.IPortalManager;
 import com.lauriethefish.betterportals.bukkit.portal.storage.IPortalStorage;
+import com.lauriethefish.betterportals.bukkit.tasks.BlockMapUpdateExecutor;
 import com.lauriethefish.betterportals.bukkit.tasks.BlockUpdateFinisher;
 import com.lauriethefish.betterportals.bukkit.tasks.MainUpdate;
 import com.lauriethefish.betterportals.bukkit.util.performance.OperationTimer;
@@ -36,6 +39,9 @@ public class BetterPortals extends JavaPlugin {
     @Inject private IPortalClient portalClient;
     @Inject private MainUpdate mainUpdate;
     @Inject private BlockUpdateFinisher blockUpdateFinisher;
+    @Inject private BlockMapUpdateExecutor blockMapUpdateExecutor;
+    @Inject private BlockDataInterner blockDataInterner;
+    @Inject private SectionPacketCache sectionPacketCache;
     @Inject private IPortalManager portalManager;
     @Inject private IEventRegistrar eventRegistrar;
     @Inject private API apiImplementation;
@@ -71,6 +77,7 @@ public class BetterPortals extends JavaPlugin {
         }
 
         blockUpdateFinisher.start();
+        blockMapUpdateExecutor.start();
         mainUpdate.start();
         portalStorage.start();
 
@@ -130,6 +137,10 @@ public class BetterPortals extends JavaPlugin {
 
         playerDataManager.onPluginDisable();
         portalManager.onReload();
+        blockMapUpdateExecutor.start();
+        // The caches only shrink as entries are added, so are emptied for changes to their sizes to apply straight away
+        blockDataInterner.clear();
+        sectionPacketCache.clear();
 
         if(proxyConfig.isEnabled()) {
             portalClient.connect();
@@ -150,6 +161,7 @@ public class BetterPortals extends JavaPlugin {
         }
 
         blockUpdateFinisher.stop();
+        blockMapUpdateExecutor.stop();
 
         try {
             portalStorage.savePortals();
@@ -0,0 +1,82 @@
+package com.lauriethefish.betterportals.bukkit.block;
+
+import com.google.inject.Singleton;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps each chunk to the active block maps whose origin or destination area covers it, so that block changes can be forwarded to only the block maps that they affect.
+ * This must only be used on the main thread.
+ */
+@Singleton
+public class BlockChangeIndex {
+    private final Map<World, Map<Long, List<FloodFillBlockMap>>> blockMapsByChunk = new HashMap<>();
+
+    private static long getChunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Starts forwarding changes in the chunks containing the given area to <code>blockMap</code>.
+     * @param world The world of the area
+     * @param minX Minimum block X coordinate
+     * @param minZ Minimum block Z coordinate
+     * @param maxX Maximum block X coordinate
+     * @param maxZ Maximum block Z coordinate
+     * @param blockMap The block map to forward changes to
+     */
+    public void register(@NotNull World world, int minX, int minZ, int maxX, int maxZ, @NotNull FloodFillBlockMap blockMap) {
+        Map<Long, List<FloodFillBlockMap>> worldIndex = blockMapsByChunk.computeIfAbsent(world, key -> new HashMap<>());
+        for(int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for(int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                List<FloodFillBlockMap> blockMaps = worldIndex.computeIfAbsent(getChunkKey(chunkX, chunkZ), key -> new ArrayList<>());
+                // The origin and destination may overlap if they're in the same world
+                if(!blockMaps.contains(blockMap)) {
+                    blockMaps.add(blockMap);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops forwarding changes to <code>blockMap</code> in every area it was registered for.
+     * @param blockMap The block map to unregister
+     */
+    public void unregister(@NotNull FloodFillBlockMap blockMap) {
+        blockMapsByChunk.values().removeIf(worldIndex -> {
+            worldIndex.values().removeIf(blockMaps -> {
+                blockMaps.remove(blockMap);
+                return blockMaps.isEmpty();
+            });
+            return worldIndex.isEmpty();
+        });
+    }
+
+    /**
+     * Forwards a block change to the block maps that cover its chunk.
+     * @param block The block that changed
+     */
+    public void onBlockChanged(@NotNull Block block) {
+        if(blockMapsByChunk.isEmpty()) {return;}
+
+        World world = block.getWorld();
+        Map<Long, List<FloodFillBlockMap>> worldIndex = blockMapsByChunk.get(world);
+        if(worldIndex == null) {return;}
+
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+        List<FloodFillBlockMap> blockMaps = worldIndex.get(getChunkKey(x >> 4, z >> 4));
+        if(blockMaps == null) {return;}
+
+        for(FloodFillBlockMap blockMap : blockMaps) {
+            blockMap.markChanged(world, x, y, z);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.lauriethefish.betterportals.bukkit.block;
+
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.block.rotation.IBlockRotator;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.bukkit.math.Matrix;
+import org.bukkit.block.data.BlockData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared between all portals, this maps each block data and rotation to one {@link WrappedBlockData}.
+ * This avoids cloning, rotating and wrapping the same common blocks (e.g. stone) for every block in every portal.
+ * <p>
+ * The cache is split into segments that are locked separately, and each segment evicts its least recently used entries once full.
+ * Since entries can be evicted, the same data may occasionally be wrapped twice, so instances should not be relied upon to be unique.
+ */
+@Singleton
+public class BlockDataInterner {
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * Rotation key used for data that isn't rotated.
+     */
+    public static final int NO_ROTATION = getRotationKey(Matrix.makeIdentity());
+
+    private final IBlockRotator blockRotator;
+    private final RenderConfig renderConfig;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Inject
+    public BlockDataInterner(IBlockRotator blockRotator, RenderConfig renderConfig) {
+        this.blockRotator = blockRotator;
+        this.renderConfig = renderConfig;
+
+        for(int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Portals only rotate by multiples of 90 degrees, so each coefficient of the rotation is -1, 0 or 1.
+     * This packs the 9 rounded coefficients into one integer, so that equal rotations have equal keys.
+     * @param rotation The rotation matrix
+     * @return The key of the rotation
+     */
+    public static int getRotationKey(@NotNull Matrix rotation) {
+        int key = 0;
+        for(int row = 0; row < 3; row++) {
+            for(int column = 0; column < 3; column++) {
+                key = key << 2 | ((int) Math.round(rotation.m[row][column]) + 1);
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Finds the interned wrapper of <code>data</code>, without any rotation.
+     * @param data The data to wrap
+     * @return The shared wrapped data
+     */
+    public @NotNull WrappedBlockData get(@NotNull BlockData data) {
+        return get(data, null, NO_ROTATION);
+    }
+
+    /**
+     * Finds the interned wrapper of <code>data</code> rotated by <code>rotation</code>.
+     * The rotation is only done if this data and rotation aren't already cached.
+     * @param data The data to rotate and wrap
+     * @param rotation The rotation to apply
+     * @return The shared wrapped and rotated data
+     */
+    public @NotNull WrappedBlockData getRotated(@NotNull BlockData data, @NotNull Matrix rotation) {
+        return get(data, rotation, getRotationKey(rotation));
+    }
+
+    private WrappedBlockData get(BlockData data, Matrix rotation, int rotationKey) {
+        Key key = new Key(data, rotationKey);
+        Segment segment = segments[(key.hashCode() & 0x7FFFFFFF) % SEGMENT_COUNT];
+
+        WrappedBlockData existing;
+        synchronized (segment) {
+            existing = segment.get(key);
+        }
+        if(existing != null) {
+            hits.increment();
+            return existing;
+        }
+        misses.increment();
+
+        // Rotate outside of the lock, since this is the slow part
+        BlockData rotated = rotationKey == NO_ROTATION ? data : blockRotator.rotateByMatrix(rotation, data);
+        WrappedBlockData wrapped = WrappedBlockData.createData(rotated);
+
+        synchronized (segment) {
+            // Another thread may have added the same data in the meantime, if so, use theirs
+            existing = segment.putIfAbsent(key, wrapped);
+        }
+        return existing == null ? wrapped : existing;
+    }
+
+    /**
+     * @return The number of lookups that found already wrapped data
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that had to rotate and wrap the data
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of entries removed to keep the cache within its size limit
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The number of entries currently cached
+     */
+    public int size() {
+        int size = 0;
+        for(Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Removes all cached data, e.g. on reload.
+     */
+    public void clear() {
+        for(Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    // Access ordered, so that the eldest entry is always the least recently used
+    private class Segment extends LinkedHashMap<Key, WrappedBlockData> {
+        private Segment() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, WrappedBlockData> eldest) {
+            if(size() > Math.max(1, renderConfig.getBlockDataCacheSize() / SEGMENT_COUNT)) {
+                evictions.increment();
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    private static class Key {
+        private final BlockData data;
+        private final int rotationKey;
+
+        private Key(BlockData data, int rotationKey) {
+            this.data = data;
+            this.rotationKey = rotationKey;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) {return false;}
+
+            Key other = (Key) obj;
+            return rotationKey == other.rotationKey && data.equals(other.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return data.hashCode() * 31 + rotationKey;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.lauriethefish.betterportals.bukkit.block;
+
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Maps each distinct block state shown by one portal to an integer ID, so that blocks can be stored as integers.
+ * Only the flood fill thread may add states, but any thread can read IDs that have been published by a {@link ViewableBlockStore}.
+ */
+public class BlockStatePalette {
+    // Data is interned by BlockDataInterner, so comparing by identity is enough and avoids hashing the block state again
+    private final Map<WrappedBlockData, Integer> ids = new IdentityHashMap<>();
+
+    private volatile WrappedBlockData[] entries = new WrappedBlockData[64];
+    private int size = 0;
+
+    /**
+     * Finds the ID of <code>data</code>, adding it to the palette if it isn't already present.
+     * This compares by identity, so <code>data</code> should be interned by {@link BlockDataInterner} or otherwise reused.
+     * @param data The data to find the ID of
+     * @return The palette ID
+     */
+    public int getId(@NotNull WrappedBlockData data) {
+        Integer existing = ids.get(data);
+        if(existing != null) {
+            return existing;
+        }
+
+        int id = add(data);
+        ids.put(data, id);
+        return id;
+    }
+
+    private int add(WrappedBlockData data) {
+        WrappedBlockData[] current = entries;
+        if(size == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[size] = data;
+        entries = current; // Write the reference after the entry so that readers never see a missing entry
+
+        return size++;
+    }
+
+    /**
+     * @param id The palette ID
+     * @return The data with this ID
+     */
+    public @NotNull WrappedBlockData get(int id) {
+        return entries[id];
+    }
+
+    /**
+     * @return The number of distinct states in this palette
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -4,18 +4,21 @@ import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.lauriethefish.betterportals.api.IntVector;
 import com.lauriethefish.betterportals.api.PortalDirection;
+import com.lauriethefish.betterportals.bukkit.config.MiscConfig;
 import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.bukkit.math.MathUtil;
 import com.lauriethefish.betterportals.bukkit.math.Matrix;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
+import com.lauriethefish.betterportals.bukkit.util.performance.BlockMapUpdateMetrics;
 import com.lauriethefish.betterportals.bukkit.util.performance.OperationTimer;
 import com.lauriethefish.betterportals.shared.logging.Logger;
+import org.bukkit.World;
 import org.bukkit.util.Vector;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -24,15 +27,36 @@ import java.util.concurrent.ConcurrentHashMap;
 public abstract class FloodFillBlockMap implements IBlockMap {
     protected final Logger logger;
     protected final RenderConfig renderConfig;
+    private final MiscConfig miscConfig;
+    protected final BlockMapUpdateMetrics updateMetrics;
+    private final BlockChangeIndex changeIndex;
+    protected final FloodFillBufferPool bufferPool;
 
     protected final ConcurrentHashMap<IntVector, PacketContainer> originTileStates = new ConcurrentHashMap<>();
     protected final ConcurrentHashMap<IntVector, PacketContainer> destTileStates = new ConcurrentHashMap<>();
 
-    protected StateQueue stateQueue;
+    protected ViewableBlockStore viewableBlockStore;
 
-    protected List<IViewableBlockInfo> nonObscuredStates = new ArrayList<>();
+    // Indices of every cell reached by the flood fill, viewable or not
+    protected int[] nonObscuredIndices;
+    protected int nonObscuredCount;
 
-    protected byte[] alreadyReachedMap;
+    protected CellStateMap alreadyReachedMap;
+    protected FloodFillEngine engine;
+
+    // Cells that can be seen through the portal from some eye position, or null if every cell can be
+    private PortalViewVolume viewVolume;
+    // Number of cells that the flood fill reached, but didn't spread to since they were outside the view volume
+    private int culledCount;
+
+    // Cells changed since the last check, found using block events. Only used on the main thread
+    private BitSet changedCells;
+    // Cells to check in the current update, used instead of every reached cell if a full check isn't being done
+    protected BitSet cellsToCheck;
+    protected boolean fullCheck;
+    private int updatesSinceFullCheck;
+    // Set if any cell may have changed without being marked, so the next check must be a full check. Only used on the main thread
+    private boolean fullCheckRequested;
 
     protected final IPortal portal;
     protected final Matrix rotateOriginToDest;
@@ -43,10 +67,14 @@ public abstract class FloodFillBlockMap implements IBlockMap {
     protected final PortalDirection destDirection;
     protected boolean firstUpdate;
 
-    public FloodFillBlockMap(IPortal portal, Logger logger, RenderConfig renderConfig) {
+    public FloodFillBlockMap(IPortal portal, Logger logger, RenderConfig renderConfig, MiscConfig miscConfig, BlockMapUpdateMetrics updateMetrics, BlockChangeIndex changeIndex, FloodFillBufferPool bufferPool) {
         this.portal = portal;
         this.logger = logger;
         this.renderConfig = renderConfig;
+        this.miscConfig = miscConfig;
+        this.updateMetrics = updateMetrics;
+        this.changeIndex = changeIndex;
+        this.bufferPool = bufferPool;
         this.centerPos = new IntVector(portal.getOriginPos().getVector());
         this.rotateOriginToDest = portal.getTransformations().getRotateToDestination();
         this.destDirection = portal.getDestPos().getDirection();
@@ -66,31 +94,110 @@ public abstract class FloodFillBlockMap implements IBlockMap {
         return new IntVector(destPosCenter);
     }
 
-    protected boolean isInLine(IntVector relPos) {
-        return destDirection.swapVector(relPos).getZ() == 0;
+    /**
+     * Adds a cell to the list of cells reached by the flood fill.
+     * @param index The array index of the cell
+     */
+    protected final void addNonObscured(int index) {
+        nonObscuredIndices[nonObscuredCount++] = index;
     }
 
-    protected final int getArrayMapIndex(IntVector relPos) {
-        return ((relPos.getX() + (int) renderConfig.getMaxXZ()) + (relPos.getZ() + (int) renderConfig.getMaxXZ()) * renderConfig.getZMultip() + (relPos.getY() + (int) renderConfig.getMaxY()) * renderConfig.getYMultip());
+    /**
+     * Checks if a cell reached by the flood fill is outside the view volume, and so should be neither rendered nor spread from.
+     * Culled cells are counted, so should only be checked once when first reached.
+     * @param index The array index of the cell
+     * @return Whether the cell is culled
+     */
+    protected final boolean isCulled(int index) {
+        if(viewVolume == null || viewVolume.contains(index)) {return false;}
+
+        culledCount++;
+        updateMetrics.recordCulled();
+        return true;
     }
 
     /**
-     * Starts a flood fill from <code>start</code> out to the edges of the viewed portal area.
+     * Starts a flood fill from <code>startIndex</code> out to the edges of the viewed portal area.
      * The fill stops when it reaches occluding blocks, as we don't need to render other blocks behind these.
-     * The origin data is also fetched, and this is placed in the viewable states
-     * @param originPos Start position of the flood fill, at the origin (non-relative)
-     * @param statesOutput List to place the new viewable states within
-     * @param firstBlockInfo Optional, used instead of adding a new block to the map for the first block. Useful for incremental updates
+     * The origin data is also fetched, and viewable blocks are added to {@link FloodFillBlockMap#viewableBlockStore}.
+     * @param startIndex Array index of the start position of the flood fill. This is visited even if it was already reached, which is useful for incremental updates
      */
-    protected abstract void searchFromBlock(IntVector originPos, List<IViewableBlockInfo> statesOutput, @Nullable IViewableBlockInfo firstBlockInfo);
+    protected abstract void searchFromBlock(int startIndex);
 
     /**
      * Checks the origin and destination blocks for changes.
      * At the origin, we only need to check the actually viewable blocks, since there is no need to re-flood-fill.
      * At the destination, we must check all blocks that were reached by the flood-fill, then do a re-flood-fill for any that have changed to add blocks in a newly revealed cavern, for instance.
+     * Unless {@link FloodFillBlockMap#fullCheck} is set, only the reached cells in {@link FloodFillBlockMap#cellsToCheck} need to be checked.
      */
     protected abstract void checkForChanges();
 
+    /**
+     * Records that the block at the given position has changed, if it is within the origin or destination area.
+     * Called by {@link BlockChangeIndex} on the main thread.
+     * @param world The world of the block
+     * @param x Absolute X coordinate
+     * @param y Absolute Y coordinate
+     * @param z Absolute Z coordinate
+     */
+    void markChanged(World world, int x, int y, int z) {
+        if(engine == null) {return;}
+
+        if(world == portal.getOriginPos().getWorld()) {
+            int index = engine.indexOfOrigin(x, y, z);
+            if(index != -1) {
+                changedCells.set(index);
+            }
+        }
+
+        if(!portal.isCrossServer() && world == portal.getDestPos().getWorld()) {
+            markDestChanged(x, y, z);
+        }
+    }
+
+    /**
+     * Records that the block at the given position of the destination has changed, if it is within the destination area.
+     * Used for changes that don't fire block events on this server, e.g. those pushed from the destination of a cross-server portal.
+     * Must be called on the main thread.
+     * @param x Absolute X coordinate at the destination
+     * @param y Absolute Y coordinate at the destination
+     * @param z Absolute Z coordinate at the destination
+     */
+    protected final void markDestChanged(int x, int y, int z) {
+        if(engine == null) {return;}
+
+        int index = engine.indexOfDest(x, y, z);
+        if(index != -1) {
+            changedCells.set(index);
+        }
+    }
+
+    /**
+     * Makes the next change check look at every reached cell, since any of them may have changed without being marked.
+     * Must be called on the main thread.
+     */
+    protected final void requestFullCheck() {
+        fullCheckRequested = true;
+    }
+
+    /**
+     * Decides which cells the next change check will look at, and starts recording changes for the check after.
+     * Must be called on the main thread before each flood fill.
+     */
+    protected final void prepareChangeCheck() {
+        updatesSinceFullCheck++;
+        fullCheck = fullCheckRequested || updatesSinceFullCheck >= renderConfig.getFullBlockCheckInterval();
+        if(fullCheck) {
+            updatesSinceFullCheck = 0;
+            fullCheckRequested = false;
+        }
+
+        BitSet previouslyChecked = cellsToCheck;
+        cellsToCheck = changedCells;
+        changedCells = previouslyChecked;
+        changedCells.clear();
+    }
+
     protected final WrappedBlockData getBackgroundData() {
         return renderConfig.findBackgroundData(portal.getDestPos());
     }
@@ -99,45 +206,109 @@ public abstract class FloodFillBlockMap implements IBlockMap {
     public void update(int ticksSinceActivated) {
         if(ticksSinceActivated % renderConfig.getBlockUpdateInterval() != 0) {return;}
 
+        long startTime = System.nanoTime();
+        if(alreadyReachedMap == null) {
+            initialise();
+        }
         updateInternal();
+        updateMetrics.recordMainThread(System.nanoTime() - startTime);
     }
 
-    protected void updateInternal() {
-        if(alreadyReachedMap == null) {
-            alreadyReachedMap = new byte[renderConfig.getTotalArrayLength()];
+    private void initialise() {
+        engine = new FloodFillEngine(renderConfig, rotateOriginToDest, portalOriginPos, portalDestPos, destDirection);
+        alreadyReachedMap = bufferPool.takeStateMap(engine.getTotalArrayLength());
+        nonObscuredIndices = bufferPool.takeIndexArray(engine.getTotalArrayLength());
+        nonObscuredCount = 0;
+        changedCells = new BitSet(engine.getTotalArrayLength());
+        cellsToCheck = new BitSet(engine.getTotalArrayLength());
+        updatesSinceFullCheck = 0;
+        fullCheckRequested = false;
+
+        // With no minimum eye distance, eyes can see every cell at a grazing angle, so there is nothing to cull
+        double minEyeDistance = renderConfig.getViewVolumeMinEyeDistance();
+        if(minEyeDistance > 0.0) {
+            viewVolume = new PortalViewVolume(portal, engine, miscConfig.getPortalActivationDistance(), minEyeDistance);
+            logger.fine("View volume contains %d cells, %d culled", viewVolume.size(), viewVolume.getCulledSize());
+        }
+
+        // Start receiving block changes within the areas covered by the flood fill
+        int originRadius = (int) renderConfig.getMaxXZ();
+        changeIndex.register(Objects.requireNonNull(portal.getOriginPos().getWorld()),
+                portalOriginPos.getX() - originRadius, portalOriginPos.getZ() - originRadius,
+                portalOriginPos.getX() + originRadius, portalOriginPos.getZ() + originRadius, this);
+        if(!portal.isCrossServer()) {
+            // The destination may be rotated, so the maximum distance along either horizontal axis is the larger of the two sizes
+            int destRadius = (int) Math.max(renderConfig.getMaxXZ(), renderConfig.getMaxY());
+            changeIndex.register(Objects.requireNonNull(portal.getDestPos().getWorld()),
+                    portalDestPos.getX() - destRadius, portalDestPos.getZ() - destRadius,
+                    portalDestPos.getX() + destRadius, portalDestPos.getZ() + destRadius, this);
         }
+    }
+
+    protected void updateInternal() {
+        prepareChangeCheck();
+        runFloodFill();
+    }
 
+    /**
+     * Does the initial flood fill, or checks for changes if this has already been done, then publishes any new viewable blocks.
+     * This may be called from a worker thread, as long as all block access in {@link FloodFillBlockMap#searchFromBlock(int)} and {@link FloodFillBlockMap#checkForChanges()} is thread safe.
+     */
+    protected final void runFloodFill() {
         OperationTimer timer = new OperationTimer();
         if(firstUpdate) {
-            List<IViewableBlockInfo> initialStates = new ArrayList<>();
-            searchFromBlock(centerPos, initialStates, null);
-            stateQueue.addStatesInitially(initialStates);
+            searchFromBlock(engine.getCenterIndex());
         }   else    {
             checkForChanges();
         }
+        // Newly added blocks all become visible to the view update threads at once
+        viewableBlockStore.publish();
         firstUpdate = false;
-        logger.fine("Viewable block array update took: %.3f ms. Block count: %d. Viewable count: %d", timer.getTimeTakenMillis(), nonObscuredStates.size(), stateQueue.stateCount());
+        logger.fine("Viewable block array update took: %.3f ms. Block count: %d. Viewable count: %d. Culled count: %d", timer.getTimeTakenMillis(), nonObscuredCount, viewableBlockStore.size(), culledCount);
     }
 
     @Override
     public void reset() {
         logger.finer("Clearing block array to save memory");
 
-        stateQueue = new StateQueue(logger);
-        nonObscuredStates = new ArrayList<>();
+        // Recycle the flood fill buffers for use by the next portal to activate
+        if(alreadyReachedMap != null) {
+            bufferPool.recycle(alreadyReachedMap);
+            bufferPool.recycle(nonObscuredIndices);
+        }
+
+        viewableBlockStore = new ViewableBlockStore(portalOriginPos);
+        nonObscuredIndices = null;
+        nonObscuredCount = 0;
         originTileStates.clear();
         destTileStates.clear();
         firstUpdate = true;
         alreadyReachedMap = null;
+        engine = null;
+        viewVolume = null;
+        culledCount = 0;
+        changedCells = null;
+        cellsToCheck = null;
+        changeIndex.unregister(this);
     }
 
-    @Override
-    public List<IViewableBlockInfo> getViewableStates() {
-        if(stateQueue == null) {
-            return null;
-        }
+    /**
+     * @return The number of cells reached by the flood fill, viewable or not
+     */
+    public int getNonObscuredCount() {
+        return nonObscuredCount;
+    }
 
-        return stateQueue.getViewableStates();
+    /**
+     * @return The number of cells that the flood fill didn't spread to since they can't be seen through the portal
+     */
+    public int getCulledCount() {
+        return culledCount;
+    }
+
+    @Override
+    public @Nullable ViewableBlockStore getViewableBlockStore() {
+        return viewableBlockStore;
     }
 
     @Override
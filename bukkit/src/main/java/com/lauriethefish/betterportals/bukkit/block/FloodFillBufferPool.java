@@ -0,0 +1,73 @@
+package com.lauriethefish.betterportals.bukkit.block;
+
+import com.google.inject.Singleton;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Keeps the per-portal flood fill buffers of block maps that have been reset, so that they can be reused when another portal activates instead of being reallocated.
+ * Only a limited number of buffers are kept, so that memory is still freed after many portals deactivate at once.
+ */
+@Singleton
+public class FloodFillBufferPool {
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    private final Deque<CellStateMap> stateMaps = new ArrayDeque<>();
+    private final Deque<int[]> indexArrays = new ArrayDeque<>();
+
+    /**
+     * Takes a cleared state map from the pool, or creates one if there isn't one of the right size.
+     * @param length The number of cells
+     * @return A state map with every cell set to 0
+     */
+    public synchronized CellStateMap takeStateMap(int length) {
+        while(!stateMaps.isEmpty()) {
+            CellStateMap stateMap = stateMaps.pop();
+            // Buffers from before the portal effect size was changed are just dropped
+            if(stateMap.length() == length) {
+                return stateMap;
+            }
+        }
+
+        return new CellStateMap(length);
+    }
+
+    /**
+     * Takes an index array from the pool, or creates one if there isn't one of the right size.
+     * The contents of the returned array are undefined.
+     * @param length The length of the array
+     * @return The array
+     */
+    public synchronized int[] takeIndexArray(int length) {
+        while(!indexArrays.isEmpty()) {
+            int[] array = indexArrays.pop();
+            if(array.length == length) {
+                return array;
+            }
+        }
+
+        return new int[length];
+    }
+
+    /**
+     * Clears <code>stateMap</code> and returns it to the pool.
+     * @param stateMap The state map, which must no longer be used by the caller
+     */
+    public synchronized void recycle(CellStateMap stateMap) {
+        if(stateMaps.size() < MAX_POOLED_BUFFERS) {
+            stateMap.clear();
+            stateMaps.push(stateMap);
+        }
+    }
+
+    /**
+     * Returns <code>array</code> to the pool.
+     * @param array The array, which must no longer be used by the caller
+     */
+    public synchronized void recycle(int[] array) {
+        if(indexArrays.size() < MAX_POOLED_BUFFERS) {
+            indexArrays.push(array);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.lauriethefish.betterportals.bukkit.block;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.api.PortalDirection;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.bukkit.math.Matrix;
+
+/**
+ * Performs flood fills over the blocks around a portal using only packed array indices.
+ * Coordinates are found using the lookup tables in {@link RenderConfig}, and the rotation to the destination is stored as integer coefficients,
+ * so no objects are created for each block reached.
+ */
+public class FloodFillEngine {
+    /**
+     * Called for each cell reached by the flood fill.
+     */
+    public interface CellVisitor {
+        /**
+         * Processes a reached cell.
+         * @param index The array index of the cell
+         * @return Whether the fill should continue to the surrounding cells
+         */
+        boolean visitCell(int index);
+    }
+
+    /**
+     * Cell has not yet been reached by a flood fill.
+     */
+    public static final int UNREACHED = 0;
+
+    /**
+     * Cell has been reached and queued, but isn't viewable.
+     */
+    public static final int REACHED = 1;
+
+    /**
+     * Cell has been reached, and has been added to the viewable states.
+     */
+    public static final int VIEWABLE = 2;
+
+    // Each fill pushes each cell at most once, so one stack of the full size per thread can be reused for every fill
+    private static final ThreadLocal<int[]> STACKS = new ThreadLocal<>();
+
+    private final int[] relX;
+    private final int[] relY;
+    private final int[] relZ;
+    private final boolean[] edgeIndices;
+    private final int[] offsets;
+
+    private final int maxXZ;
+    private final int maxY;
+    private final int zMultip;
+    private final int yMultip;
+    private final int totalArrayLength;
+
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+
+    private final int destX;
+    private final int destY;
+    private final int destZ;
+
+    // Rotation from the origin to the destination, rounded to integers since portals only rotate by multiples of 90 degrees
+    private final int m00, m01, m02;
+    private final int m10, m11, m12;
+    private final int m20, m21, m22;
+
+    // The row of the rotation matrix that gives the destination coordinate along the destination portal's normal
+    private final int depth0, depth1, depth2;
+
+    public FloodFillEngine(RenderConfig renderConfig, Matrix rotateOriginToDest, IntVector originPos, IntVector destPos, PortalDirection destDirection) {
+        this.relX = renderConfig.getIndexRelX();
+        this.relY = renderConfig.getIndexRelY();
+        this.relZ = renderConfig.getIndexRelZ();
+        this.edgeIndices = renderConfig.getEdgeIndices();
+        this.offsets = renderConfig.getIntOffsets();
+
+        this.maxXZ = (int) renderConfig.getMaxXZ();
+        this.maxY = (int) renderConfig.getMaxY();
+        this.zMultip = renderConfig.getZMultip();
+        this.yMultip = renderConfig.getYMultip();
+        this.totalArrayLength = renderConfig.getTotalArrayLength();
+
+        this.originX = originPos.getX();
+        this.originY = originPos.getY();
+        this.originZ = originPos.getZ();
+        this.destX = destPos.getX();
+        this.destY = destPos.getY();
+        this.destZ = destPos.getZ();
+
+        double[][] m = rotateOriginToDest.m;
+        m00 = (int) Math.round(m[0][0]); m01 = (int) Math.round(m[0][1]); m02 = (int) Math.round(m[0][2]);
+        m10 = (int) Math.round(m[1][0]); m11 = (int) Math.round(m[1][1]); m12 = (int) Math.round(m[1][2]);
+        m20 = (int) Math.round(m[2][0]); m21 = (int) Math.round(m[2][1]); m22 = (int) Math.round(m[2][2]);
+
+        // Equivalent to checking the Z coordinate of the vector swapped by the destination direction
+        switch(destDirection) {
+            case EAST:
+            case WEST:
+                depth0 = m00; depth1 = m01; depth2 = m02;
+                break;
+            case UP:
+            case DOWN:
+                depth0 = m10; depth1 = m11; depth2 = m12;
+                break;
+            default:
+                depth0 = m20; depth1 = m21; depth2 = m22;
+                break;
+        }
+    }
+
+    /**
+     * @return The number of cells in the flood fill area
+     */
+    public int getTotalArrayLength() {
+        return totalArrayLength;
+    }
+
+    /**
+     * @return The index of the block at the center of the portal
+     */
+    public int getCenterIndex() {
+        return indexOf(0, 0, 0);
+    }
+
+    /**
+     * Finds the array index of a position relative to the portal.
+     * @param x Relative X coordinate
+     * @param y Relative Y coordinate
+     * @param z Relative Z coordinate
+     * @return The array index
+     */
+    public int indexOf(int x, int y, int z) {
+        return (x + maxXZ) + (z + maxXZ) * zMultip + (y + maxY) * yMultip;
+    }
+
+    /**
+     * Finds the array index of an absolute position at the origin.
+     * @param x Absolute X coordinate
+     * @param y Absolute Y coordinate
+     * @param z Absolute Z coordinate
+     * @return The array index, or -1 if the position is outside the flood fill area
+     */
+    public int indexOfOrigin(int x, int y, int z) {
+        return indexOfRelative(x - originX, y - originY, z - originZ);
+    }
+
+    /**
+     * Finds the array index of an absolute position at the destination.
+     * @param x Absolute X coordinate
+     * @param y Absolute Y coordinate
+     * @param z Absolute Z coordinate
+     * @return The array index, or -1 if the position is outside the flood fill area
+     */
+    public int indexOfDest(int x, int y, int z) {
+        int dx = x - destX;
+        int dy = y - destY;
+        int dz = z - destZ;
+
+        // The inverse of a rotation is its transpose
+        return indexOfRelative(
+                m00 * dx + m10 * dy + m20 * dz,
+                m01 * dx + m11 * dy + m21 * dz,
+                m02 * dx + m12 * dy + m22 * dz
+        );
+    }
+
+    private int indexOfRelative(int x, int y, int z) {
+        if(x < -maxXZ || x > maxXZ || y < -maxY || y > maxY || z < -maxXZ || z > maxXZ) {
+            return -1;
+        }
+
+        return indexOf(x, y, z);
+    }
+
+    public int getRelX(int index) {
+        return relX[index];
+    }
+
+    public int getRelY(int index) {
+        return relY[index];
+    }
+
+    public int getRelZ(int index) {
+        return relZ[index];
+    }
+
+    public int getOriginX(int index) {
+        return originX + relX[index];
+    }
+
+    public int getOriginY(int index) {
+        return originY + relY[index];
+    }
+
+    public int getOriginZ(int index) {
+        return originZ + relZ[index];
+    }
+
+    public int getDestX(int index) {
+        return destX + m00 * relX[index] + m01 * relY[index] + m02 * relZ[index];
+    }
+
+    public int getDestY(int index) {
+        return destY + m10 * relX[index] + m11 * relY[index] + m12 * relZ[index];
+    }
+
+    public int getDestZ(int index) {
+        return destZ + m20 * relX[index] + m21 * relY[index] + m22 * relZ[index];
+    }
+
+    /**
+     * @param index The array index of the cell
+     * @return The absolute position of the cell at the origin. Allocates, so should only be used for blocks that are actually kept
+     */
+    public IntVector getOriginPos(int index) {
+        return new IntVector(getOriginX(index), getOriginY(index), getOriginZ(index));
+    }
+
+    /**
+     * @param index The array index of the cell
+     * @return Whether the cell is on the edge of the flood fill area
+     */
+    public boolean isEdge(int index) {
+        return edgeIndices[index];
+    }
+
+    /**
+     * @param index The array index of the cell
+     * @return Whether the cell is in line with the plane of the portal, and so can never be seen through it
+     */
+    public boolean isInLine(int index) {
+        return depth0 * relX[index] + depth1 * relY[index] + depth2 * relZ[index] == 0;
+    }
+
+    /**
+     * Flood fills from <code>startIndex</code>, calling <code>visitor</code> for each cell reached.
+     * Cells are marked as {@link FloodFillEngine#REACHED} in <code>reachedMap</code> when queued, and are never queued twice.
+     * Edge cells are never spread from, so no bounds checks are necessary.
+     * @param startIndex Index to start the fill from. This is visited even if it has already been reached
+     * This must not be called again from within <code>visitor</code>, since the stack is shared by each thread.
+     * @param reachedMap The current state of each cell
+     * @param visitor Called for each reached cell
+     */
+    public void fill(int startIndex, CellStateMap reachedMap, CellVisitor visitor) {
+        // Each cell is pushed at most once, plus the start cell, so the stack never needs resizing
+        int[] stack = STACKS.get();
+        if(stack == null || stack.length != totalArrayLength + 1) {
+            stack = new int[totalArrayLength + 1];
+            STACKS.set(stack);
+        }
+
+        if(reachedMap.get(startIndex) == UNREACHED) {
+            reachedMap.set(startIndex, REACHED);
+        }
+        stack[0] = startIndex;
+        int stackPos = 0;
+
+        while(stackPos >= 0) {
+            int index = stack[stackPos--];
+
+            if(!visitor.visitCell(index) || edgeIndices[index]) {continue;}
+
+            for(int offset : offsets) {
+                int newIndex = index + offset;
+                if(reachedMap.get(newIndex) == UNREACHED) {
+                    reachedMap.set(newIndex, REACHED);
+                    stack[++stackPos] = newIndex;
+                }
+            }
+        }
+    }
+}
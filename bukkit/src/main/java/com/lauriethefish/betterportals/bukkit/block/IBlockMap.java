@@ -7,8 +7,6 @@ import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
-
 /**
  * Creates a map of the blocks around the portal within the view distance.
  * Implements skipping of blocks that are fully covered by opaque blocks.
@@ -23,10 +21,11 @@ public interface IBlockMap {
     void update(int ticksSinceActivated);
 
     /**
-     * Gets the current list of viewable positions.
-     * @return The current list of viewable positions and their data, or null if no list is currently available
+     * Gets the current store of viewable blocks.
+     * This is replaced whenever the map is reset, so entry indices are only valid within the same instance.
+     * @return The current viewable blocks and their data, or null if none are currently available
      */
-    @Nullable List<IViewableBlockInfo> getViewableStates();
+    @Nullable ViewableBlockStore getViewableBlockStore();
 
 
     /**
@@ -10,25 +10,20 @@ import org.bukkit.util.Vector;
  */
 public interface IMultiBlockChangeManager {
     /**
-     * Adds a new change to the map via a {@link IViewableBlockInfo}. The origin data of the block will be used.
-     * @param position Position relative to the world that the player is in
-     * @param newData The new block data that the player will see. Each overrider will specify a different {@link IViewableBlockInfo} subtype that allows them to fetch the data.
-     */
-    void addChangeOrigin(Vector position, IViewableBlockInfo newData);
-
-    /**
-     * Adds a new change to the map via a {@link IViewableBlockInfo}. The rendered destination data of this block will be used
+     * Adds a new change to the map.
      * @param position Position relative to the world that the player is in
-     * @param newData The new block data that the player will see. Each overrider will specify a different {@link IViewableBlockInfo} subtype that allows them to fetch the data.
+     * @param newData The new block data that the player will see.
      */
-    void addChangeDestination(Vector position, IViewableBlockInfo newData);
+    void addChange(Vector position, WrappedBlockData newData);
 
     /**
-     * Adds a new change to the map.
-     * @param position Position relative to the world that the player is in
+     * Adds a new change to the map, without needing to allocate a position.
+     * @param x X coordinate of the block in the world that the player is in
+     * @param y Y coordinate of the block
+     * @param z Z coordinate of the block
      * @param newData The new block data that the player will see.
      */
-    void addChange(Vector position, WrappedBlockData newData);
+    void addChange(int x, int y, int z, WrappedBlockData newData);
 
     /**
      * Sends all queued changes.
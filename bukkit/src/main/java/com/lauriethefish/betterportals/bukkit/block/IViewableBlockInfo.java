@@ -1,10 +0,0 @@
-package com.lauriethefish.betterportals.bukkit.block;
-
-import com.lauriethefish.betterportals.api.IntVector;
-
-/**
- * Used to represent each block rendered by the portal
- */
-public interface IViewableBlockInfo {
-    IntVector getOriginPos();
-}
@@ -0,0 +1,123 @@
+package com.lauriethefish.betterportals.bukkit.block;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.portal.IPortal;
+import org.bukkit.util.Vector;
+
+import java.util.BitSet;
+
+/**
+ * The cells around a portal that can be seen through its window from some eye position that can activate the portal.
+ * This is the union of the view frusta from every eye within the activation distance, on either side of the portal, through the window.
+ * Cells outside of it are never visible to any player, so the flood fill doesn't need to reach them.
+ * <p>
+ * Eyes may be arbitrarily close to the portal plane, and from there every cell behind the plane can be seen at a grazing angle.
+ * Cells are therefore only culled if eyes are assumed to stay at least a minimum distance from the plane.
+ */
+public class PortalViewVolume {
+    // Activation distance is measured from the player's feet, so eyes may be this much further away
+    private static final double MAX_EYE_HEIGHT = 1.62;
+    private static final double EPSILON = 0.000001;
+
+    private final BitSet cells;
+    private final int totalCells;
+
+    /**
+     * Finds which cells of the flood fill area are within the view volume.
+     * @param portal The portal to find the volume of
+     * @param engine Used to find the position of each cell relative to the portal
+     * @param activationDistance The maximum distance of a player's feet from the portal center for the portal to be active
+     * @param minEyeDistance The minimum distance that eyes are assumed to be from the portal plane
+     */
+    public PortalViewVolume(IPortal portal, FloodFillEngine engine, double activationDistance, double minEyeDistance) {
+        this.totalCells = engine.getTotalArrayLength();
+        this.cells = new BitSet(totalCells);
+
+        Vector windowCenter = portal.getOriginPos().getVector();
+        IntVector blockPos = new IntVector(windowCenter);
+        int normalAxis = getAxis(portal.getOriginPos().getDirection().toVector());
+        double[] halfSize = toArray(portal.getTransformations().getWindowHalfSize());
+        double eyeRadius = activationDistance + MAX_EYE_HEIGHT;
+
+        // Offset from the window center to the center of the block at the portal position, which the flood fill indices are relative to
+        double[] offset = {
+                blockPos.getX() + 0.5 - windowCenter.getX(),
+                blockPos.getY() + 0.5 - windowCenter.getY(),
+                blockPos.getZ() + 0.5 - windowCenter.getZ()
+        };
+
+        double[] relPos = new double[3];
+        for(int index = 0; index < totalCells; index++) {
+            relPos[0] = engine.getRelX(index) + offset[0];
+            relPos[1] = engine.getRelY(index) + offset[1];
+            relPos[2] = engine.getRelZ(index) + offset[2];
+
+            // Cells in line with the portal are never rendered, but the flood fill must spread through them to reach either side
+            if(engine.isInLine(index) || isVisible(relPos, normalAxis, halfSize, eyeRadius, minEyeDistance)) {
+                cells.set(index);
+            }
+        }
+    }
+
+    /**
+     * Finds if a point can be seen through the window from an eye on the other side of the plane, within <code>eyeRadius</code> of the window center and at least <code>minEyeDistance</code> from the plane.
+     * For an eye at distance e from the plane, the rays from the point through the window cover a rectangle centered on <code>-pos * e / depth</code> with half size <code>halfSize * (1 + e / depth)</code>.
+     * Moving the eye further from the plane only moves this rectangle away from the window center, so only the closest allowed eye distance needs checking.
+     * @param pos Position of the point relative to the window center
+     * @param normalAxis Index of the axis of the portal normal
+     * @param halfSize Half size of the window on each axis
+     * @param eyeRadius Maximum distance of an eye from the window center
+     * @param minEyeDistance Minimum distance of an eye from the plane
+     * @return Whether the point is visible from any eye position
+     */
+    static boolean isVisible(double[] pos, int normalAxis, double[] halfSize, double eyeRadius, double minEyeDistance) {
+        double depth = Math.abs(pos[normalAxis]);
+        if(depth < EPSILON) {return true;} // Points on the plane are left to the flood fill's in line check
+
+        double eyeDistance = Math.max(minEyeDistance, EPSILON);
+        double ratio = eyeDistance / depth;
+
+        // Squared distance from the window center to the closest eye position that can see the point
+        double distanceSq = eyeDistance * eyeDistance;
+        for(int axis = 0; axis < 3; axis++) {
+            if(axis == normalAxis) {continue;}
+
+            double lateral = Math.max(0.0, Math.abs(pos[axis]) * ratio - halfSize[axis] * (1.0 + ratio));
+            distanceSq += lateral * lateral;
+        }
+
+        return distanceSq <= eyeRadius * eyeRadius;
+    }
+
+    private static int getAxis(Vector direction) {
+        if(Math.abs(direction.getX()) > 0.5) {return 0;}
+        if(Math.abs(direction.getY()) > 0.5) {return 1;}
+        return 2;
+    }
+
+    private static double[] toArray(Vector vec) {
+        return new double[]{Math.abs(vec.getX()), Math.abs(vec.getY()), Math.abs(vec.getZ())};
+    }
+
+    /**
+     * @param index The array index of the cell
+     * @return Whether the cell can be seen through the portal from any eye position
+     */
+    public boolean contains(int index) {
+        return cells.get(index);
+    }
+
+    /**
+     * @return The number of cells within the volume
+     */
+    public int size() {
+        return cells.cardinality();
+    }
+
+    /**
+     * @return The number of cells that can never be seen through the portal
+     */
+    public int getCulledSize() {
+        return totalCells - cells.cardinality();
+    }
+}
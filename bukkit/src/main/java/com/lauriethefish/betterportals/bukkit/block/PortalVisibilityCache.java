@@ -0,0 +1,138 @@
+package com.lauriethefish.betterportals.bukkit.block;
+
+import com.google.inject.Inject;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.bukkit.util.performance.ViewUpdateMetrics;
+import org.bukkit.util.Vector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches which blocks of a portal are visible from each eye position, so that players standing in nearly the same place share one visibility check.
+ * Eye positions are snapped to a grid of {@link PortalVisibilityCache#CELLS_PER_BLOCK} cells per block, and visibility is always found from the center of the cell.
+ * <p>
+ * Cached results are only valid for the store and size that they were found with. Once the portal's viewable blocks change, the cache is emptied.
+ */
+public class PortalVisibilityCache {
+    public static final int CELLS_PER_BLOCK = 8;
+
+    private static final int CELL_BITS = 20;
+    private static final int VARIANT_BITS = 64 - CELL_BITS * 3;
+    private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+    private static final int CELL_OFFSET = 1 << (CELL_BITS - 1);
+
+    private final RenderConfig renderConfig;
+    private final ViewUpdateMetrics metrics;
+
+    // Access ordered, so that the eldest entry is always the least recently used
+    private final Map<Long, BitSet> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BitSet> eldest) {
+            return size() > renderConfig.getVisibilityCacheSize();
+        }
+    };
+
+    // The version of the viewable blocks that the entries were found for
+    private ViewableBlockStore store;
+    private int storeSize;
+
+    @Inject
+    public PortalVisibilityCache(RenderConfig renderConfig, ViewUpdateMetrics metrics) {
+        this.renderConfig = renderConfig;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Finds the cell containing an eye position.
+     * @param store The store that the cell is relative to
+     * @param eyePosition The absolute eye position
+     * @param variant Distinguishes results found differently from the same cell, e.g. for a different level of detail. Must be less than 16
+     * @return The cell, packed into a long
+     */
+    public static long getCell(@NotNull ViewableBlockStore store, @NotNull Vector eyePosition, int variant) {
+        if(variant < 0 || variant >= 1 << VARIANT_BITS) {
+            throw new IllegalArgumentException("Visibility cache variant out of range");
+        }
+
+        long x = (long) Math.floor((eyePosition.getX() - store.getBaseX()) * CELLS_PER_BLOCK) + CELL_OFFSET;
+        long y = (long) Math.floor((eyePosition.getY() - store.getBaseY()) * CELLS_PER_BLOCK) + CELL_OFFSET;
+        long z = (long) Math.floor((eyePosition.getZ() - store.getBaseZ()) * CELLS_PER_BLOCK) + CELL_OFFSET;
+        return (x & CELL_MASK) | (y & CELL_MASK) << CELL_BITS | (z & CELL_MASK) << (CELL_BITS * 2) | (long) variant << (CELL_BITS * 3);
+    }
+
+    /**
+     * Finds the eye position that visibility is checked from for a cell.
+     * @param store The store that the cell is relative to
+     * @param cell The cell from {@link PortalVisibilityCache#getCell(ViewableBlockStore, Vector, int)}
+     * @return The absolute position of the center of the cell
+     */
+    public static @NotNull Vector getCellCenter(@NotNull ViewableBlockStore store, long cell) {
+        return new Vector(
+                store.getBaseX() + (unpackCell(cell) + 0.5) / CELLS_PER_BLOCK,
+                store.getBaseY() + (unpackCell(cell >> CELL_BITS) + 0.5) / CELLS_PER_BLOCK,
+                store.getBaseZ() + (unpackCell(cell >> (CELL_BITS * 2)) + 0.5) / CELLS_PER_BLOCK
+        );
+    }
+
+    private static long unpackCell(long bits) {
+        return (bits & CELL_MASK) - CELL_OFFSET;
+    }
+
+    /**
+     * Finds the cached visibility of the blocks from a cell.
+     * @param cell The cell that the eye is in
+     * @param store The current store of the portal
+     * @param size The size of the store that visibility is needed for
+     * @return The indices of the visible blocks, which must not be modified, or null if not cached
+     */
+    public synchronized @Nullable BitSet get(long cell, @NotNull ViewableBlockStore store, int size) {
+        BitSet visible = null;
+        if(store == this.store && size == storeSize) {
+            visible = entries.get(cell);
+        }
+
+        if(visible == null) {
+            metrics.recordVisibilityCacheMiss();
+        }   else    {
+            metrics.recordVisibilityCacheHit();
+        }
+        return visible;
+    }
+
+    /**
+     * Caches the visibility of the blocks from a cell, emptying the cache first if the store has changed since the cached results were found.
+     * @param cell The cell that visibility was found from
+     * @param store The store that visibility was found for
+     * @param size The size of the store that visibility was found for
+     * @param visible Indices of the visible blocks, which are copied
+     */
+    public void put(long cell, @NotNull ViewableBlockStore store, int size, @NotNull BitSet visible) {
+        if(renderConfig.getVisibilityCacheSize() == 0) {return;}
+
+        BitSet copy = (BitSet) visible.clone();
+        synchronized(this) {
+            if(store != this.store || size != storeSize) {
+                // An older update may finish after a newer one, in which case its result is not worth keeping
+                if(store == this.store && size < storeSize) {return;}
+
+                entries.clear();
+                this.store = store;
+                this.storeSize = size;
+            }
+            entries.put(cell, copy);
+        }
+    }
+
+    /**
+     * Removes all cached results, e.g. when the portal is deactivated.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        store = null;
+        storeSize = 0;
+    }
+}
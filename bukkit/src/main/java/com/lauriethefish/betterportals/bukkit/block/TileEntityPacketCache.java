@@ -0,0 +1,128 @@
+package com.lauriethefish.betterportals.bukkit.block;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.nms.BlockDataUtil;
+import org.bukkit.block.Block;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Shared between all portals, this caches the packet used to send the data of each tile entity, so that its state only needs reading once it changes.
+ * Entries are removed by block and inventory events when the tile entity may have changed, instead of checking every tile entity on every update.
+ * <p>
+ * Packets are shared between every player viewing the tile entity, so must not be modified once returned.
+ * Only used on the main thread, since tile entity states can only be read there.
+ */
+@Singleton
+public class TileEntityPacketCache {
+    private static final int MAX_ENTRIES = 8192;
+
+    // Access ordered, so that the eldest entry is always the least recently used
+    private final Map<BlockKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BlockKey, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Finds the packet to send the data of a tile entity to another position, e.g. a destination tile entity shown at the origin.
+     * @param block The tile entity block
+     * @param position The position to send the data to
+     * @return The packet, or null if the block has no data to send
+     */
+    public @Nullable PacketContainer getPacket(@NotNull Block block, @NotNull IntVector position) {
+        Entry entry = getEntry(block);
+        if(entry.packet == null) {return null;}
+        if(position.getX() == block.getX() && position.getY() == block.getY() && position.getZ() == block.getZ()) {return entry.packet;}
+
+        return entry.movedPackets.computeIfAbsent(position, (key) -> {
+            PacketContainer moved = entry.packet.deepClone();
+            BlockDataUtil.setTileEntityPosition(moved, key);
+            return moved;
+        });
+    }
+
+    private Entry getEntry(Block block) {
+        BlockKey key = new BlockKey(block);
+        Entry entry = entries.get(key);
+        if(entry != null) {
+            hits++;
+            return entry;
+        }
+        misses++;
+
+        entry = new Entry(BlockDataUtil.getUpdatePacket(block.getState()));
+        entries.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Removes the cached packet for a block, since its tile entity may have changed.
+     * @param block The block that may have changed
+     */
+    public void invalidate(@NotNull Block block) {
+        entries.remove(new BlockKey(block));
+    }
+
+    /**
+     * @return The number of packets that were reused
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of tile entity states that had to be read
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    private static class Entry {
+        // Null if the block has no data to send
+        private final @Nullable PacketContainer packet;
+        // Copies of the packet sent to other positions
+        private final Map<IntVector, PacketContainer> movedPackets = new HashMap<>();
+
+        private Entry(@Nullable PacketContainer packet) {
+            this.packet = packet;
+        }
+    }
+
+    private static class BlockKey {
+        private final UUID worldId;
+        private final int x;
+        private final int y;
+        private final int z;
+
+        private BlockKey(Block block) {
+            this.worldId = block.getWorld().getUID();
+            this.x = block.getX();
+            this.y = block.getY();
+            this.z = block.getZ();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof BlockKey other)) {return false;}
+            return x == other.x && y == other.y && z == other.z && worldId.equals(other.worldId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(worldId, x, y, z);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.lauriethefish.betterportals.bukkit.block;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Stores the viewable blocks of a portal as parallel primitive arrays, instead of one object per block.
+ * Positions are packed relative to the portal origin, and the data of each block is an ID in {@link BlockStatePalette}.
+ * <p>
+ * Entries are only ever appended, by the flood fill thread, and become visible to readers when {@link ViewableBlockStore#publish()} is called.
+ * Readers must call {@link ViewableBlockStore#size()} <i>before</i> fetching the arrays.
+ * <p>
+ * The data of existing entries may change when blocks change. Each change gives the entry a new version, so that readers can find the entries changed since they last looked with {@link ViewableBlockStore#getVersions()}.
+ */
+public class ViewableBlockStore {
+    private static final int COORDINATE_BITS = 10;
+    private static final int COORDINATE_MASK = (1 << COORDINATE_BITS) - 1;
+    private static final int COORDINATE_OFFSET = 1 << (COORDINATE_BITS - 1);
+
+    @Getter private final BlockStatePalette palette = new BlockStatePalette();
+
+    @Getter private final int baseX;
+    @Getter private final int baseY;
+    @Getter private final int baseZ;
+
+    private volatile int[] positions = new int[256];
+    private volatile int[] originDataIds = new int[256];
+    private volatile int[] destDataIds = new int[256];
+    // The version at which the data of each entry last changed
+    private volatile int[] versions = new int[256];
+
+    private int pendingSize = 0;
+    private volatile int size = 0;
+
+    private int pendingVersion = 0;
+    private volatile int version = 0;
+
+    public ViewableBlockStore(@NotNull IntVector base) {
+        this.baseX = base.getX();
+        this.baseY = base.getY();
+        this.baseZ = base.getZ();
+    }
+
+    /**
+     * Packs a position relative to the portal into one integer.
+     * @param x Relative X coordinate
+     * @param y Relative Y coordinate
+     * @param z Relative Z coordinate
+     * @return The packed position
+     */
+    public static int packPosition(int x, int y, int z) {
+        return (x + COORDINATE_OFFSET) | (y + COORDINATE_OFFSET) << COORDINATE_BITS | (z + COORDINATE_OFFSET) << (COORDINATE_BITS * 2);
+    }
+
+    public static int unpackX(int packed) {
+        return (packed & COORDINATE_MASK) - COORDINATE_OFFSET;
+    }
+
+    public static int unpackY(int packed) {
+        return ((packed >> COORDINATE_BITS) & COORDINATE_MASK) - COORDINATE_OFFSET;
+    }
+
+    public static int unpackZ(int packed) {
+        return ((packed >> (COORDINATE_BITS * 2)) & COORDINATE_MASK) - COORDINATE_OFFSET;
+    }
+
+    /**
+     * Adds a new viewable block. This won't be visible to readers until {@link ViewableBlockStore#publish()} is called.
+     * @param packedPosition Position relative to the portal, as given by {@link ViewableBlockStore#packPosition(int, int, int)}
+     * @param originDataId Palette ID of the data at the origin
+     * @param destDataId Palette ID of the rendered data at the destination
+     * @return The index of the new block
+     */
+    public int add(int packedPosition, int originDataId, int destDataId) {
+        if(pendingSize == positions.length) {
+            int newLength = positions.length * 2;
+            // Old arrays still hold every published entry, so readers holding them are unaffected
+            originDataIds = Arrays.copyOf(originDataIds, newLength);
+            destDataIds = Arrays.copyOf(destDataIds, newLength);
+            versions = Arrays.copyOf(versions, newLength);
+            positions = Arrays.copyOf(positions, newLength);
+        }
+
+        positions[pendingSize] = packedPosition;
+        originDataIds[pendingSize] = originDataId;
+        destDataIds[pendingSize] = destDataId;
+        versions[pendingSize] = pendingVersion;
+        return pendingSize++;
+    }
+
+    /**
+     * Makes all added blocks and changed versions visible to readers at once.
+     */
+    public void publish() {
+        version = pendingVersion;
+        size = pendingSize;
+    }
+
+    public void setOriginDataId(int index, int id) {
+        if(originDataIds[index] == id) {return;}
+
+        originDataIds[index] = id;
+        versions[index] = ++pendingVersion;
+    }
+
+    public void setDestDataId(int index, int id) {
+        if(destDataIds[index] == id) {return;}
+
+        destDataIds[index] = id;
+        versions[index] = ++pendingVersion;
+    }
+
+    /**
+     * Gives an entry a new version without changing its data, e.g. when only its tile entity changed, so that readers resend it.
+     * @param index Index of the entry
+     */
+    public void markChanged(int index) {
+        versions[index] = ++pendingVersion;
+    }
+
+    /**
+     * @return The version of the last published change to the data of an entry
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The number of published blocks. This must be read before any of the arrays
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The packed positions, which are valid up to {@link ViewableBlockStore#size()}
+     */
+    public int[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * @return The origin palette IDs, which are valid up to {@link ViewableBlockStore#size()}
+     */
+    public int[] getOriginDataIds() {
+        return originDataIds;
+    }
+
+    /**
+     * @return The rendered destination palette IDs, which are valid up to {@link ViewableBlockStore#size()}
+     */
+    public int[] getDestDataIds() {
+        return destDataIds;
+    }
+
+    /**
+     * @return The version at which the data of each entry last changed, which are valid up to {@link ViewableBlockStore#size()}
+     */
+    public int[] getVersions() {
+        return versions;
+    }
+}
@@ -5,177 +5,267 @@ import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.block.BlockChangeIndex;
+import com.lauriethefish.betterportals.bukkit.block.BlockDataInterner;
 import com.lauriethefish.betterportals.bukkit.block.FloodFillBlockMap;
-import com.lauriethefish.betterportals.bukkit.block.IViewableBlockInfo;
+import com.lauriethefish.betterportals.bukkit.block.FloodFillBufferPool;
+import com.lauriethefish.betterportals.bukkit.block.FloodFillEngine;
+import com.lauriethefish.betterportals.bukkit.block.TileEntityPacketCache;
+import com.lauriethefish.betterportals.bukkit.block.ViewableBlockStore;
 import com.lauriethefish.betterportals.bukkit.block.fetch.BlockDataFetcherFactory;
+import com.lauriethefish.betterportals.bukkit.block.fetch.BlockDataSource;
+import com.lauriethefish.betterportals.bukkit.block.fetch.ChunkSnapshotGrid;
 import com.lauriethefish.betterportals.bukkit.block.fetch.IBlockDataFetcher;
 import com.lauriethefish.betterportals.bukkit.block.lighting.ILightDataManager;
-import com.lauriethefish.betterportals.bukkit.block.rotation.IBlockRotator;
+import com.lauriethefish.betterportals.bukkit.config.MiscConfig;
 import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.bukkit.math.Matrix;
 import com.lauriethefish.betterportals.bukkit.nms.BlockDataUtil;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
+import com.lauriethefish.betterportals.bukkit.tasks.BlockMapUpdateExecutor;
 import com.lauriethefish.betterportals.bukkit.util.MaterialUtil;
+import com.lauriethefish.betterportals.bukkit.util.performance.BlockMapUpdateMetrics;
 import com.lauriethefish.betterportals.shared.logging.Logger;
-import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockState;
 import org.bukkit.block.data.BlockData;
-import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * A bukkit implementation of a flood fill block map.
  */
 public class BukkitBlockMap extends FloodFillBlockMap {
-    private final IBlockRotator blockRotator;
+    private final BlockDataInterner blockDataInterner;
     private final BlockDataFetcherFactory dataFetcherFactory;
     private final Matrix rotateDestToOrigin;
     private IBlockDataFetcher dataFetcher;
 
     private final World originWorld;
     private final ILightDataManager lightDataManager;
+    private final BlockMapUpdateExecutor updateExecutor;
+    private final TileEntityPacketCache tileEntityPacketCache;
 
     private WrappedBlockData wrappedLightData;
+    // Fetched on the main thread before each update, since finding it reads the world time
+    private WrappedBlockData backgroundData;
+
+    // Where blocks are read from during the current update. These are the worlds themselves for synchronous updates, or captured chunks for async updates
+    private BlockDataSource originSource;
+    private BlockDataSource destSource;
+
+    // Set while an async update is queued or running, during which only the worker may touch the flood fill state
+    // This isn't an AtomicBoolean, since the superclass constructor calls reset before fields of this class are initialised
+    private volatile boolean asyncUpdateRunning;
+    // Incremented on reset, so that async updates queued before the reset are discarded
+    private int generation = 0;
+    // Set by the flood fill benchmark, so that it times the fill itself rather than just capturing chunks
+    private boolean alwaysSynchronous = false;
+
+    // Tile entities found by async updates, which must be fetched on the main thread
+    private boolean deferTileStates;
+    private BitSet pendingOriginTileStates;
+    private BitSet pendingDestTileStates;
+    // Tile entities whose block changed during an async update, so whose cached packets must be discarded on the main thread
+    private BitSet pendingOriginInvalidations;
+    private BitSet pendingDestInvalidations;
+
+    // The last fetched data of each reached block, indexed by flood fill array index
+    private BlockData[] baseOriginData;
+    private BlockData[] baseDestData;
+    // The index of each viewable block within the viewable block store, only valid for viewable cells
+    private int[] storeIndices;
 
     @Inject
-    public BukkitBlockMap(@Assisted IPortal portal, Logger logger, RenderConfig renderConfig, IBlockRotator blockRotator, BlockDataFetcherFactory dataFetcherFactory, ILightDataManager lightDataManager) {
-        super(portal, logger, renderConfig);
-        this.blockRotator = blockRotator;
+    public BukkitBlockMap(@Assisted IPortal portal, Logger logger, RenderConfig renderConfig, MiscConfig miscConfig, BlockMapUpdateMetrics updateMetrics, BlockChangeIndex changeIndex, FloodFillBufferPool bufferPool, BlockDataInterner blockDataInterner,
+                          BlockDataFetcherFactory dataFetcherFactory, ILightDataManager lightDataManager, BlockMapUpdateExecutor updateExecutor, TileEntityPacketCache tileEntityPacketCache) {
+        super(portal, logger, renderConfig, miscConfig, updateMetrics, changeIndex, bufferPool);
+        this.blockDataInterner = blockDataInterner;
         this.dataFetcherFactory = dataFetcherFactory;
         this.rotateDestToOrigin = portal.getTransformations().getRotateToOrigin();
         this.lightDataManager = lightDataManager;
+        this.updateExecutor = updateExecutor;
+        this.tileEntityPacketCache = tileEntityPacketCache;
 
         this.originWorld = portal.getOriginPos().getWorld();
         logger.fine("Origin pos: %s, Dest pos: %s", portalOriginPos, portalDestPos);
         logger.fine("Origin direction: %s, Dest Direction: %s", portal.getOriginPos().getDirection(), portal.getDestPos().getDirection());
     }
 
-    protected void searchFromBlock(IntVector start, List<IViewableBlockInfo> statesOutput, @Nullable IViewableBlockInfo firstBlockInfo) {
-        WrappedBlockData backgroundData = getBackgroundData();
-
+    @Override
+    protected void searchFromBlock(int startIndex) {
         final int timeBetweenLightBlocks = renderConfig.getLightSimulationInterval();
 
-        if (wrappedLightData == null) {
-            wrappedLightData = lightDataManager.getLightData(portal);
-        }
-
         boolean enableLightBlocks = wrappedLightData != null && timeBetweenLightBlocks >= 1;
-        int airCount = 0;
-
-        // Preallocate stack with a reasonable size
-        int[] stack = new int[Math.max(16, renderConfig.getTotalArrayLength())]; // Adjusted to prevent frequent resizing
-        stack[0] = getArrayMapIndex(start.subtract(centerPos));
-        int stackPos = 0;
-
-        while (stackPos >= 0) {
-            int positionInt = stack[stackPos--];
+        int[] airCount = new int[1];
+        boolean[] fetchFailed = new boolean[1];
 
-            int relX = (positionInt % renderConfig.getZMultip());
-            int relY = Math.floorDiv(positionInt, renderConfig.getYMultip());
-            int relZ = Math.floorDiv(positionInt - relY * renderConfig.getYMultip(), renderConfig.getZMultip());
+        engine.fill(startIndex, alreadyReachedMap, (index) -> {
+            if (fetchFailed[0]) {return false;}
+            if (isCulled(index)) {return false;}
 
-            relX -= renderConfig.getMaxXZ();
-            relY -= renderConfig.getMaxY();
-            relZ -= renderConfig.getMaxXZ();
-
-            IntVector originPos = new IntVector(relX + portalOriginPos.getX(), relY + portalOriginPos.getY(), relZ + portalOriginPos.getZ());
-            IntVector destRelPos = rotateOriginToDest.transform(relX, relY, relZ);
-            IntVector destPos = destRelPos.add(portalDestPos);
-
-            BlockData destData = dataFetcher.getData(destPos);
+            BlockData destData = destSource.getBlockData(engine.getDestX(index), engine.getDestY(index), engine.getDestZ(index));
             if (destData == null) {
                 logger.warning("Fetched data was null even though the request to get the data had already succeeded. This shouldn't happen!");
-                return;
+                fetchFailed[0] = true;
+                return false;
             }
 
             boolean isOccluding = destData.getMaterial().isOccluding();
 
-            Block originBlock = originPos.getBlock(originWorld);
-            BlockData originData = originBlock.getBlockData();
+            BlockData originData = originSource.getBlockData(engine.getOriginX(index), engine.getOriginY(index), engine.getOriginZ(index));
 
-            handleTileEntityUpdates(originBlock, originPos, originData, destData, destPos);
+            handleTileEntityUpdates(index, originData, destData);
 
-            // Use the existing first block if given, otherwise make a new block info
-            BukkitBlockInfo blockInfo = firstBlockInfo == null ? new BukkitBlockInfo(originPos, originData, destData) : (BukkitBlockInfo) firstBlockInfo;
-            boolean isEdge = renderConfig.isOutsideBounds(relX, relY, relZ);
+            if (baseDestData[index] == null) {
+                addNonObscured(index);
+            }
+            baseOriginData[index] = originData;
+            baseDestData[index] = destData;
 
-            // Update rendered destination data
-            updateRenderedData(isEdge, isOccluding, blockInfo, backgroundData, destData);
+            boolean isEdge = engine.isEdge(index);
 
-            if (firstBlockInfo == null) {
-                nonObscuredStates.add(blockInfo);
+            // Update rendered destination data of blocks that are already viewable
+            if (alreadyReachedMap.get(index) == FloodFillEngine.VIEWABLE) {
+                updateRenderedData(isEdge, isOccluding, storeIndices[index], backgroundData, destData);
             }
-            firstBlockInfo = null;
 
             boolean canSkip = shouldSkipBlock(destData, originData, firstUpdate, isEdge);
 
-            boolean isInLine = isInLine(destRelPos);
-
-            if (alreadyReachedMap[positionInt] < 2 && !isInLine) {
+            if (alreadyReachedMap.get(index) < FloodFillEngine.VIEWABLE && !engine.isInLine(index)) {
                 if (enableLightBlocks && destData.getMaterial().isAir() && !isEdge) {
-                    airCount++;
-                    if (airCount == timeBetweenLightBlocks) {
-                        airCount = 0;
-                        blockInfo.setRenderedDestData(wrappedLightData);
-                        alreadyReachedMap[positionInt] = 2; // Avoid adding multiple times
-                        statesOutput.add(blockInfo);
+                    airCount[0]++;
+                    if (airCount[0] == timeBetweenLightBlocks) {
+                        airCount[0] = 0;
+                        addViewableBlock(index, originData, viewableBlockStore.getPalette().getId(wrappedLightData));
                     }
                 } else if (!canSkip) {
-                    alreadyReachedMap[positionInt] = 2; // Avoid adding multiple times
-                    statesOutput.add(blockInfo);
+                    addViewableBlock(index, originData, getRenderedDataId(isEdge, isOccluding, backgroundData, destData));
                 }
             }
 
-            if (isOccluding || isEdge) continue;
-
-            // Avoid stack resizing if possible
-            if (!firstUpdate && stack.length - (stackPos + 1) < 5) {
-                stack = Arrays.copyOf(stack, stack.length * 2);
-            }
+            return !isOccluding;
+        });
+    }
 
-            // Continue for surrounding blocks
-            for (int offset : renderConfig.getIntOffsets()) {
-                int newPos = positionInt + offset;
-                if (alreadyReachedMap[newPos] == 0) {
-                    alreadyReachedMap[newPos] = 1;
-                    stack[++stackPos] = newPos;
-                }
-            }
-        }
+    private void addViewableBlock(int index, BlockData originData, int renderedDataId) {
+        int packedPosition = ViewableBlockStore.packPosition(engine.getRelX(index), engine.getRelY(index), engine.getRelZ(index));
+        storeIndices[index] = viewableBlockStore.add(packedPosition, viewableBlockStore.getPalette().getId(blockDataInterner.get(originData)), renderedDataId);
+        alreadyReachedMap.set(index, FloodFillEngine.VIEWABLE); // Avoid adding multiple times
     }
 
-    private void handleTileEntityUpdates(Block originBlock, IntVector originPos, BlockData originData, BlockData destData, IntVector destPos) {
+    private void handleTileEntityUpdates(int index, BlockData originData, BlockData destData) {
         // Handle tile entity updates for destination block if applicable
         if (!portal.isCrossServer() && MaterialUtil.isTileEntity(destData.getMaterial())) {
             logger.finer("Adding tile state to map . . .");
-            Block destBlock = destPos.getBlock(Objects.requireNonNull(portal.getDestPos().getWorld()));
-            PacketContainer updatePacket = BlockDataUtil.getUpdatePacket(destBlock.getState());
-            if (updatePacket != null) {
-                BlockDataUtil.setTileEntityPosition(updatePacket, originPos);
-                destTileStates.put(originPos, updatePacket);
-            }
+            queueDestTileState(index);
         }
 
         // Handle tile entity updates for origin block if applicable
-        if (MaterialUtil.isTileEntity(originBlock.getType())) {
+        if (MaterialUtil.isTileEntity(originData.getMaterial())) {
             logger.finer("Adding tile state to map . . .");
-            PacketContainer updatePacket = BlockDataUtil.getUpdatePacket(originBlock.getState());
-            if (updatePacket != null) {
-                originTileStates.put(originPos, updatePacket);
+            queueOriginTileState(index);
+        }
+    }
+
+    // Tile entity states can only be read on the main thread, so async updates leave them until the next update
+    private void queueDestTileState(int index) {
+        if (deferTileStates) {
+            pendingDestTileStates.set(index);
+        } else {
+            updateDestTileState(index);
+        }
+    }
+
+    private void queueOriginTileState(int index) {
+        if (deferTileStates) {
+            pendingOriginTileStates.set(index);
+        } else {
+            updateOriginTileState(index);
+        }
+    }
+
+    // The cached packets are only removed by events, so a block found to have changed by a check must have its packet discarded here
+    private void invalidateDestTileState(int index) {
+        if (deferTileStates) {
+            pendingDestInvalidations.set(index);
+        } else {
+            tileEntityPacketCache.invalidate(getDestBlock(index));
+        }
+    }
+
+    private void invalidateOriginTileState(int index) {
+        if (deferTileStates) {
+            pendingOriginInvalidations.set(index);
+        } else {
+            tileEntityPacketCache.invalidate(getOriginBlock(index));
+        }
+    }
+
+    private void updatePendingTileStates() {
+        // Invalidations go first, so that the states updated below are read again
+        for (int index = pendingDestInvalidations.nextSetBit(0); index >= 0; index = pendingDestInvalidations.nextSetBit(index + 1)) {
+            tileEntityPacketCache.invalidate(getDestBlock(index));
+        }
+        for (int index = pendingOriginInvalidations.nextSetBit(0); index >= 0; index = pendingOriginInvalidations.nextSetBit(index + 1)) {
+            tileEntityPacketCache.invalidate(getOriginBlock(index));
+        }
+
+        for (int index = pendingDestTileStates.nextSetBit(0); index >= 0; index = pendingDestTileStates.nextSetBit(index + 1)) {
+            updateDestTileState(index);
+        }
+        for (int index = pendingOriginTileStates.nextSetBit(0); index >= 0; index = pendingOriginTileStates.nextSetBit(index + 1)) {
+            updateOriginTileState(index);
+        }
+
+        pendingDestTileStates.clear();
+        pendingOriginTileStates.clear();
+        pendingDestInvalidations.clear();
+        pendingOriginInvalidations.clear();
+    }
+
+    // The packets are cached until an event changes the tile entity, so these only read the state if it might have changed
+    private void updateDestTileState(int index) {
+        IntVector originPos = engine.getOriginPos(index);
+        PacketContainer updatePacket = tileEntityPacketCache.getPacket(getDestBlock(index), originPos);
+        if (updatePacket != null) {
+            PacketContainer previousPacket = destTileStates.put(originPos, updatePacket);
+            // Editing e.g. a sign doesn't change its block data, so the entry is marked as changed to resend the block along with its new packet
+            if (previousPacket != null && previousPacket != updatePacket && alreadyReachedMap.get(index) == FloodFillEngine.VIEWABLE) {
+                viewableBlockStore.markChanged(storeIndices[index]);
             }
+        }   else    {
+            destTileStates.remove(originPos);
+        }
+    }
+
+    private void updateOriginTileState(int index) {
+        IntVector originPos = engine.getOriginPos(index);
+        PacketContainer updatePacket = tileEntityPacketCache.getPacket(getOriginBlock(index), originPos);
+        if (updatePacket != null) {
+            originTileStates.put(originPos, updatePacket);
+        }   else    {
+            originTileStates.remove(originPos);
         }
     }
 
+    private Block getDestBlock(int index) {
+        return Objects.requireNonNull(portal.getDestPos().getWorld()).getBlockAt(engine.getDestX(index), engine.getDestY(index), engine.getDestZ(index));
+    }
+
+    private Block getOriginBlock(int index) {
+        return originWorld.getBlockAt(engine.getOriginX(index), engine.getOriginY(index), engine.getOriginZ(index));
+    }
+
+    private void updateRenderedData(boolean isEdge, boolean isOccluding, int storeIndex, WrappedBlockData backgroundData, BlockData destData) {
+        viewableBlockStore.setDestDataId(storeIndex, getRenderedDataId(isEdge, isOccluding, backgroundData, destData));
+    }
 
-    private void updateRenderedData(boolean isEdge, boolean isOccluding, BukkitBlockInfo blockInfo, WrappedBlockData backgroundData, BlockData destData) {
+    private int getRenderedDataId(boolean isEdge, boolean isOccluding, WrappedBlockData backgroundData, BlockData destData) {
         if (isEdge && !isOccluding) {
-            blockInfo.setRenderedDestData(backgroundData);
+            return viewableBlockStore.getPalette().getId(backgroundData);
         } else {
-            blockInfo.setRenderedDestData(WrappedBlockData.createData(blockRotator.rotateByMatrix(rotateDestToOrigin, destData)));
+            return viewableBlockStore.getPalette().getId(blockDataInterner.getRotated(destData, rotateDestToOrigin));
         }
     }
 
@@ -185,114 +275,221 @@ public class BukkitBlockMap extends FloodFillBlockMap {
 
     @Override
     protected void checkForChanges() {
-        List<IViewableBlockInfo> newStates = new ArrayList<>();
-        int statesLength = nonObscuredStates.size();
-
-        // Loop through non-obscured states
-        for (int i = 0; i < statesLength; i++) {
-            BukkitBlockInfo blockInfo = (BukkitBlockInfo) nonObscuredStates.get(i);
-            IntVector originPos = blockInfo.getOriginPos();
-            IntVector destPos = rotateOriginToDest.transform(originPos.subtract(portalOriginPos)).add(portalDestPos);
-
-            // Fetch destination block data once
-            BlockData newDestData = dataFetcher.getData(destPos);
-            if (newDestData == null) continue; // Skip if data fetch failed
-
-            // Check for changes at the destination block
-            if (!newDestData.equals(blockInfo.getBaseDestData())) {
-                logger.finer("Destination block change detected at " + destPos);
-                blockInfo.setBaseDestData(newDestData);
-                searchFromBlock(originPos, newStates, blockInfo); // Reflood fill if necessary
-            }
+        if (fullCheck) {
+            int statesLength = nonObscuredCount;
 
-            // Handle tile entity updates if not cross-server
-            if (!portal.isCrossServer() && MaterialUtil.isTileEntity(newDestData.getMaterial())) {
-                Block destBlock = destPos.getBlock(Objects.requireNonNull(portal.getDestPos().getWorld()));
-                PacketContainer updatePacket = BlockDataUtil.getUpdatePacket(destBlock.getState());
-                if (updatePacket != null) {
-                    BlockDataUtil.setTileEntityPosition(updatePacket, originPos);
-                    destTileStates.put(originPos, updatePacket);
+            // Loop through non-obscured states
+            for (int i = 0; i < statesLength; i++) {
+                checkCell(nonObscuredIndices[i]);
+            }
+        } else {
+            // Only cells already reached by the flood fill need checking, changes elsewhere are found when a reached neighbour changes
+            for (int index = cellsToCheck.nextSetBit(0); index >= 0; index = cellsToCheck.nextSetBit(index + 1)) {
+                if (baseDestData[index] != null) {
+                    checkCell(index);
                 }
             }
+        }
+    }
 
-            // Fetch and compare origin block data
-            Block originBlock = originPos.getBlock(originWorld);
-            BlockData newOriginData = originBlock.getBlockData();
+    private void checkCell(int index) {
+        // Fetch destination block data once
+        BlockData newDestData = destSource.getBlockData(engine.getDestX(index), engine.getDestY(index), engine.getDestZ(index));
+        if (newDestData == null) return; // Skip if data fetch failed
 
-            // Handle origin tile entity updates
-            if (MaterialUtil.isTileEntity(originBlock.getType())) {
-                PacketContainer updatePacket = BlockDataUtil.getUpdatePacket(originBlock.getState());
-                if (updatePacket != null) {
-                    originTileStates.put(originPos, updatePacket);
-                }
-            }
+        // Saved before searching from the block, which replaces the base data
+        BlockData oldOriginData = baseOriginData[index];
 
-            // Check for changes at the origin block
-            if (!newOriginData.equals(blockInfo.getBaseOriginData())) {
-                blockInfo.setOriginData(newOriginData);
-                if (!newOriginData.equals(newDestData) && !portal.getOriginPos().isInLine(originPos)) {
-                    int position = getArrayMapIndex(originPos.subtract(portalOriginPos));
-                    // Add to newStates if it's not already marked as viewable
-                    if (alreadyReachedMap[position] < 2) {
-                        alreadyReachedMap[position] = 2;
-                        newStates.add(blockInfo);
-                    }
-                }
-            }
+        // Check for changes at the destination block
+        boolean destChanged = !newDestData.equals(baseDestData[index]);
+        if (destChanged) {
+            logger.finer("Destination block change detected at array index %d", index);
+            baseDestData[index] = newDestData;
+            searchFromBlock(index); // Reflood fill if necessary
         }
 
-        // Update the tile state maps
-        updateTileStateMap(originTileStates, originWorld, false);
-        if (!portal.isCrossServer()) {
-            updateTileStateMap(destTileStates, portal.getDestPos().getWorld(), true);
+        // Handle tile entity updates if not cross-server
+        if (!portal.isCrossServer() && MaterialUtil.isTileEntity(newDestData.getMaterial())) {
+            if (destChanged) {
+                invalidateDestTileState(index);
+            }
+            queueDestTileState(index);
+        }   else if (!destTileStates.isEmpty()) {
+            destTileStates.remove(engine.getOriginPos(index)); // No longer a tile entity
         }
 
-        // Enqueue new states if any were found
-        if (!newStates.isEmpty()) {
-            stateQueue.enqueueStates(newStates);
+        // Fetch and compare origin block data
+        BlockData newOriginData = originSource.getBlockData(engine.getOriginX(index), engine.getOriginY(index), engine.getOriginZ(index));
+
+        boolean originChanged = !newOriginData.equals(oldOriginData);
+
+        // Handle origin tile entity updates
+        if (MaterialUtil.isTileEntity(newOriginData.getMaterial())) {
+            if (originChanged) {
+                invalidateOriginTileState(index);
+            }
+            queueOriginTileState(index);
+        }   else if (!originTileStates.isEmpty()) {
+            originTileStates.remove(engine.getOriginPos(index));
         }
-    }
 
+        // Check for changes at the origin block
+        if (originChanged) {
+            baseOriginData[index] = newOriginData;
 
-    private void updateTileStateMap(ConcurrentMap<IntVector, PacketContainer> map, World world, boolean isDestination) {
-        for(Map.Entry<IntVector, PacketContainer> entry : map.entrySet()) {
-            IntVector position;
-            if(isDestination) {
-                IntVector portalRelativePos = entry.getKey().subtract(portalOriginPos);
-                position = rotateOriginToDest.transform(portalRelativePos).add(portalDestPos);
-            }   else    {
-                position = entry.getKey();
+            if (alreadyReachedMap.get(index) == FloodFillEngine.VIEWABLE) {
+                viewableBlockStore.setOriginDataId(storeIndices[index], viewableBlockStore.getPalette().getId(blockDataInterner.get(newOriginData)));
             }
 
-            Block block = position.getBlock(world);
-            BlockState state = block.getState();
-            if(!MaterialUtil.isTileEntity(state.getType())) {
-                logger.finer("Removing tile state from map . . . %b", isDestination);
-                map.remove(entry.getKey());
+            if (!newOriginData.equals(newDestData) && !engine.isInLine(index)) {
+                // Add to the viewable blocks if it's not already marked as viewable
+                if (alreadyReachedMap.get(index) < FloodFillEngine.VIEWABLE) {
+                    addViewableBlock(index, newOriginData, getRenderedDataId(engine.isEdge(index), newDestData.getMaterial().isOccluding(), backgroundData, newDestData));
+                }
             }
         }
     }
 
     @Override
     protected void updateInternal() {
+        // Wait for the previous async update to finish, as the flood fill state can't be shared
+        if(asyncUpdateRunning) {
+            logger.fine("Skipping block update, previous async update has not finished");
+            updateMetrics.recordSkipped();
+            return;
+        }
+
         if(dataFetcher == null) {
-            dataFetcher = dataFetcherFactory.create(portal);
+            dataFetcher = dataFetcherFactory.create(portal, new IBlockDataFetcher.ChangeListener() {
+                @Override
+                public void onBlockChanged(int x, int y, int z) {
+                    markDestChanged(x, y, z);
+                }
+
+                @Override
+                public void onAllChanged() {
+                    requestFullCheck();
+                }
+            });
         }
         dataFetcher.update();
 
+        if(baseDestData == null) {
+            baseOriginData = new BlockData[renderConfig.getTotalArrayLength()];
+            baseDestData = new BlockData[renderConfig.getTotalArrayLength()];
+            storeIndices = bufferPool.takeIndexArray(renderConfig.getTotalArrayLength());
+            pendingOriginTileStates = new BitSet();
+            pendingDestTileStates = new BitSet();
+            pendingOriginInvalidations = new BitSet();
+            pendingDestInvalidations = new BitSet();
+        }
+
         // If fetching external blocks has not yet finished, we can't do the flood-fill.
         if(!dataFetcher.isReady()) {
             logger.fine("Not updating portal, data was not yet been fetched");
             return;
         }
 
-        super.updateInternal();
+        // These read the world, so must be found on the main thread
+        backgroundData = getBackgroundData();
+        if(wrappedLightData == null) {
+            wrappedLightData = lightDataManager.getLightData(portal);
+        }
+
+        if(renderConfig.isAsyncBlockUpdates() && !alwaysSynchronous) {
+            updateAsync();
+        }   else    {
+            originSource = originWorld::getBlockData;
+            destSource = dataFetcher::getData;
+            deferTileStates = false;
+
+            super.updateInternal();
+        }
+    }
+
+    /**
+     * Makes updates run entirely on the calling thread, even if async block updates are enabled.
+     * @param alwaysSynchronous Whether to always update synchronously
+     */
+    public void setAlwaysSynchronous(boolean alwaysSynchronous) {
+        this.alwaysSynchronous = alwaysSynchronous;
+    }
+
+    private void updateAsync() {
+        // Finish the main thread parts of the last async update
+        updatePendingTileStates();
+
+        // The destination may be rotated, so the maximum distance along either horizontal axis is the larger of the two sizes
+        int originRadius = (int) renderConfig.getMaxXZ();
+        int destRadius = (int) Math.max(renderConfig.getMaxXZ(), renderConfig.getMaxY());
+        originSource = new ChunkSnapshotGrid(originWorld, portalOriginPos.getX(), portalOriginPos.getZ(), originRadius);
+        if(portal.isCrossServer()) {
+            destSource = dataFetcher::getData;
+        }   else    {
+            World destWorld = Objects.requireNonNull(portal.getDestPos().getWorld(), "Destination world missing");
+            destSource = new ChunkSnapshotGrid(destWorld, portalDestPos.getX(), portalDestPos.getZ(), destRadius);
+        }
+
+        prepareChangeCheck();
+        deferTileStates = true;
+        int updateGeneration = generation;
+        asyncUpdateRunning = true;
+        boolean submitted = updateExecutor.submit(() -> {
+            long startTime = System.nanoTime();
+            synchronized(this) {
+                // If the map was reset, the flag now belongs to the updates after the reset
+                try {
+                    if(updateGeneration == generation) {
+                        runFloodFill();
+                    }
+                }   finally {
+                    finishAsyncUpdate(updateGeneration);
+                }
+            }
+            updateMetrics.recordWorker(System.nanoTime() - startTime);
+        }, () -> {
+            synchronized(this) {
+                finishAsyncUpdate(updateGeneration);
+            }
+        });
+
+        // If the workers aren't running, e.g. the config was changed without a restart, just update synchronously using the snapshots
+        if(!submitted) {
+            asyncUpdateRunning = false;
+            runFloodFill();
+        }
+    }
+
+    // Must be called while synchronized on this block map
+    private void finishAsyncUpdate(int updateGeneration) {
+        if(updateGeneration == generation) {
+            asyncUpdateRunning = false;
+        }
     }
 
     @Override
     public void reset() {
-        dataFetcher = null;
-        wrappedLightData = null;
-        super.reset();
+        // Waits for any async update in progress to finish
+        synchronized(this) {
+            generation++;
+            // Any queued update is now skipped, so the next update mustn't wait for it
+            asyncUpdateRunning = false;
+            if(dataFetcher != null) {
+                dataFetcher.close();
+                dataFetcher = null;
+            }
+            wrappedLightData = null;
+            baseOriginData = null;
+            baseDestData = null;
+            if(storeIndices != null) {
+                bufferPool.recycle(storeIndices);
+                storeIndices = null;
+            }
+            pendingOriginTileStates = null;
+            pendingDestTileStates = null;
+            pendingOriginInvalidations = null;
+            pendingDestInvalidations = null;
+            super.reset();
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,96 +1,79 @@
 package com.lauriethefish.betterportals.bukkit.block.bukkit;
 
-import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.ProtocolLibrary;
-import com.comphenix.protocol.events.PacketContainer;
-import com.comphenix.protocol.wrappers.BlockPosition;
 import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.lauriethefish.betterportals.bukkit.block.IMultiBlockChangeManager;
-import com.lauriethefish.betterportals.bukkit.block.IViewableBlockInfo;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class MultiBlockChangeManager_1_16_2 implements IMultiBlockChangeManager {
     private final Player player;
+    private final SectionPacketCache packetCache;
 
     private final int minChunkY;
     private final int maxChunkY;
 
-    // Section positions have to be done with BlockPositions for now in ProtocolLib
-    private final HashMap<BlockPosition, Map<Vector, WrappedBlockData>> changes = new HashMap<>();
+    // Changes are grouped by section, in the order that each section was first changed
+    private final Map<Long, SectionChanges> sectionsByKey = new HashMap<>();
+    private final List<SectionChanges> sections = new ArrayList<>();
+
+    // Changes usually come in runs within the same section, so the last section is checked before the map
+    private SectionChanges lastSection;
 
     @Inject
-    public MultiBlockChangeManager_1_16_2(@Assisted Player player, @Assisted("minChunkY") int minChunkY, @Assisted("maxChunkY") int maxChunkY) {
+    public MultiBlockChangeManager_1_16_2(@Assisted Player player, @Assisted("minChunkY") int minChunkY, @Assisted("maxChunkY") int maxChunkY, SectionPacketCache packetCache) {
         this.player = player;
         this.minChunkY = minChunkY;
         this.maxChunkY = maxChunkY;
+        this.packetCache = packetCache;
     }
 
     @Override
     public void addChange(Vector position, WrappedBlockData newData) {
-        BlockPosition sectionPosition = new BlockPosition(
-                position.getBlockX() >> 4,
-                position.getBlockY() >> 4,
-                position.getBlockZ() >> 4
-        );
-
-        // Create/get the list for this chunk section
-        Map<Vector, WrappedBlockData> existingList = changes.computeIfAbsent(sectionPosition, k -> new HashMap<>());
-        existingList.put(position, newData);
+        addChange(position.getBlockX(), position.getBlockY(), position.getBlockZ(), newData);
     }
 
     @Override
-    public void addChangeOrigin(Vector position, IViewableBlockInfo newData) {
-        addChange(position, ((BukkitBlockInfo) newData).getOriginData());
-    }
+    public void addChange(int x, int y, int z, WrappedBlockData newData) {
+        int sectionX = x >> 4;
+        int sectionY = y >> 4;
+        int sectionZ = z >> 4;
+        if(sectionY > maxChunkY || sectionY < minChunkY) {
+            return;
+        }
 
-    @Override
-    public void addChangeDestination(Vector position, IViewableBlockInfo newData) {
-        addChange(position, ((BukkitBlockInfo) newData).getRenderedDestData());
-    }
+        SectionChanges section = lastSection;
+        if(section == null || section.sectionX != sectionX || section.sectionY != sectionY || section.sectionZ != sectionZ) {
+            // Create/get the changes for this chunk section
+            section = sectionsByKey.get(getSectionKey(sectionX, sectionY, sectionZ));
+            if(section == null) {
+                section = new SectionChanges(sectionX, sectionY, sectionZ);
+                sectionsByKey.put(getSectionKey(sectionX, sectionY, sectionZ), section);
+                sections.add(section);
+            }
+            lastSection = section;
+        }
 
-    private short getShortLocation(Vector vec) {
-        int x = vec.getBlockX() & 0xF;
-        int y = vec.getBlockY() & 0xF;
-        int z = vec.getBlockZ() & 0xF;
+        section.add(SectionChanges.getShortLocation(x, y, z), newData);
+    }
 
-        return (short) (x << 8 | z << 4 | y);
+    private static long getSectionKey(int sectionX, int sectionY, int sectionZ) {
+        return ((long) sectionX & 0x3FFFFF) << 42 | ((long) sectionZ & 0x3FFFFF) << 20 | (sectionY & 0xFFFFF);
     }
 
     @Override
     public void sendChanges() {
-        // Each chunk position needs a different packet
-        for(Map.Entry<BlockPosition, Map<Vector, WrappedBlockData>> entry : changes.entrySet()) {
-            PacketContainer packet = new PacketContainer(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
-            int chunkY = entry.getKey().getY();
-            if(chunkY > maxChunkY || chunkY < minChunkY) {
-                continue;
-            }
-
-            // Write the correct chunk section
-            packet.getSectionPositions().write(0, entry.getKey());
-
-            // Add each changed block in the chunk
-            int blockCount = entry.getValue().size();
-            WrappedBlockData[] data = new WrappedBlockData[blockCount];
-            short[] positions = new short[blockCount];
-            int i = 0;
-            for(Map.Entry<Vector, WrappedBlockData> blockEntry : entry.getValue().entrySet()) {
-                positions[i] = getShortLocation(blockEntry.getKey());
-                data[i] = blockEntry.getValue();
-                i++;
-            }
-
-            packet.getBlockDataArrays().writeSafely(0, data);
-            packet.getShortArrays().writeSafely(0, positions);
-
+        // Each chunk section needs a different packet
+        for(SectionChanges section : sections) {
             try {
-                ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
+                ProtocolLibrary.getProtocolManager().sendServerPacket(player, packetCache.getPacket(section));
             }   catch(Exception ex) {
                 ex.printStackTrace();
             }
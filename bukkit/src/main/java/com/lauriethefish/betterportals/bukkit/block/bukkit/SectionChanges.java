@@ -0,0 +1,65 @@
+package com.lauriethefish.betterportals.bukkit.block.bukkit;
+
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+
+import java.util.Arrays;
+
+/**
+ * The block changes within one chunk section, stored as the packed positions and data used in the multi block change packet.
+ */
+class SectionChanges {
+    final int sectionX;
+    final int sectionY;
+    final int sectionZ;
+
+    private short[] positions = new short[16];
+    private WrappedBlockData[] data = new WrappedBlockData[16];
+    private int size = 0;
+
+    SectionChanges(int sectionX, int sectionY, int sectionZ) {
+        this.sectionX = sectionX;
+        this.sectionY = sectionY;
+        this.sectionZ = sectionZ;
+    }
+
+    /**
+     * Packs a block position into the format used by the multi block change packet.
+     * @param x X coordinate of the block
+     * @param y Y coordinate of the block
+     * @param z Z coordinate of the block
+     * @return The position within the section
+     */
+    static short getShortLocation(int x, int y, int z) {
+        return (short) ((x & 0xF) << 8 | (z & 0xF) << 4 | (y & 0xF));
+    }
+
+    /**
+     * Adds a change. If the same position is changed twice, both are sent, and the client applies the later one last.
+     * @param position Position within the section, from {@link SectionChanges#getShortLocation(int, int, int)}
+     * @param newData The new data of the block
+     */
+    void add(short position, WrappedBlockData newData) {
+        if(size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+            data = Arrays.copyOf(data, size * 2);
+        }
+
+        positions[size] = position;
+        data[size] = newData;
+        size++;
+    }
+
+    /**
+     * @return The positions of the changes, trimmed to the number of changes
+     */
+    short[] getPositions() {
+        return Arrays.copyOf(positions, size);
+    }
+
+    /**
+     * @return The data of the changes, trimmed to the number of changes
+     */
+    WrappedBlockData[] getData() {
+        return Arrays.copyOf(data, size);
+    }
+}
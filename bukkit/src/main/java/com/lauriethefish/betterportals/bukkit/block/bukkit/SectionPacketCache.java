@@ -0,0 +1,159 @@
+package com.lauriethefish.betterportals.bukkit.block.bukkit;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.BlockPosition;
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shares multi block change packets between players that are sent exactly the same changes in a section.
+ * This is common when several players look through the same portal from similar positions, or when blocks are refreshed.
+ * <p>
+ * Packets are found by their contents, so cached packets never need invalidating, and the least recently used are evicted once full.
+ * Block data can be compared by identity, since it is interned by {@link com.lauriethefish.betterportals.bukkit.block.BlockDataInterner}.
+ */
+@Singleton
+public class SectionPacketCache {
+    private static final int SEGMENT_COUNT = 16;
+
+    private final RenderConfig renderConfig;
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Inject
+    public SectionPacketCache(RenderConfig renderConfig) {
+        this.renderConfig = renderConfig;
+
+        for(int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Finds the packet to send the given changes, creating one if the same changes haven't been sent recently.
+     * @param changes The changes in the section
+     * @return The packet, which may be shared with other players so must not be modified
+     */
+    PacketContainer getPacket(SectionChanges changes) {
+        Key key = new Key(changes.sectionX, changes.sectionY, changes.sectionZ, changes.getPositions(), changes.getData());
+        if(renderConfig.getSectionPacketCacheSize() == 0) {
+            return createPacket(key);
+        }
+
+        Segment segment = segments[(key.hashCode() & 0x7FFFFFFF) % SEGMENT_COUNT];
+        PacketContainer existing;
+        synchronized (segment) {
+            existing = segment.get(key);
+        }
+        if(existing != null) {
+            hits.increment();
+            return existing;
+        }
+        misses.increment();
+
+        PacketContainer packet = createPacket(key);
+        synchronized (segment) {
+            // Another thread may have created the same packet in the meantime, if so, use theirs
+            existing = segment.putIfAbsent(key, packet);
+        }
+        return existing == null ? packet : existing;
+    }
+
+    private PacketContainer createPacket(Key key) {
+        PacketContainer packet = new PacketContainer(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
+
+        // Section positions have to be done with BlockPositions for now in ProtocolLib
+        packet.getSectionPositions().write(0, new BlockPosition(key.sectionX, key.sectionY, key.sectionZ));
+        packet.getBlockDataArrays().writeSafely(0, key.data);
+        packet.getShortArrays().writeSafely(0, key.positions);
+        return packet;
+    }
+
+    /**
+     * @return The number of packets that were reused
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of packets that had to be created
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Removes all cached packets, e.g. on reload.
+     */
+    public void clear() {
+        for(Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    // Access ordered, so that the eldest entry is always the least recently used
+    private class Segment extends LinkedHashMap<Key, PacketContainer> {
+        private Segment() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PacketContainer> eldest) {
+            return size() > Math.max(1, renderConfig.getSectionPacketCacheSize() / SEGMENT_COUNT);
+        }
+    }
+
+    private static class Key {
+        private final int sectionX;
+        private final int sectionY;
+        private final int sectionZ;
+        private final short[] positions;
+        private final WrappedBlockData[] data;
+        private final int hash;
+
+        private Key(int sectionX, int sectionY, int sectionZ, short[] positions, WrappedBlockData[] data) {
+            this.sectionX = sectionX;
+            this.sectionY = sectionY;
+            this.sectionZ = sectionZ;
+            this.positions = positions;
+            this.data = data;
+
+            int hash = ((sectionX * 31) + sectionY) * 31 + sectionZ;
+            hash = hash * 31 + Arrays.hashCode(positions);
+            for(WrappedBlockData blockData : data) {
+                hash = hash * 31 + System.identityHashCode(blockData);
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key other)) {return false;}
+            if(hash != other.hash || sectionX != other.sectionX || sectionY != other.sectionY || sectionZ != other.sectionZ) {return false;}
+            if(!Arrays.equals(positions, other.positions)) {return false;}
+
+            for(int i = 0; i < data.length; i++) {
+                if(data[i] != other.data[i]) {return false;}
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -2,59 +2,98 @@ package com.lauriethefish.betterportals.bukkit.block.external;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
-import com.lauriethefish.betterportals.api.IntVector;
-import com.lauriethefish.betterportals.bukkit.math.Matrix;
 import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
-import com.lauriethefish.betterportals.bukkit.nms.BlockDataUtil;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.block.data.BlockData;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 public class BlockChangeWatcher implements IBlockChangeWatcher  {
-    private final IntVector center;
-    private final Matrix rotationMatrix;
+    // Every block is checked again over this many ticks, to find changes that didn't fire an event
+    private static final int FULL_CHECK_TICKS = 200;
+
+    private final WatchedVolume volume;
     private World world;
 
-    private final int xAndZRadius;
-    private final int yRadius;
+    private final BlockData[] previousData;
+    // Palette IDs last sent for each block
+    private final WatchedBlockIds sentIds;
+
+    // The palette of this change set. The origin caches it, so each entry is only sent once
+    private final Map<BlockData, Integer> paletteIds = new HashMap<>();
 
-    private final Map<IntVector, BlockData> previousData = new HashMap<>();
+    // Blocks that may have changed since the last changes were collected
+    private final BitSet toCheck = new BitSet();
+    private int nextCheckIndex = 0;
 
     @Inject
     public BlockChangeWatcher(@Assisted GetBlockDataChangesRequest request) {
-        this.center = request.getPosition();
-        this.rotationMatrix = request.getRotateOriginToDest();
-        this.xAndZRadius = request.getXAndZRadius();
-        this.yRadius = request.getYRadius();
+        this.volume = new WatchedVolume(request);
+        this.previousData = new BlockData[volume.size()];
+        this.sentIds = new WatchedBlockIds(volume.size());
+
         this.world = Bukkit.getWorld(request.getWorldId());
         if(world == null) {
             this.world = Bukkit.getWorld(request.getWorldName());
         }
     }
 
-    public @NotNull Map<IntVector, Integer> checkForChanges() {
-        Map<IntVector, Integer> result = new HashMap<>();
+    @Override
+    public @NotNull BlockDataChanges checkForChanges() {
+        toCheck.set(0, volume.size());
+        return collectChanges();
+    }
+
+    @Override
+    public void markChanged(@NotNull Block block) {
+        if(block.getWorld() != world) {return;}
+
+        int index = volume.getIndex(block.getX(), block.getY(), block.getZ());
+        if(index != -1) {
+            toCheck.set(index);
+        }
+    }
+
+    @Override
+    public void checkNextSection() {
+        int size = volume.size();
+        int sectionSize = (size + FULL_CHECK_TICKS - 1) / FULL_CHECK_TICKS;
+
+        int end = Math.min(nextCheckIndex + sectionSize, size);
+        toCheck.set(nextCheckIndex, end);
+        nextCheckIndex = end == size ? 0 : end;
+    }
+
+    @Override
+    public @NotNull BlockDataChanges collectChanges() {
+        int paletteStart = paletteIds.size();
+        List<String> newPaletteEntries = new ArrayList<>();
+
+        BitSet changed = new BitSet(volume.size());
+        int[] ids = new int[toCheck.cardinality()];
+        int changeCount = 0;
+
+        for(int index = toCheck.nextSetBit(0); index >= 0; index = toCheck.nextSetBit(index + 1)) {
+            BlockData data = world.getBlockData(volume.getX(index), volume.getY(index), volume.getZ(index));
+            if(data.equals(previousData[index])) {continue;}
 
-        for(int x = -xAndZRadius; x <= xAndZRadius ; x++) {
-            for(int z = -xAndZRadius; z <= xAndZRadius; z++) {
-                for(int y = -yRadius; y <= yRadius; y++) {
-                    IntVector blockPos = rotationMatrix.transform(new IntVector(x, y, z)).add(center);
+            previousData[index] = data;
+            int id = paletteIds.computeIfAbsent(data, key -> {
+                newPaletteEntries.add(key.getAsString());
+                return paletteIds.size();
+            });
 
-                    BlockData data = blockPos.getBlock(world).getBlockData();
-                    BlockData oldData = previousData.get(blockPos);
+            sentIds.set(index, id);
 
-                    if(!data.equals(oldData)) {
-                        result.put(blockPos, BlockDataUtil.getCombinedId(data));
-                        previousData.put(blockPos, data);
-                    }
-                }
-            }
+            changed.set(index);
+            ids[changeCount] = id;
+            changeCount++;
         }
+        toCheck.clear();
 
-        return result;
+        return new BlockDataChanges(paletteStart, newPaletteEntries.toArray(new String[0]), changed, ids, paletteIds.size(), sentIds.getChecksum());
     }
 }
@@ -0,0 +1,151 @@
+package com.lauriethefish.betterportals.bukkit.block.external;
+
+import com.lauriethefish.betterportals.shared.net.codec.MessageReader;
+import com.lauriethefish.betterportals.shared.net.codec.MessageWriter;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.BitSet;
+
+/**
+ * The result of a {@link com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest}, and the changes pushed afterwards.
+ * Blocks are sent as IDs in a palette of block data strings, which keeps the full state of each block, e.g. the facing of stairs.
+ * <p>
+ * The palette belongs to the change set, so each response only contains the entries added since the previous one.
+ * The changed blocks are sent as a bit set over the {@link WatchedVolume}, followed by their palette IDs packed into as few bits as the palette needs.
+ * <p>
+ * Each set of changes also carries a checksum of every ID sent so far, so that the origin can find out if it missed any changes.
+ * The checksum is a sum over the blocks, so both servers can update it as blocks change without going over the whole volume.
+ */
+public class BlockDataChanges implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The palette ID of the first entry in {@link BlockDataChanges#getNewPaletteEntries()}.
+     * If this is zero, then the watcher is new and the receiver's palette should be discarded.
+     */
+    @Getter private final int paletteStart;
+    @Getter private final String[] newPaletteEntries;
+
+    private final long[] changed;
+    @Getter private final int changeCount;
+
+    private final int bitsPerId;
+    private final long[] packedIds;
+
+    /**
+     * Sum of {@link BlockDataChanges#getChecksum(int, int)} for every block, once these changes are applied.
+     */
+    @Getter private final long checksum;
+
+    /**
+     * @param paletteStart ID of the first new palette entry
+     * @param newPaletteEntries Block data strings of the palette entries added since the previous response
+     * @param changed Indices in the volume of the blocks that changed
+     * @param ids Palette IDs of the changed blocks, in the same order as <code>changed</code>
+     * @param paletteSize Total number of entries in the palette, used to find how many bits each ID needs
+     * @param checksum Checksum of every block once these changes are applied
+     */
+    public BlockDataChanges(int paletteStart, @NotNull String[] newPaletteEntries, @NotNull BitSet changed, @NotNull int[] ids, int paletteSize, long checksum) {
+        this.paletteStart = paletteStart;
+        this.checksum = checksum;
+        this.newPaletteEntries = newPaletteEntries;
+        this.changed = changed.toLongArray();
+        this.changeCount = changed.cardinality();
+
+        this.bitsPerId = Math.max(1, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+        int idsPerLong = 64 / bitsPerId;
+        this.packedIds = new long[(changeCount + idsPerLong - 1) / idsPerLong];
+
+        // IDs never span two longs, which wastes a few bits but keeps unpacking simple
+        for(int i = 0; i < changeCount; i++) {
+            packedIds[i / idsPerLong] |= (long) ids[i] << (i % idsPerLong * bitsPerId);
+        }
+    }
+
+    private BlockDataChanges(int paletteStart, String[] newPaletteEntries, long[] changed, int changeCount, int bitsPerId, long[] packedIds, long checksum) {
+        this.paletteStart = paletteStart;
+        this.newPaletteEntries = newPaletteEntries;
+        this.changed = changed;
+        this.changeCount = changeCount;
+        this.bitsPerId = bitsPerId;
+        this.packedIds = packedIds;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Writes these changes for sending to the origin, already packed.
+     * @param out The writer to write to
+     */
+    public void write(@NotNull MessageWriter out) {
+        out.writeVarInt(paletteStart);
+        out.writeVarInt(newPaletteEntries.length);
+        for(String entry : newPaletteEntries) {
+            out.writeString(entry);
+        }
+
+        out.writeLongs(changed);
+        out.writeVarInt(changeCount);
+        out.writeByte(bitsPerId);
+        out.writeLongs(packedIds);
+        out.writeLong(checksum);
+    }
+
+    /**
+     * Reads changes written by {@link BlockDataChanges#write(MessageWriter)}.
+     * @param in The reader to read from
+     * @return The read changes
+     * @throws IOException If the changes were malformed
+     */
+    public static @NotNull BlockDataChanges read(@NotNull MessageReader in) throws IOException {
+        int paletteStart = in.readVarInt();
+        String[] newPaletteEntries = new String[in.readVarInt()];
+        for(int i = 0; i < newPaletteEntries.length; i++) {
+            newPaletteEntries[i] = in.readString();
+        }
+
+        long[] changed = in.readLongs();
+        int changeCount = in.readVarInt();
+        int bitsPerId = in.readByte();
+        long[] packedIds = in.readLongs();
+        if(bitsPerId < 1 || bitsPerId > 32 || (long) packedIds.length * (64 / bitsPerId) < changeCount) {
+            throw new IOException("Malformed block data changes");
+        }
+
+        return new BlockDataChanges(paletteStart, newPaletteEntries, changed, changeCount, bitsPerId, packedIds, in.readLong());
+    }
+
+    /**
+     * Finds the contribution of one block to the checksum.
+     * @param index Index of the block in the volume
+     * @param id Palette ID of the block
+     * @return The value to add to the checksum
+     */
+    public static long getChecksum(int index, int id) {
+        long hash = ((long) index << 32 | id) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * @return Indices in the volume of the blocks that changed
+     */
+    public @NotNull BitSet getChanged() {
+        return BitSet.valueOf(changed);
+    }
+
+    /**
+     * @return Palette IDs of the changed blocks, in the same order as {@link BlockDataChanges#getChanged()}
+     */
+    public @NotNull int[] getIds() {
+        int idsPerLong = 64 / bitsPerId;
+        long mask = (1L << bitsPerId) - 1;
+
+        int[] ids = new int[changeCount];
+        for(int i = 0; i < changeCount; i++) {
+            ids[i] = (int) (packedIds[i / idsPerLong] >>> (i % idsPerLong * bitsPerId) & mask);
+        }
+        return ids;
+    }
+}
@@ -2,13 +2,15 @@ package com.lauriethefish.betterportals.bukkit.block.external;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
+import com.lauriethefish.betterportals.bukkit.net.requests.BlockDataChangesPushRequest;
 import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
 import com.lauriethefish.betterportals.shared.logging.Logger;
+import com.lauriethefish.betterportals.shared.net.RequestException;
 import com.lauriethefish.betterportals.shared.net.Response;
+import org.bukkit.block.Block;
 
-import java.time.Duration;
-import java.time.Instant;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -18,50 +20,106 @@ import java.util.function.Consumer;
 @Singleton
 public class ExternalBlockWatcherManager implements IExternalBlockWatcherManager    {
     /**
-     * Number of seconds before clearing block watchers due to inactivity
+     * Number of ticks without any changes before pushing an empty set of changes.
+     * This lets the origin check that it hasn't missed any changes, and lets us find out if the origin has unsubscribed.
      */
-    private static final int BLOCK_WATCHER_CLEAR_DELAY = 5;
+    private static final int HEARTBEAT_TICKS = 100;
 
     private final Logger logger;
     private final IBlockChangeWatcher.Factory blockChangeWatcherFactory;
-    private final Map<UUID, IBlockChangeWatcher> watchers = new HashMap<>();
-    private final Map<UUID, Instant> lastRequested = new HashMap<>();
+    private final IPortalClient portalClient;
+    private final RenderConfig renderConfig;
+    private final Map<UUID, Subscription> subscriptions = new HashMap<>();
+    private int ticks = 0;
 
     @Inject
-    public ExternalBlockWatcherManager(Logger logger, IBlockChangeWatcher.Factory blockChangeWatcherFactory) {
+    public ExternalBlockWatcherManager(Logger logger, IBlockChangeWatcher.Factory blockChangeWatcherFactory, IPortalClient portalClient, RenderConfig renderConfig) {
         this.logger = logger;
         this.blockChangeWatcherFactory = blockChangeWatcherFactory;
+        this.portalClient = portalClient;
+        this.renderConfig = renderConfig;
     }
 
     @Override
     public void onRequestReceived(GetBlockDataChangesRequest request, Consumer<Response> onFinish) {
-        logger.finer("Processing block changes with ID %s", request.getChangeSetId());
-        UUID watcherId = request.getChangeSetId();
-        IBlockChangeWatcher watcher = watchers.computeIfAbsent(watcherId, key -> blockChangeWatcherFactory.create(request));
-        lastRequested.put(request.getChangeSetId(), Instant.now());
+        logger.finer("Processing block changes subscription with ID %s from %s", request.getChangeSetId(), request.getOriginServer());
+        IBlockChangeWatcher watcher = blockChangeWatcherFactory.create(request);
+        subscriptions.put(request.getChangeSetId(), new Subscription(watcher, request.getOriginServer()));
 
         Response response = new Response();
-        Map<IntVector, Integer> changes = watcher.checkForChanges();
-        logger.finer("Change count: %d", changes.size());
+        BlockDataChanges changes = watcher.checkForChanges();
+        logger.finer("Change count: %d. New palette entries: %d", changes.getChangeCount(), changes.getNewPaletteEntries().length);
 
         response.setResult(changes);
         onFinish.accept(response);
     }
 
+    @Override
+    public void onBlockChanged(Block block) {
+        for(Subscription subscription : subscriptions.values()) {
+            subscription.watcher.markChanged(block);
+        }
+    }
+
     @Override
     public void update() {
-        // Clear any watchers that are inactive
-        Instant now = Instant.now();
-        Iterator<Map.Entry<UUID, Instant>> iterator = lastRequested.entrySet().iterator();
+        if(subscriptions.isEmpty()) {return;}
+
+        // Changes are batched over the block update interval, since the origin won't show them any sooner
+        ticks++;
+        boolean isBatchFinished = ticks % renderConfig.getBlockUpdateInterval() == 0;
+
+        Iterator<Map.Entry<UUID, Subscription>> iterator = subscriptions.entrySet().iterator();
         while(iterator.hasNext()) {
-            Map.Entry<UUID, Instant> entry = iterator.next();
-            long secondsElapsed = Duration.between(entry.getValue(), now).getSeconds();
-            if(secondsElapsed > BLOCK_WATCHER_CLEAR_DELAY) {
-                logger.fine("Clearing external block watcher due to inactivity");
-                iterator.remove();
+            Map.Entry<UUID, Subscription> entry = iterator.next();
+            Subscription subscription = entry.getValue();
+            subscription.watcher.checkNextSection();
+            subscription.ticksSinceLastPush++;
+
+            boolean isHeartbeatDue = subscription.ticksSinceLastPush >= HEARTBEAT_TICKS;
+            if(!isBatchFinished && !isHeartbeatDue) {continue;}
 
-                watchers.remove(entry.getKey());
+            BlockDataChanges changes = subscription.watcher.collectChanges();
+            if(changes.getChangeCount() == 0 && !isHeartbeatDue) {continue;}
+
+            if(!pushChanges(entry.getKey(), subscription, changes)) {
+                iterator.remove();
             }
         }
     }
+
+    private boolean pushChanges(UUID changeSetId, Subscription subscription, BlockDataChanges changes) {
+        logger.finer("Pushing %d block changes to %s", changes.getChangeCount(), subscription.originServer);
+        subscription.ticksSinceLastPush = 0;
+
+        BlockDataChangesPushRequest request = new BlockDataChangesPushRequest();
+        request.setChangeSetId(changeSetId);
+        request.setChanges(changes);
+
+        try {
+            portalClient.sendRequestToServer(request, subscription.originServer, (response) -> {
+                try {
+                    response.checkForErrors();
+                }   catch(RequestException ex) {
+                    logger.fine("Clearing external block watcher, since the origin is no longer subscribed");
+                    subscriptions.remove(changeSetId, subscription);
+                }
+            });
+            return true;
+        }   catch(IllegalStateException ex) {
+            logger.fine("Clearing external block watcher, since we are no longer connected to the proxy");
+            return false;
+        }
+    }
+
+    private static class Subscription {
+        private final IBlockChangeWatcher watcher;
+        private final String originServer;
+        private int ticksSinceLastPush = 0;
+
+        private Subscription(IBlockChangeWatcher watcher, String originServer) {
+            this.watcher = watcher;
+            this.originServer = originServer;
+        }
+    }
 }
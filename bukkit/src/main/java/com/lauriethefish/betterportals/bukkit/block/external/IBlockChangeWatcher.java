@@ -1,22 +1,40 @@
 package com.lauriethefish.betterportals.bukkit.block.external;
 
-import com.lauriethefish.betterportals.api.IntVector;
 import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
+import org.bukkit.block.Block;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Map;
-
 /**
  * Used to check for changes of blocks at the destination of an external portal, then relay the changes back to the origin.
  * This allows a block data array to be constructed at the origin of the portal, so that cross-server portals can work.
+ * <p>
+ * Only the blocks marked as changed by events, and a small section of the area each tick, are checked, so the whole area is never checked at once after the first time.
  */
 public interface IBlockChangeWatcher {
     /**
-     * Checks for any changes in the configured area.
+     * Checks every block in the configured area.
      * This will return all blocks in the area the first time it is called on one instance.
-     * @return The new block data, as an integer.
+     * @return The new block data, as IDs in the palette of this watcher.
+     */
+    @NotNull BlockDataChanges checkForChanges();
+
+    /**
+     * Marks a block to be checked when changes are next collected, if it is in the configured area.
+     * @param block The block that may have changed
+     */
+    void markChanged(@NotNull Block block);
+
+    /**
+     * Marks the next section of the area to be checked when changes are next collected.
+     * Called every tick, so that changes that don't fire an event are eventually found.
+     */
+    void checkNextSection();
+
+    /**
+     * Checks the blocks that have been marked since changes were last collected.
+     * @return The new block data, as IDs in the palette of this watcher.
      */
-    @NotNull Map<IntVector, Integer> checkForChanges();
+    @NotNull BlockDataChanges collectChanges();
 
     interface Factory {
         IBlockChangeWatcher create(GetBlockDataChangesRequest request);
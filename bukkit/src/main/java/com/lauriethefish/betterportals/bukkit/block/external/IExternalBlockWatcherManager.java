@@ -2,24 +2,28 @@ package com.lauriethefish.betterportals.bukkit.block.external;
 
 import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
 import com.lauriethefish.betterportals.shared.net.Response;
+import org.bukkit.block.Block;
 
 import java.util.function.Consumer;
 
 public interface IExternalBlockWatcherManager {
     /**
-     * The time of no requests for a particular data array before it gets cleared.
-     */
-    double CLEAR_TIME = 10;
-
-    /**
-     * Called whenever a request to fetch the block data changes is received (on the main thread) from an external server.
+     * Called whenever a request to subscribe to the block data changes is received (on the main thread) from an external server.
+     * The response contains every block, then changes are pushed to the origin server until it unsubscribes.
      * @param request The change request
      * @param onFinish Given the response when responding is complete
      */
     void onRequestReceived(GetBlockDataChangesRequest request, Consumer<Response> onFinish);
 
     /**
-     * Removes any external change watchers that are unused.
+     * Marks a block to be checked by any watchers that contain it.
+     * @param block The block that may have changed
+     */
+    void onBlockChanged(Block block);
+
+    /**
+     * Pushes any changes to the servers subscribed to them, and removes the watchers of servers that have unsubscribed.
+     * Called every tick.
      */
     void update();
 }
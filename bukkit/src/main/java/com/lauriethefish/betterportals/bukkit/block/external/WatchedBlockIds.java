@@ -0,0 +1,88 @@
+package com.lauriethefish.betterportals.bukkit.block.external;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The palette ID of each block in a {@link WatchedVolume} that has been sent, along with their checksum.
+ * The destination keeps one for the IDs it has sent, and the origin one for the IDs it has received, so that their checksums match unless changes were missed.
+ */
+public class WatchedBlockIds {
+    /**
+     * Called for each block whose ID changed when applying changes.
+     */
+    public interface ChangeConsumer {
+        void accept(int index, int id);
+    }
+
+    private final int[] ids;
+    private long checksum = 0;
+
+    /**
+     * @param size The number of blocks in the volume
+     */
+    public WatchedBlockIds(int size) {
+        this.ids = new int[size];
+        Arrays.fill(ids, -1);
+    }
+
+    /**
+     * Sets the ID of one block, updating the checksum.
+     * @param index Index of the block in the volume
+     * @param id New palette ID of the block
+     * @return Whether the ID changed
+     */
+    public boolean set(int index, int id) {
+        int previousId = ids[index];
+        if(previousId == id) {return false;}
+
+        if(previousId != -1) {
+            checksum -= BlockDataChanges.getChecksum(index, previousId);
+        }
+        checksum += BlockDataChanges.getChecksum(index, id);
+        ids[index] = id;
+        return true;
+    }
+
+    /**
+     * Sets the ID of every block in <code>changes</code>.
+     * @param changes The changes to apply
+     * @param onChanged Called for each block whose ID changed
+     */
+    public void apply(@NotNull BlockDataChanges changes, @NotNull ChangeConsumer onChanged) {
+        BitSet changed = changes.getChanged();
+        int[] changedIds = changes.getIds();
+        int i = 0;
+        for(int index = changed.nextSetBit(0); index >= 0; index = changed.nextSetBit(index + 1)) {
+            int id = changedIds[i++];
+            if(set(index, id)) {
+                onChanged.accept(index, id);
+            }
+        }
+    }
+
+    /**
+     * @param index Index of a block in the volume
+     * @return The palette ID of the block, or -1 if none has been sent
+     */
+    public int get(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Forgets every ID, e.g. when the palette they refer to is discarded.
+     */
+    public void clear() {
+        Arrays.fill(ids, -1);
+        checksum = 0;
+    }
+
+    /**
+     * @return Sum of {@link BlockDataChanges#getChecksum(int, int)} for the ID of every block that has one
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+}
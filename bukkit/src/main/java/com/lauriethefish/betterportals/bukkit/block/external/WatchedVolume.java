@@ -0,0 +1,87 @@
+package com.lauriethefish.betterportals.bukkit.block.external;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
+import lombok.Getter;
+
+/**
+ * The box of blocks at the destination of a cross-server portal that is sent to the origin.
+ * Both servers find this from the same {@link GetBlockDataChangesRequest}, so blocks can be sent by their index in the volume instead of their position.
+ * <p>
+ * Blocks are ordered by X, then Z, then Y, so that each column of blocks is contiguous.
+ */
+@Getter
+public class WatchedVolume {
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+
+    public WatchedVolume(GetBlockDataChangesRequest request) {
+        int xAndZRadius = request.getXAndZRadius();
+        int yRadius = request.getYRadius();
+
+        // Portals only rotate by multiples of 90 degrees, so the rotated box is still aligned with the axes
+        IntVector cornerA = request.getRotateOriginToDest().transform(-xAndZRadius, -yRadius, -xAndZRadius).add(request.getPosition());
+        IntVector cornerB = request.getRotateOriginToDest().transform(xAndZRadius, yRadius, xAndZRadius).add(request.getPosition());
+
+        this.minX = Math.min(cornerA.getX(), cornerB.getX());
+        this.minY = Math.min(cornerA.getY(), cornerB.getY());
+        this.minZ = Math.min(cornerA.getZ(), cornerB.getZ());
+        this.sizeX = Math.abs(cornerA.getX() - cornerB.getX()) + 1;
+        this.sizeY = Math.abs(cornerA.getY() - cornerB.getY()) + 1;
+        this.sizeZ = Math.abs(cornerA.getZ() - cornerB.getZ()) + 1;
+    }
+
+    /**
+     * @return The number of blocks in the volume
+     */
+    public int size() {
+        return sizeX * sizeY * sizeZ;
+    }
+
+    /**
+     * Finds the index of a block within the volume.
+     * @param x X coordinate of the block
+     * @param y Y coordinate of the block
+     * @param z Z coordinate of the block
+     * @return The index of the block, or -1 if it is outside the volume
+     */
+    public int getIndex(int x, int y, int z) {
+        int relX = x - minX;
+        int relY = y - minY;
+        int relZ = z - minZ;
+        if(relX < 0 || relY < 0 || relZ < 0 || relX >= sizeX || relY >= sizeY || relZ >= sizeZ) {
+            return -1;
+        }
+
+        return (relX * sizeZ + relZ) * sizeY + relY;
+    }
+
+    /**
+     * @param index Index of a block in the volume
+     * @return X coordinate of the block
+     */
+    public int getX(int index) {
+        return minX + index / sizeY / sizeZ;
+    }
+
+    /**
+     * @param index Index of a block in the volume
+     * @return Y coordinate of the block
+     */
+    public int getY(int index) {
+        return minY + index % sizeY;
+    }
+
+    /**
+     * @param index Index of a block in the volume
+     * @return Z coordinate of the block
+     */
+    public int getZ(int index) {
+        return minZ + index / sizeY % sizeZ;
+    }
+}
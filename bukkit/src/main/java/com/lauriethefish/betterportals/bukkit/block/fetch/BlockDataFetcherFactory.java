@@ -12,17 +12,25 @@ public class BlockDataFetcherFactory {
     private final Logger logger;
     private final IPortalClient portalClient;
     private final RenderConfig renderConfig;
+    private final ExternalBlockSubscriptions subscriptions;
 
     @Inject
-    public BlockDataFetcherFactory(Logger logger, IPortalClient portalClient, RenderConfig renderConfig) {
+    public BlockDataFetcherFactory(Logger logger, IPortalClient portalClient, RenderConfig renderConfig, ExternalBlockSubscriptions subscriptions) {
         this.logger = logger;
         this.portalClient = portalClient;
         this.renderConfig = renderConfig;
+        this.subscriptions = subscriptions;
     }
 
-    public IBlockDataFetcher create(IPortal portal) {
+    /**
+     * Creates the fetcher for the destination of a portal.
+     * @param portal The portal to fetch the destination blocks of
+     * @param changeListener Told about destination changes that don't fire block events on this server
+     * @return The new fetcher
+     */
+    public IBlockDataFetcher create(IPortal portal, IBlockDataFetcher.ChangeListener changeListener) {
         if(portal.isCrossServer()) {
-            return new ExternalBlockDataFetcher(logger, portalClient, renderConfig, portal);
+            return new ExternalBlockDataFetcher(logger, portalClient, subscriptions, renderConfig, portal, changeListener);
         }   else    {
             return new LocalBlockDataFetcher(portal);
         }
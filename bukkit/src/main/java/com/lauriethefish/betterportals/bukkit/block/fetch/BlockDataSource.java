@@ -0,0 +1,17 @@
+package com.lauriethefish.betterportals.bukkit.block.fetch;
+
+import org.bukkit.block.data.BlockData;
+
+/**
+ * Somewhere that block data can be read from during a flood fill, e.g. a world or captured chunk snapshots.
+ */
+public interface BlockDataSource {
+    /**
+     * Reads the data at the given coordinates.
+     * @param x X coordinate of the block
+     * @param y Y coordinate of the block
+     * @param z Z coordinate of the block
+     * @return The block data at that position, or null if it couldn't be fetched
+     */
+    BlockData getBlockData(int x, int y, int z);
+}
@@ -0,0 +1,57 @@
+package com.lauriethefish.betterportals.bukkit.block.fetch;
+
+import com.lauriethefish.betterportals.bukkit.util.HeightUtil;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Captures snapshots of the chunks in a square area of a world on the main thread, so that their blocks can be read from another thread.
+ */
+public class ChunkSnapshotGrid implements BlockDataSource {
+    // Returned for blocks above or below the world, as Bukkit does
+    private static final BlockData VOID_AIR = Material.VOID_AIR.createBlockData();
+
+    private final int minChunkX;
+    private final int minChunkZ;
+    private final int chunksWide;
+    private final int minHeight;
+    private final int maxHeight;
+    private final ChunkSnapshot[] snapshots;
+
+    /**
+     * Captures the chunks containing every block within <code>radius</code> of the center on the X and Z axes.
+     * This must be called on the main thread.
+     * @param world The world to capture
+     * @param centerX X coordinate of the center block
+     * @param centerZ Z coordinate of the center block
+     * @param radius Maximum distance from the center that will be read
+     */
+    public ChunkSnapshotGrid(@NotNull World world, int centerX, int centerZ, int radius) {
+        this.minChunkX = (centerX - radius) >> 4;
+        this.minChunkZ = (centerZ - radius) >> 4;
+        this.chunksWide = ((centerX + radius) >> 4) - minChunkX + 1;
+        int chunksLong = ((centerZ + radius) >> 4) - minChunkZ + 1;
+        this.minHeight = HeightUtil.getMinHeight(world);
+        this.maxHeight = HeightUtil.getMaxHeight(world);
+
+        snapshots = new ChunkSnapshot[chunksWide * chunksLong];
+        for(int z = 0; z < chunksLong; z++) {
+            for(int x = 0; x < chunksWide; x++) {
+                snapshots[x + z * chunksWide] = world.getChunkAt(minChunkX + x, minChunkZ + z).getChunkSnapshot(false, false, false);
+            }
+        }
+    }
+
+    @Override
+    public BlockData getBlockData(int x, int y, int z) {
+        if(y < minHeight || y >= maxHeight) {
+            return VOID_AIR;
+        }
+
+        ChunkSnapshot snapshot = snapshots[((x >> 4) - minChunkX) + ((z >> 4) - minChunkZ) * chunksWide];
+        return snapshot.getBlockData(x & 15, y, z & 15);
+    }
+}
@@ -1,37 +1,56 @@
 package com.lauriethefish.betterportals.bukkit.block.fetch;
 
 import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.block.external.BlockDataChanges;
+import com.lauriethefish.betterportals.bukkit.block.external.WatchedBlockIds;
+import com.lauriethefish.betterportals.bukkit.block.external.WatchedVolume;
 import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
 import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
-import com.lauriethefish.betterportals.bukkit.nms.BlockDataUtil;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.net.RequestException;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
 import org.bukkit.block.data.BlockData;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
- * Fetches the block data for external portals by sending a request to the destination server.
+ * Fetches the block data for external portals by subscribing to the changes at the destination server.
+ * The destination sends every block once, then pushes any changes as they happen, so there's no need to poll it.
+ * The data is kept in an array over the {@link WatchedVolume}, so reading it doesn't need to allocate or hash a position.
  */
 public class ExternalBlockDataFetcher implements IBlockDataFetcher  {
+    private static final BlockData AIR_DATA = Bukkit.createBlockData(Material.AIR);
+
     private final Logger logger;
     private final IPortalClient portalClient;
+    private final ExternalBlockSubscriptions subscriptions;
     private final GetBlockDataChangesRequest request;
     private final String destServerName;
+    private final ChangeListener changeListener;
+
+    private final WatchedVolume volume;
+    private final BlockData[] currentStates;
+    // Palette IDs of the current states, used to check that no changes were missed
+    private final WatchedBlockIds currentIds;
 
-    private final Map<IntVector, BlockData> currentStates = new HashMap<>();
+    // Cached palette of the current change set, so each block data string is only parsed once
+    private final List<BlockData> palette = new ArrayList<>();
     private volatile boolean hasFirstRequestFinished = false;
-    private volatile boolean hasPreviousRequestFinished = true;
+    private boolean isSubscribing = false;
+    private boolean isSubscribed = false;
 
-    public ExternalBlockDataFetcher(Logger logger, IPortalClient portalClient, RenderConfig renderConfig, IPortal portal) {
+    public ExternalBlockDataFetcher(Logger logger, IPortalClient portalClient, ExternalBlockSubscriptions subscriptions, RenderConfig renderConfig, IPortal portal, ChangeListener changeListener) {
         this.logger = logger;
         this.portalClient = portalClient;
+        this.subscriptions = subscriptions;
         this.destServerName = portal.getDestPos().getServerName();
+        this.changeListener = changeListener;
 
         this.request = new GetBlockDataChangesRequest();
         request.setYRadius((int) renderConfig.getMaxY());
@@ -41,33 +60,93 @@ public class ExternalBlockDataFetcher implements IBlockDataFetcher  {
         request.setWorldId(portal.getDestPos().getWorldId());
         request.setPosition(new IntVector(portal.getDestPos().getVector()));
         request.setRotateOriginToDest(portal.getTransformations().getRotateToDestination());
+
+        this.volume = new WatchedVolume(request);
+        this.currentStates = new BlockData[volume.size()];
+        this.currentIds = new WatchedBlockIds(volume.size());
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void update() {
-        if(!hasPreviousRequestFinished) {
+        // Once subscribed, changes are pushed by the destination
+        if(isSubscribed) {return;}
+        if(isSubscribing) {
             logger.fine("Still awaiting block data response");
             return;
         }
 
-        hasPreviousRequestFinished = false;
+        isSubscribing = true;
+        UUID changeSetId = request.getChangeSetId();
+        subscriptions.register(changeSetId, this);
         portalClient.sendRequestToServer(request, destServerName, (response) -> {
-            hasPreviousRequestFinished = true;
+            isSubscribing = false;
             try {
-                logger.finer("Received response to get block data request");
-                Map<IntVector, Integer> serializedChanges = (Map<IntVector, Integer>) response.getResult();
+                logger.finer("Received response to block data subscription");
+                BlockDataChanges changes = (BlockDataChanges) response.getResult();
 
-                serializedChanges.forEach((position, newValue) -> currentStates.put(position, BlockDataUtil.getByCombinedId(newValue)));
+                palette.clear();
+                currentIds.clear();
+                applyChanges(changes, false);
 
+                isSubscribed = true;
                 hasFirstRequestFinished = true;
+                // Every block was sent again, e.g. after missing some changes, so every block needs checking
+                changeListener.onAllChanged();
             }   catch(RequestException ex) {
                 logger.warning("Failed to fetch block changes for external portal: ");
                 ex.printStackTrace();
+                restartChangeSet();
             }
         });
     }
 
+    /**
+     * Applies changes pushed by the destination, and tells the block map which blocks changed.
+     * If any changes were missed, this subscribes again so that every block is sent again.
+     * @param changes The pushed changes
+     */
+    void onChangesPushed(BlockDataChanges changes) {
+        // Changes may be pushed before the response to the subscription is handled, but a missed change will be found by the checksum
+        if(!isSubscribed) {return;}
+
+        if(changes.getPaletteStart() != palette.size()) {
+            logger.warning("Block data palette of external portal was out of sync, fetching all blocks again");
+            restartChangeSet();
+            return;
+        }
+
+        applyChanges(changes, true);
+        if(currentIds.getChecksum() != changes.getChecksum()) {
+            logger.warning("Missed block changes for external portal, fetching all blocks again");
+            restartChangeSet();
+        }
+    }
+
+    private void applyChanges(BlockDataChanges changes, boolean notifyChanges) {
+        for(String entry : changes.getNewPaletteEntries()) {
+            palette.add(Bukkit.createBlockData(entry));
+        }
+
+        currentIds.apply(changes, (index, id) -> {
+            currentStates[index] = palette.get(id);
+            if(notifyChanges) {
+                changeListener.onBlockChanged(volume.getX(index), volume.getY(index), volume.getZ(index));
+            }
+        });
+    }
+
+    // The destination clears the watcher of the old change set once it's unregistered, since it will no longer accept any pushes
+    private void restartChangeSet() {
+        subscriptions.unregister(request.getChangeSetId());
+        request.setChangeSetId(UUID.randomUUID());
+        isSubscribed = false;
+    }
+
+    @Override
+    public void close() {
+        subscriptions.unregister(request.getChangeSetId());
+    }
+
     @Override
     public boolean isReady() {
         return hasFirstRequestFinished;
@@ -75,6 +154,13 @@ public class ExternalBlockDataFetcher implements IBlockDataFetcher  {
 
     @Override
     public @NotNull BlockData getData(@NotNull IntVector position) {
-        return currentStates.get(position);
+        return getData(position.getX(), position.getY(), position.getZ());
+    }
+
+    @Override
+    public @NotNull BlockData getData(int x, int y, int z) {
+        int index = volume.getIndex(x, y, z);
+        BlockData data = index == -1 ? null : currentStates[index];
+        return data == null ? AIR_DATA : data;
     }
 }
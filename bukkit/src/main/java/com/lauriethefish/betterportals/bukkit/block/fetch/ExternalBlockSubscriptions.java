@@ -0,0 +1,40 @@
+package com.lauriethefish.betterportals.bukkit.block.fetch;
+
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.net.requests.BlockDataChangesPushRequest;
+import com.lauriethefish.betterportals.shared.net.RequestException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of which {@link ExternalBlockDataFetcher} is subscribed to each change set, so that pushed changes can be given to it.
+ */
+@Singleton
+public class ExternalBlockSubscriptions {
+    private final Map<UUID, ExternalBlockDataFetcher> fetchers = new ConcurrentHashMap<>();
+
+    void register(@NotNull UUID changeSetId, @NotNull ExternalBlockDataFetcher fetcher) {
+        fetchers.put(changeSetId, fetcher);
+    }
+
+    void unregister(@NotNull UUID changeSetId) {
+        fetchers.remove(changeSetId);
+    }
+
+    /**
+     * Gives changes pushed by the destination of a portal to the fetcher subscribed to them.
+     * @param request The pushed changes
+     * @throws RequestException If nothing is subscribed to the changes, which tells the destination to stop pushing them
+     */
+    public void onChangesPushed(@NotNull BlockDataChangesPushRequest request) throws RequestException {
+        ExternalBlockDataFetcher fetcher = fetchers.get(request.getChangeSetId());
+        if(fetcher == null) {
+            throw new RequestException("No block data subscription exists with ID " + request.getChangeSetId());
+        }
+
+        fetcher.onChangesPushed(request.getChanges());
+    }
+}
@@ -5,6 +5,25 @@ import org.bukkit.block.data.BlockData;
 import org.jetbrains.annotations.NotNull;
 
 public interface IBlockDataFetcher {
+    /**
+     * Told about changes at the destination that don't fire block events on this server, e.g. at the destination of a cross-server portal.
+     * Called on the main thread.
+     */
+    interface ChangeListener {
+        /**
+         * Called when the data of one block changed.
+         * @param x X coordinate of the block
+         * @param y Y coordinate of the block
+         * @param z Z coordinate of the block
+         */
+        void onBlockChanged(int x, int y, int z);
+
+        /**
+         * Called when every block was fetched again, so any of them may have changed.
+         */
+        void onAllChanged();
+    }
+
     /**
      * Updates the currently fetched data.
      */
@@ -21,4 +40,18 @@ public interface IBlockDataFetcher {
      * @return The block data at that position
      */
     @NotNull BlockData getData(@NotNull IntVector position);
+
+    /**
+     * Reads the data at the given coordinates, without needing to allocate a position.
+     * @param x X coordinate of the block
+     * @param y Y coordinate of the block
+     * @param z Z coordinate of the block
+     * @return The block data at that position
+     */
+    @NotNull BlockData getData(int x, int y, int z);
+
+    /**
+     * Stops fetching the data, once the block map no longer needs it.
+     */
+    void close();
 }
@@ -31,4 +31,14 @@ public class LocalBlockDataFetcher implements IBlockDataFetcher {
     public @NotNull BlockData getData(@NotNull IntVector position) {
         return position.getBlock(destinationWorld).getBlockData();
     }
+
+    @Override
+    public @NotNull BlockData getData(int x, int y, int z) {
+        return destinationWorld.getBlockData(x, y, z);
+    }
+
+    @Override
+    public void close() {
+        // Nothing is fetched, so there's nothing to stop
+    }
 }
@@ -8,10 +8,12 @@ import org.bukkit.block.data.type.Fence;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Rotates block data using the Bukkit API.
+ * Results aren't cached here, since {@link com.lauriethefish.betterportals.bukkit.block.BlockDataInterner} already caches each state and rotation within its configured size.
+ */
 public class ModernBlockRotator implements IBlockRotator    {
     @Override
     public @NotNull BlockData rotateByMatrix(@NotNull Matrix matrix, @NotNull BlockData data) {
@@ -2,6 +2,8 @@ package com.lauriethefish.betterportals.bukkit.command;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.api.HistogramSnapshot;
+import com.lauriethefish.betterportals.api.ViewUpdateStatistics;
 import com.lauriethefish.betterportals.bukkit.BetterPortals;
 import com.lauriethefish.betterportals.bukkit.command.framework.CommandException;
 import com.lauriethefish.betterportals.bukkit.command.framework.CommandTree;
@@ -14,6 +16,7 @@ import com.lauriethefish.betterportals.bukkit.config.ProxyConfig;
 import com.lauriethefish.betterportals.bukkit.net.IClientReconnectHandler;
 import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
 import com.lauriethefish.betterportals.bukkit.util.performance.OperationTimer;
+import com.lauriethefish.betterportals.bukkit.util.performance.ViewUpdateMetrics;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.PluginManager;
@@ -26,15 +29,18 @@ public class MainCommands {
     private final IPortalClient portalClient;
     private final ProxyConfig proxyConfig;
     private final IClientReconnectHandler reconnectHandler;
+    private final ViewUpdateMetrics viewUpdateMetrics;
 
     @Inject
-    public MainCommands(BetterPortals pl, Logger logger, MessageConfig messageConfig, CommandTree commandTree, IPortalClient portalClient, ProxyConfig proxyConfig, IClientReconnectHandler reconnectHandler) {
+    public MainCommands(BetterPortals pl, Logger logger, MessageConfig messageConfig, CommandTree commandTree, IPortalClient portalClient, ProxyConfig proxyConfig, IClientReconnectHandler reconnectHandler,
+                        ViewUpdateMetrics viewUpdateMetrics) {
         this.pl = pl;
         this.logger = logger;
         this.messageConfig = messageConfig;
         this.portalClient = portalClient;
         this.proxyConfig = proxyConfig;
         this.reconnectHandler = reconnectHandler;
+        this.viewUpdateMetrics = viewUpdateMetrics;
 
         commandTree.registerCommands(this);
         commandTree.addAlias("betterportals", "bp");
@@ -72,4 +78,40 @@ public class MainCommands {
         reconnectHandler.prematureReconnect();
         return true;
     }
+
+    @Command
+    @Path("betterportals/stats")
+    @Description("Shows how long player view updates are taking")
+    @RequiresPermissions("betterportals.stats")
+    public boolean showStats(CommandSender sender) {
+        ViewUpdateStatistics statistics = viewUpdateMetrics.getStatistics();
+
+        sender.sendMessage(String.format("View updates scheduled: %d. Coalesced: %d. Superseded: %d",
+                statistics.getScheduledUpdates(), statistics.getCoalescedUpdates(), statistics.getSupersededUpdates()));
+
+        long cacheChecks = statistics.getVisibilityCacheHits() + statistics.getVisibilityCacheMisses();
+        double cacheHitRate = cacheChecks == 0 ? 0.0 : (double) statistics.getVisibilityCacheHits() / cacheChecks * 100.0;
+        sender.sendMessage(String.format("Visibility cache hits: %d. Misses: %d. Hit rate: %.02f%%",
+                statistics.getVisibilityCacheHits(), statistics.getVisibilityCacheMisses(), cacheHitRate));
+
+        long predictions = statistics.getPredictionHits() + statistics.getPredictionMisses();
+        double predictionHitRate = predictions == 0 ? 0.0 : (double) statistics.getPredictionHits() / predictions * 100.0;
+        sender.sendMessage(String.format("Movement predictions used: %d. Missed: %d. Hit rate: %.02f%%",
+                statistics.getPredictionHits(), statistics.getPredictionMisses(), predictionHitRate));
+        sendHistogram(sender, "Queue depth", statistics.getQueueDepth(), 1.0, "");
+        sendHistogram(sender, "Queue wait", statistics.getQueueWaitNanos(), 1_000_000d, "ms");
+        sendHistogram(sender, "Processing time", statistics.getProcessingNanos(), 1_000_000d, "ms");
+        sendHistogram(sender, "Total latency", statistics.getLatencyNanos(), 1_000_000d, "ms");
+        sendHistogram(sender, "Blocks sent", statistics.getBlocksSent(), 1.0, "");
+        return true;
+    }
+
+    private void sendHistogram(CommandSender sender, String name, HistogramSnapshot histogram, double divisor, String unit) {
+        sender.sendMessage(String.format("%s: p50 %.02f%s, p90 %.02f%s, p99 %.02f%s, max %.02f%s (%d samples)", name,
+                histogram.getValueAtPercentile(50.0) / divisor, unit,
+                histogram.getValueAtPercentile(90.0) / divisor, unit,
+                histogram.getValueAtPercentile(99.0) / divisor, unit,
+                histogram.getMax() / divisor, unit,
+                histogram.getCount()));
+    }
 }
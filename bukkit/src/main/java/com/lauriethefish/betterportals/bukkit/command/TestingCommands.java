@@ -4,16 +4,30 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.lauriethefish.betterportals.api.IntVector;
 import com.lauriethefish.betterportals.api.PortalDirection;
+import com.lauriethefish.betterportals.bukkit.block.BlockDataInterner;
+import com.lauriethefish.betterportals.bukkit.block.IBlockMap;
+import com.lauriethefish.betterportals.bukkit.block.TileEntityPacketCache;
+import com.lauriethefish.betterportals.bukkit.block.ViewableBlockStore;
+import com.lauriethefish.betterportals.bukkit.block.bukkit.BukkitBlockMap;
+import com.lauriethefish.betterportals.bukkit.block.bukkit.SectionPacketCache;
 import com.lauriethefish.betterportals.bukkit.command.framework.annotations.*;
+import com.lauriethefish.betterportals.bukkit.config.MiscConfig;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.bukkit.entity.faking.EntityInfo;
 import com.lauriethefish.betterportals.bukkit.entity.faking.IEntityPacketManipulator;
 import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
 import com.lauriethefish.betterportals.bukkit.net.requests.TestForwardedRequest;
 import com.lauriethefish.betterportals.bukkit.nms.BlockDataUtil;
+import com.lauriethefish.betterportals.bukkit.portal.IPortal;
+import com.lauriethefish.betterportals.bukkit.portal.IPortalManager;
 import com.lauriethefish.betterportals.bukkit.portal.spawning.NewPortalChecker;
 import com.lauriethefish.betterportals.bukkit.util.MaterialUtil;
+import com.lauriethefish.betterportals.bukkit.util.performance.AllocationCounter;
+import com.lauriethefish.betterportals.bukkit.util.performance.BlockMapUpdateMetrics;
+import com.lauriethefish.betterportals.bukkit.util.performance.IntersectionBenchmark;
 import com.lauriethefish.betterportals.bukkit.util.performance.OperationTimer;
 import com.lauriethefish.betterportals.shared.net.RequestException;
+import com.lauriethefish.betterportals.shared.net.encryption.StreamMetrics;
 import org.bukkit.Chunk;
 import org.bukkit.block.BlockState;
 import org.bukkit.block.data.BlockData;
@@ -31,13 +45,33 @@ public class TestingCommands {
     private final NewPortalChecker spawnChecker;
     private final IEntityPacketManipulator entityPacketManipulator;
     private final IPortalClient portalClient;
+    private final IPortalManager portalManager;
+    private final MiscConfig miscConfig;
+    private final BlockDataInterner blockDataInterner;
+    private final BlockMapUpdateMetrics blockMapUpdateMetrics;
+    private final RenderConfig renderConfig;
+    private final SectionPacketCache sectionPacketCache;
+    private final TileEntityPacketCache tileEntityPacketCache;
+    private final StreamMetrics streamMetrics;
+    private final IBlockMap.Factory blockMapFactory;
     private List<Integer> storedData;
 
     @Inject
-    public TestingCommands(NewPortalChecker spawnChecker, IEntityPacketManipulator entityPacketManipulator, IPortalClient portalClient) {
+    public TestingCommands(NewPortalChecker spawnChecker, IEntityPacketManipulator entityPacketManipulator, IPortalClient portalClient, IPortalManager portalManager, MiscConfig miscConfig, BlockDataInterner blockDataInterner,
+                           BlockMapUpdateMetrics blockMapUpdateMetrics, RenderConfig renderConfig, SectionPacketCache sectionPacketCache,
+                           TileEntityPacketCache tileEntityPacketCache, StreamMetrics streamMetrics, IBlockMap.Factory blockMapFactory) {
         this.spawnChecker = spawnChecker;
         this.entityPacketManipulator = entityPacketManipulator;
         this.portalClient = portalClient;
+        this.portalManager = portalManager;
+        this.miscConfig = miscConfig;
+        this.blockDataInterner = blockDataInterner;
+        this.blockMapUpdateMetrics = blockMapUpdateMetrics;
+        this.renderConfig = renderConfig;
+        this.sectionPacketCache = sectionPacketCache;
+        this.tileEntityPacketCache = tileEntityPacketCache;
+        this.streamMetrics = streamMetrics;
+        this.blockMapFactory = blockMapFactory;
     }
 
     @Command
@@ -149,6 +183,151 @@ public class TestingCommands {
     }
 
 
+    @Command
+    @Path("betterportals/test/floodFill")
+    @Argument(name = "iterations")
+    @RequiresPlayer
+    public boolean benchmarkFloodFill(Player player, int iterations) {
+        IPortal portal = portalManager.findClosestPortal(player.getLocation(), miscConfig.getPortalActivationDistance());
+        if(portal == null) {
+            player.sendMessage("No portal close enough found");
+            return true;
+        }
+        // The blocks of cross server portals arrive from the other server, so a new block map wouldn't have any to fill with
+        if(portal.isCrossServer()) {
+            player.sendMessage("Cross server portals can't be benchmarked");
+            return true;
+        }
+
+        // A separate block map over the same area, so that the portal's own map and the players viewing it aren't affected
+        if(!(blockMapFactory.create(portal) instanceof BukkitBlockMap blockMap)) {
+            player.sendMessage("Flood fill benchmarks aren't supported with this block map implementation");
+            return true;
+        }
+        blockMap.setAlwaysSynchronous(true);
+
+        double totalMillis = 0;
+        long totalBytes = 0;
+        int reachedCount;
+        int viewableCount;
+        int stateCount;
+        try {
+            // One untimed fill first, so that one-off allocations like the fill stack aren't counted
+            blockMap.update(0);
+
+            // Each iteration does a full initial fill, rather than an incremental update
+            for(int i = 0; i < iterations; i++) {
+                blockMap.reset();
+
+                OperationTimer timer = new OperationTimer();
+                AllocationCounter allocationCounter = new AllocationCounter();
+                blockMap.update(0);
+                totalBytes += allocationCounter.getBytesAllocated();
+                totalMillis += timer.getTimeTakenMillis();
+            }
+
+            ViewableBlockStore store = blockMap.getViewableBlockStore();
+            reachedCount = blockMap.getNonObscuredCount();
+            viewableCount = store == null ? 0 : store.size();
+            stateCount = store == null ? 0 : store.getPalette().size();
+        }   finally {
+            // Returns the buffers to the pool and stops listening for block changes
+            blockMap.reset();
+        }
+
+        player.sendMessage(String.format("Average fill time: %.03fms. Average allocated per fill: %d bytes", totalMillis / iterations, totalBytes / iterations));
+        player.sendMessage(String.format("Reached cells: %d. Viewable blocks: %d. Distinct states: %d", reachedCount, viewableCount, stateCount));
+        return true;
+    }
+
+    @Command
+    @Path("betterportals/test/blockDataCache")
+    public boolean showBlockDataCacheStats(CommandSender sender) {
+        long hits = blockDataInterner.getHits();
+        long misses = blockDataInterner.getMisses();
+        double hitRate = hits + misses == 0 ? 0.0 : (double) hits / (hits + misses) * 100.0;
+
+        sender.sendMessage(String.format("Block data cache hits: %d. Misses: %d. Hit rate: %.02f%%", hits, misses, hitRate));
+        sender.sendMessage(String.format("Cached states: %d. Evictions: %d", blockDataInterner.size(), blockDataInterner.getEvictions()));
+        sender.sendMessage(String.format("Section packets reused: %d. Created: %d", sectionPacketCache.getHits(), sectionPacketCache.getMisses()));
+        sender.sendMessage(String.format("Tile entity packets reused: %d. Created: %d", tileEntityPacketCache.getHits(), tileEntityPacketCache.getMisses()));
+        return true;
+    }
+
+    @Command
+    @Path("betterportals/test/blockMapTimings")
+    public boolean showBlockMapTimings(CommandSender sender) {
+        long mainUpdates = blockMapUpdateMetrics.getMainThreadUpdates();
+        long workerUpdates = blockMapUpdateMetrics.getWorkerUpdates();
+        double mainAverage = mainUpdates == 0 ? 0.0 : blockMapUpdateMetrics.getMainThreadNanos() / (double) mainUpdates / 1_000_000d;
+        double workerAverage = workerUpdates == 0 ? 0.0 : blockMapUpdateMetrics.getWorkerNanos() / (double) workerUpdates / 1_000_000d;
+
+        // Totals are reset after each check, so that the two modes can be compared by changing the config and checking again
+        sender.sendMessage(String.format("Block map updates are %s", renderConfig.isAsyncBlockUpdates() ? "async" : "synchronous"));
+        sender.sendMessage(String.format("Main thread: %d updates, average %.03fms, total %.03fms", mainUpdates, mainAverage, blockMapUpdateMetrics.getMainThreadNanos() / 1_000_000d));
+        sender.sendMessage(String.format("Worker threads: %d updates, average %.03fms. Skipped updates: %d", workerUpdates, workerAverage, blockMapUpdateMetrics.getSkippedUpdates()));
+        sender.sendMessage(String.format("Cells culled by view volumes: %d", blockMapUpdateMetrics.getCulledCells()));
+        blockMapUpdateMetrics.reset();
+        return true;
+    }
+
+    @Command
+    @Path("betterportals/test/proxyTraffic")
+    public boolean showProxyTraffic(CommandSender sender) {
+        long written = streamMetrics.getMessagesWritten();
+        long read = streamMetrics.getMessagesRead();
+        long encodedBytes = streamMetrics.getEncodedBytesWritten();
+        double ratio = encodedBytes == 0 ? 0.0 : (double) streamMetrics.getWireBytesWritten() / encodedBytes * 100.0;
+
+        // Totals are reset after each check, so that traffic can be measured while doing something specific
+        sender.sendMessage(String.format("Sent %d messages, %d compressed. Encoded: %d bytes. On the wire: %d bytes (%.02f%%)", written, streamMetrics.getCompressedMessagesWritten(), encodedBytes, streamMetrics.getWireBytesWritten(), ratio));
+        sender.sendMessage(String.format("Average write: %d bytes, %.03fms", written == 0 ? 0 : streamMetrics.getWireBytesWritten() / written, written == 0 ? 0.0 : streamMetrics.getWriteNanos() / (double) written / 1_000_000d));
+        sender.sendMessage(String.format("Received %d messages. Average read: %d bytes, %.03fms", read, read == 0 ? 0 : streamMetrics.getWireBytesRead() / read, read == 0 ? 0.0 : streamMetrics.getReadNanos() / (double) read / 1_000_000d));
+        streamMetrics.reset();
+        return true;
+    }
+
+    @Command
+    @Path("betterportals/test/intersection")
+    @Argument(name = "iterations")
+    @RequiresPlayer
+    public boolean benchmarkIntersection(Player player, int iterations) {
+        IPortal portal = portalManager.findClosestPortal(player.getLocation(), miscConfig.getPortalActivationDistance());
+        ViewableBlockStore store = portal == null ? null : portal.getViewableBlocks().getViewableBlockStore();
+        if(store == null) {
+            player.sendMessage("No portal with viewable blocks close enough found");
+            return true;
+        }
+
+        int size = store.size();
+        int[] positions = store.getPositions();
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        double[] zs = new double[size];
+        for(int i = 0; i < size; i++) {
+            xs[i] = store.getBaseX() + ViewableBlockStore.unpackX(positions[i]) + 0.5;
+            ys[i] = store.getBaseY() + ViewableBlockStore.unpackY(positions[i]) + 0.5;
+            zs[i] = store.getBaseZ() + ViewableBlockStore.unpackZ(positions[i]) + 0.5;
+        }
+
+        IntersectionBenchmark benchmark = new IntersectionBenchmark(portal.getOriginPos().getVector(), portal.getOriginPos().getDirection().toVector(),
+                player.getEyeLocation().toVector(), portal.getTransformations().getWindowHalfSize(), xs, ys, zs, size);
+
+        // Run each a few times first so that the JIT has a chance to compile them before timing
+        int warmupIterations = Math.max(1, iterations / 10);
+        benchmark.timeScalar(warmupIterations);
+        benchmark.timeBatch(warmupIterations);
+
+        player.sendMessage(String.format("Checking %d blocks %d times", size, iterations));
+        sendIntersectionResult(player, "Scalar", benchmark.timeScalar(iterations));
+        sendIntersectionResult(player, "Batch", benchmark.timeBatch(iterations));
+        return true;
+    }
+
+    private void sendIntersectionResult(Player player, String name, IntersectionBenchmark.Result result) {
+        player.sendMessage(String.format("%s: %.02fns per block, %d bytes allocated per iteration, %d visible", name, result.getNanosPerCheck(), result.getBytesPerIteration(), result.getVisibleCount()));
+    }
+
     @Command
     @Path("betterportals/test/forwardRequest")
     @Argument(name = "serverName")
@@ -14,7 +14,9 @@ import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.util.Vector;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
@@ -39,10 +41,21 @@ public class RenderConfig {
 
     private final Map<String, WrappedBlockData> worldBackgroundBlockData = new HashMap<>();
 
+    // The default background blocks are wrapped once, so that they can be compared by identity
+    private final Map<Material, WrappedBlockData> defaultBackgroundBlockData = new HashMap<>();
+
     private int[] intOffsets;
 
+    // Lookup tables from a flood fill array index to the coordinates relative to the portal, which avoids dividing for every block
+    private int[] indexRelX;
+    private int[] indexRelY;
+    private int[] indexRelZ;
+    private boolean[] edgeIndices;
+
     private Vector collisionBox;
     private int blockUpdateInterval;
+    private int fullBlockCheckInterval;
+    private double viewVolumeMinEyeDistance;
 
     private int worldSwitchWaitTime;
 
@@ -55,6 +68,22 @@ public class RenderConfig {
     private int lightSimulationInterval;
     private int forceLightLevel;
 
+    private int blockDataCacheSize;
+    private int sectionPacketCacheSize;
+    private int maxBlockChangesPerTick;
+    private int visibilityCacheSize;
+    private boolean predictiveBlockUpdates;
+    private double predictionTolerance;
+
+    // Ordered by distance, closest first. Players closer than the first tier's distance see the full effect size
+    private List<LevelOfDetailTier> levelOfDetailTiers;
+    private double levelOfDetailHysteresis;
+
+    private boolean asyncBlockUpdates;
+    private int asyncBlockUpdateThreads;
+
+    private int blockViewUpdateThreads;
+
     @Inject
     public RenderConfig(Logger logger) {
         this.logger = logger;
@@ -87,6 +116,42 @@ public class RenderConfig {
         lightSimulationInterval = file.getInt("lightBlockInterval");
         forceLightLevel = file.getInt("forceLightLevel");
 
+        blockDataCacheSize = file.getInt("blockDataCacheSize", 4096);
+        if(blockDataCacheSize <= 0) {
+            throw new IllegalArgumentException("Block data cache size must be at least 1");
+        }
+
+        sectionPacketCacheSize = file.getInt("sectionPacketCacheSize", 512);
+        if(sectionPacketCacheSize < 0) {
+            throw new IllegalArgumentException("Section packet cache size cannot be negative");
+        }
+
+        maxBlockChangesPerTick = file.getInt("maxBlockChangesPerTick", 4096);
+        if(maxBlockChangesPerTick < 0) {
+            throw new IllegalArgumentException("Max block changes per tick cannot be negative");
+        }
+
+        visibilityCacheSize = file.getInt("visibilityCacheSize", 64);
+        if(visibilityCacheSize < 0) {
+            throw new IllegalArgumentException("Visibility cache size cannot be negative");
+        }
+
+        predictiveBlockUpdates = file.getBoolean("predictiveBlockUpdates", false);
+        predictionTolerance = file.getDouble("predictionTolerance", 0.125);
+        if(predictionTolerance < 0.0) {
+            throw new IllegalArgumentException("Prediction tolerance cannot be negative");
+        }
+
+        loadLevelOfDetail(file.getConfigurationSection("levelOfDetail"));
+
+        asyncBlockUpdates = file.getBoolean("asyncBlockUpdates", false);
+        asyncBlockUpdateThreads = file.getInt("asyncBlockUpdateThreads", 2);
+        if(asyncBlockUpdateThreads <= 0) {
+            throw new IllegalArgumentException("Async block update thread count must be at least 1");
+        }
+
+        blockViewUpdateThreads = file.getInt("blockViewUpdateThreads", 0);
+
         halfFullSize = new IntVector((maxXZ - minXZ) / 2, (maxY - minY) / 2, (maxXZ - minXZ) / 2);
 
         ConfigurationSection cBoxSection = Objects.requireNonNull(file.getConfigurationSection("portalCollisionBox"), "Collision box missing");
@@ -101,6 +166,16 @@ public class RenderConfig {
             throw new IllegalArgumentException("Block update interval must be at least 1");
         }
 
+        fullBlockCheckInterval = file.getInt("fullBlockCheckInterval", 15);
+        if(fullBlockCheckInterval <= 0) {
+            throw new IllegalArgumentException("Full block check interval must be at least 1");
+        }
+
+        viewVolumeMinEyeDistance = file.getDouble("viewVolumeMinEyeDistance", 0.0);
+        if(viewVolumeMinEyeDistance < 0.0) {
+            throw new IllegalArgumentException("View volume minimum eye distance cannot be negative");
+        }
+
         entityMetadataUpdateInterval = file.getInt("entityMetadataUpdateInterval");
 
         worldSwitchWaitTime = file.getInt("waitTimeAfterSwitchingWorlds"); // TODO: implement or yeet
@@ -139,6 +214,21 @@ public class RenderConfig {
                 yMultip,
                 -yMultip
         };
+
+        indexRelX = new int[totalArrayLength];
+        indexRelY = new int[totalArrayLength];
+        indexRelZ = new int[totalArrayLength];
+        edgeIndices = new boolean[totalArrayLength];
+        for(int index = 0; index < totalArrayLength; index++) {
+            int x = (index % zMultip) - (int) maxXZ;
+            int y = (index / yMultip) - (int) maxY;
+            int z = ((index % yMultip) / zMultip) - (int) maxXZ;
+
+            indexRelX[index] = x;
+            indexRelY[index] = y;
+            indexRelZ[index] = z;
+            edgeIndices[index] = isOutsideBounds(x, y, z);
+        }
     }
 
     public boolean isOutsideBounds(int x, int y, int z) {
@@ -159,7 +249,7 @@ public class RenderConfig {
         // External world's environment types cannot be determined
         // Users can still set them specifically via the world overrides
         if(destPosition.isExternal()) {
-            return WrappedBlockData.createData(Material.BLACK_CONCRETE);
+            return getDefaultBackgroundData(Material.BLACK_CONCRETE);
         }
 
         World world = destPosition.getWorld();
@@ -179,6 +269,71 @@ public class RenderConfig {
             material = Material.BLACK_CONCRETE;
         }
 
-        return WrappedBlockData.createData(material);
+        return getDefaultBackgroundData(material);
+    }
+
+    private void loadLevelOfDetail(@Nullable ConfigurationSection section) {
+        levelOfDetailTiers = new ArrayList<>();
+        if(section == null) {
+            levelOfDetailHysteresis = 0.0;
+            return;
+        }
+
+        levelOfDetailHysteresis = section.getDouble("hysteresis", 1.0);
+        if(levelOfDetailHysteresis < 0.0) {
+            throw new IllegalArgumentException("Level of detail hysteresis cannot be negative");
+        }
+
+        List<LevelOfDetailTier> tiers = new ArrayList<>();
+        for(Map<?, ?> tierMap : section.getMapList("tiers")) {
+            LevelOfDetailTier tier = new LevelOfDetailTier(
+                    getNumber(tierMap, "distance").doubleValue(),
+                    getNumber(tierMap, "portalEffectSizeXZ").intValue(),
+                    getNumber(tierMap, "portalEffectSizeY").intValue()
+            );
+
+            if(tier.sizeXZ <= 0 || tier.sizeY <= 0) {
+                throw new IllegalArgumentException("Level of detail effect sizes must be at least one");
+            }
+            if(!tiers.isEmpty() && tier.distance <= tiers.get(tiers.size() - 1).distance) {
+                throw new IllegalArgumentException("Level of detail tiers must be in order of increasing distance");
+            }
+            tiers.add(tier);
+        }
+        if(tiers.size() > 15) {
+            throw new IllegalArgumentException("There can be at most 15 level of detail tiers");
+        }
+        // Replaced rather than modified, since view update threads may be reading the current list
+        levelOfDetailTiers = tiers;
+    }
+
+    private static Number getNumber(Map<?, ?> map, String key) {
+        Object value = map.get(key);
+        if(!(value instanceof Number number)) {
+            throw new IllegalArgumentException("Level of detail tier missing number " + key);
+        }
+        return number;
+    }
+
+    /**
+     * A smaller effect size used for players at least a certain distance from the portal.
+     */
+    @Getter
+    public static class LevelOfDetailTier {
+        private final double distance;
+        private final int sizeXZ;
+        private final int sizeY;
+
+        private LevelOfDetailTier(double distance, int sizeXZ, int sizeY) {
+            this.distance = distance;
+            this.sizeXZ = sizeXZ;
+            this.sizeY = sizeY;
+        }
+    }
+
+    private WrappedBlockData getDefaultBackgroundData(Material material) {
+        synchronized (defaultBackgroundBlockData) {
+            return defaultBackgroundBlockData.computeIfAbsent(material, WrappedBlockData::createData);
+        }
     }
 }
@@ -0,0 +1,146 @@
+package com.lauriethefish.betterportals.bukkit.events;
+
+import com.google.inject.Inject;
+import com.lauriethefish.betterportals.bukkit.block.BlockChangeIndex;
+import com.lauriethefish.betterportals.bukkit.block.TileEntityPacketCache;
+import com.lauriethefish.betterportals.bukkit.block.external.IExternalBlockWatcherManager;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.*;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.BlockInventoryHolder;
+
+import java.util.List;
+
+/**
+ * Forwards block changes to the block maps of active portals, so that they only need to re-check the blocks that changed.
+ * Changes that don't fire any of these events are found by the occasional full check.
+ * Changed blocks are also removed from the {@link TileEntityPacketCache}, so that their tile entity data is read again,
+ * and forwarded to the watchers of cross-server portals with their destination on this server, so that they can push the changes.
+ */
+public class BlockChangeEvents implements Listener {
+    private final BlockChangeIndex changeIndex;
+    private final TileEntityPacketCache tileEntityPacketCache;
+    private final IExternalBlockWatcherManager blockWatcherManager;
+
+    @Inject
+    public BlockChangeEvents(IEventRegistrar eventRegistrar, BlockChangeIndex changeIndex, TileEntityPacketCache tileEntityPacketCache, IExternalBlockWatcherManager blockWatcherManager) {
+        this.changeIndex = changeIndex;
+        this.tileEntityPacketCache = tileEntityPacketCache;
+        this.blockWatcherManager = blockWatcherManager;
+
+        eventRegistrar.register(this);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        onBlockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        onBlockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPhysics(BlockPhysicsEvent event) {
+        onBlockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        onBlockChanged(event.getBlock());
+        onBlockChanged(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        onBlocksChanged(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        onBlockChanged(event.getBlock());
+        onBlocksChanged(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        onPistonMoved(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        onPistonMoved(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        onBlockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        onBlockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        onBlockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLeavesDecay(LeavesDecayEvent event) {
+        onBlockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onSignChange(SignChangeEvent event) {
+        onBlockChanged(event.getBlock());
+    }
+
+    // Interacting can change the state of a tile entity without firing any other event, e.g. dyeing a sign or filling a lectern
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerInteract(PlayerInteractEvent event) {
+        Block clicked = event.getClickedBlock();
+        if(event.getAction() == Action.RIGHT_CLICK_BLOCK && clicked != null) {
+            onBlockChanged(clicked);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClose(InventoryCloseEvent event) {
+        if(event.getInventory().getHolder() instanceof BlockInventoryHolder holder) {
+            onBlockChanged(holder.getBlock());
+        }
+    }
+
+    private void onBlockChanged(Block block) {
+        tileEntityPacketCache.invalidate(block);
+        changeIndex.onBlockChanged(block);
+        blockWatcherManager.onBlockChanged(block);
+    }
+
+    private void onBlocksChanged(List<Block> blocks) {
+        for(Block block : blocks) {
+            onBlockChanged(block);
+        }
+    }
+
+    // Both where the moved blocks were, and where they moved to, have changed, as well as the piston head
+    private void onPistonMoved(Block piston, List<Block> movedBlocks, BlockFace direction) {
+        onBlockChanged(piston);
+        onBlockChanged(piston.getRelative(direction));
+        onBlockChanged(piston.getRelative(direction.getOppositeFace()));
+
+        for(Block block : movedBlocks) {
+            onBlockChanged(block);
+            onBlockChanged(block.getRelative(direction));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.lauriethefish.betterportals.bukkit.events;
+
+import com.google.inject.Inject;
+import com.lauriethefish.betterportals.bukkit.player.IPlayerData;
+import com.lauriethefish.betterportals.bukkit.player.IPlayerDataManager;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+
+/**
+ * Refreshes the portal blocks around blocks that players interact with.
+ * When a player digs or uses an item on a block shown through a portal, the server sends them the real block, so the section is resent to fix it.
+ * This lets the regular full refresh of every shown block happen much less often.
+ */
+public class BlockInteractionEvents implements Listener {
+    private final IPlayerDataManager playerDataManager;
+
+    @Inject
+    public BlockInteractionEvents(IEventRegistrar eventRegistrar, IPlayerDataManager playerDataManager) {
+        this.playerDataManager = playerDataManager;
+
+        eventRegistrar.register(this);
+    }
+
+    // Cancelled interactions are included, since the server resends the real block when an interaction is cancelled
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerInteract(PlayerInteractEvent event) {
+        Action action = event.getAction();
+        if(!(action == Action.LEFT_CLICK_BLOCK || action == Action.RIGHT_CLICK_BLOCK)) {return;}
+
+        Block clickedBlock = event.getClickedBlock();
+        if(clickedBlock == null) {return;}
+
+        IPlayerData playerData = playerDataManager.getPlayerData(event.getPlayer());
+        if(playerData == null || playerData.getViewedPortals().isEmpty()) {return;}
+
+        playerData.refreshPortalBlocks(clickedBlock);
+        // Placing a block changes the block next to the clicked face, which may be in another section
+        Block adjacentBlock = clickedBlock.getRelative(event.getBlockFace());
+        if((adjacentBlock.getX() >> 4) != (clickedBlock.getX() >> 4) || (adjacentBlock.getY() >> 4) != (clickedBlock.getY() >> 4) || (adjacentBlock.getZ() >> 4) != (clickedBlock.getZ() >> 4)) {
+            playerData.refreshPortalBlocks(adjacentBlock);
+        }
+    }
+}
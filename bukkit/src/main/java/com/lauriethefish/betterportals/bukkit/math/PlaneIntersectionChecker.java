@@ -2,15 +2,24 @@ package com.lauriethefish.betterportals.bukkit.math;
 
 import org.bukkit.util.Vector;
 
+import java.util.BitSet;
+
 /**
  * Handles checking if a ray intersects a specific plane
  * Used for portal view checking, since the plane can be the portal's view plane
+ * <p>
+ * All checks use primitive coordinates, so no vectors are allocated, and rays aren't normalised, so no square roots are needed.
  */
 public class PlaneIntersectionChecker {
-    private final Vector planeCenter;
-    private final Vector planeNormal;
-    private final Vector maxDev;
-    private final Vector rayOrigin;
+    private static final double EPSILON_SQUARED = MathUtil.EPSILON * MathUtil.EPSILON;
+
+    private final double centerX, centerY, centerZ;
+    private final double normalX, normalY, normalZ;
+    private final double originX, originY, originZ;
+    private final double maxDevX, maxDevY, maxDevZ;
+
+    // Dot product of the plane normal with the offset from the ray origin to the plane center, the same for every ray
+    private final double planeDistance;
 
     /**
      * Creates a new {@link PlaneIntersectionChecker} with the specified options.
@@ -20,40 +29,84 @@ public class PlaneIntersectionChecker {
      * @param maxDev Represents the size of the plane. This can be treated like a radius
      */
     public PlaneIntersectionChecker(Vector planeCenter, Vector planeNormal, Vector rayOrigin, Vector maxDev)   {
-        this.planeCenter = planeCenter;
-        this.planeNormal = planeNormal;
-        this.rayOrigin = rayOrigin;
-        this.maxDev = maxDev;
+        this.centerX = planeCenter.getX();
+        this.centerY = planeCenter.getY();
+        this.centerZ = planeCenter.getZ();
+        this.normalX = planeNormal.getX();
+        this.normalY = planeNormal.getY();
+        this.normalZ = planeNormal.getZ();
+        this.originX = rayOrigin.getX();
+        this.originY = rayOrigin.getY();
+        this.originZ = rayOrigin.getZ();
+        this.maxDevX = Math.abs(maxDev.getX());
+        this.maxDevY = Math.abs(maxDev.getY());
+        this.maxDevZ = Math.abs(maxDev.getZ());
+
+        this.planeDistance = (centerX - originX) * normalX + (centerY - originY) * normalY + (centerZ - originZ) * normalZ;
     }
 
     /**
-     * Finds if the line from <code>pos</code> to {@link PlaneIntersectionChecker#rayOrigin} intersects the plane.
+     * Finds if the line from <code>pos</code> to the ray origin intersects the plane.
      * @param pos The destination of the ray
      * @return Whether the ray intersects
      */
     public boolean checkIfIntersects(Vector pos)    {
-        // Find the direction to this position from the player's location
-        Vector direction = pos.clone().subtract(rayOrigin).normalize();
+        return checkIfIntersects(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Finds if the line from the given position to the ray origin intersects the plane.
+     * @param x X coordinate of the destination of the ray
+     * @param y Y coordinate of the destination of the ray
+     * @param z Z coordinate of the destination of the ray
+     * @return Whether the ray intersects
+     */
+    public boolean checkIfIntersects(double x, double y, double z) {
+        // Find the direction to this position from the player's location. This isn't normalised, so the intersection is at a fraction of the way to the position
+        double dirX = x - originX;
+        double dirY = y - originY;
+        double dirZ = z - originZ;
 
         // Find if we intersect the plane, and where
-        double denominator = planeNormal.dot(direction);
-        if(Math.abs(denominator) > MathUtil.EPSILON) {
-            Vector difference = planeCenter.clone().subtract(rayOrigin);
-            double t = difference.dot(planeNormal) / denominator;
-            // If the block was before the portal, return false
-            if(rayOrigin.distance(pos) < t)    {
-                return false;
-            }
+        double denominator = normalX * dirX + normalY * dirY + normalZ * dirZ;
+        double lengthSquared = dirX * dirX + dirY * dirY + dirZ * dirZ;
+        // Equivalent to checking the dot product with the normalised direction against epsilon
+        if(denominator * denominator <= EPSILON_SQUARED * lengthSquared) {
+            return false;
+        }
 
-            if(t > MathUtil.EPSILON) {
-                Vector portalIntersectPoint = rayOrigin.clone().add(direction.multiply(t));
-                Vector distCenter = portalIntersectPoint.subtract(planeCenter);
+        double t = planeDistance / denominator;
+        // If the block was before the portal, return false
+        if(t > 1.0) {
+            return false;
+        }
 
-                // Return true if the intersection point was close enough to the portal window
-                return Math.abs(distCenter.getX()) <= maxDev.getX() && Math.abs(distCenter.getY()) <= maxDev.getY() && Math.abs(distCenter.getZ()) <= Math.abs(maxDev.getZ());
-            }
+        // The distance along the ray to the plane must be more than epsilon
+        if(t <= 0.0 || t * t * lengthSquared <= EPSILON_SQUARED) {
+            return false;
         }
 
-        return false;
+        // Return true if the intersection point was close enough to the portal window
+        return Math.abs(originX + dirX * t - centerX) <= maxDevX
+                && Math.abs(originY + dirY * t - centerY) <= maxDevY
+                && Math.abs(originZ + dirZ * t - centerZ) <= maxDevZ;
+    }
+
+    /**
+     * Checks the rays to many positions at once.
+     * Bit <code>i</code> of <code>results</code> is set if the ray to position <code>i</code> intersects, and cleared otherwise.
+     * @param xs X coordinates of the destinations of the rays
+     * @param ys Y coordinates of the destinations of the rays
+     * @param zs Z coordinates of the destinations of the rays
+     * @param count Number of positions to check, starting from index 0
+     * @param results Set to the result of each check. This can be reused between calls to avoid allocating
+     */
+    public void checkIfIntersects(double[] xs, double[] ys, double[] zs, int count, BitSet results) {
+        results.clear();
+        for(int i = 0; i < count; i++) {
+            if(checkIfIntersects(xs[i], ys[i], zs[i])) {
+                results.set(i);
+            }
+        }
     }
-}
\ No newline at end of file
+}
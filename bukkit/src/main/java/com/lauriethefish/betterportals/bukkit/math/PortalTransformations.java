@@ -137,17 +137,24 @@ public class PortalTransformations {
      * @return The intersection checker
      */
     public PlaneIntersectionChecker createIntersectionChecker(Vector rayOrigin) {
-        Vector planeSize = portalSize.clone().multiply(0.5); // The size for the intersection checker is a radius, so we half this since it's the size of the full portal window
-        planeSize = originPos.getDirection().swapVector(planeSize); // Must be on the Z and Y, or Z and X if horizontal (portal's sizes always use the XZ, but we don't want this here)
-
-        Vector collisionBoxOffset = originPos.getDirection().swapVector(renderConfig.getCollisionBox());
-        planeSize.add(collisionBoxOffset); // Expand the size slightly by the values in the config
-
         return new PlaneIntersectionChecker(
                 originPos.getVector(),
                 originPos.getDirection().toVector(),
                 rayOrigin, // The origin pos of a portal is always exactly in the center of the plane
-                planeSize // The max deviation acts as a radius, so we half this
+                getWindowHalfSize() // The max deviation acts as a radius, so we half this
         );
     }
+
+    /**
+     * Finds the distance from the center of the portal window to its edges on each axis, including the collision box from the config.
+     * Blocks are visible through the portal if the ray to them passes within this distance of the center.
+     * @return The half size of the portal window at the origin, in world axes
+     */
+    public Vector getWindowHalfSize() {
+        Vector planeSize = portalSize.clone().multiply(0.5); // The size for the intersection checker is a radius, so we half this since it's the size of the full portal window
+        planeSize = originPos.getDirection().swapVector(planeSize); // Must be on the Z and Y, or Z and X if horizontal (portal's sizes always use the XZ, but we don't want this here)
+
+        Vector collisionBoxOffset = originPos.getDirection().swapVector(renderConfig.getCollisionBox());
+        return planeSize.add(collisionBoxOffset); // Expand the size slightly by the values in the config
+    }
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.lauriethefish.betterportals.api.IntVector;
 import com.lauriethefish.betterportals.bukkit.block.external.IExternalBlockWatcherManager;
+import com.lauriethefish.betterportals.bukkit.block.fetch.ExternalBlockSubscriptions;
+import com.lauriethefish.betterportals.bukkit.net.requests.BlockDataChangesPushRequest;
 import com.lauriethefish.betterportals.bukkit.net.requests.CheckDestinationValidityRequest;
 import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
 import com.lauriethefish.betterportals.bukkit.net.requests.GetSelectionRequest;
@@ -16,6 +18,7 @@ import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.net.IRequestHandler;
 import com.lauriethefish.betterportals.shared.net.RequestException;
 import com.lauriethefish.betterportals.shared.net.Response;
+import com.lauriethefish.betterportals.shared.net.codec.MessageCodec;
 import com.lauriethefish.betterportals.shared.net.requests.PreviousServerPutRequest;
 import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
 import com.lauriethefish.betterportals.shared.net.requests.Request;
@@ -23,9 +26,7 @@ import com.lauriethefish.betterportals.shared.net.requests.TeleportRequest;
 import org.bukkit.Bukkit;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
@@ -33,16 +34,20 @@ import java.util.function.Consumer;
 public class ClientRequestHandler implements IRequestHandler {
     private final Logger logger;
     private final IExternalBlockWatcherManager blockWatcherManager;
+    private final ExternalBlockSubscriptions blockSubscriptions;
     private final IPlayerDataManager playerDataManager;
     private final IPortalClient portalClient;
+    private final MessageCodec messageCodec;
     private final ConcurrentLinkedQueue<Pair<Request, Consumer<Response>>> awaitingHandling = new ConcurrentLinkedQueue<>();
 
     @Inject
-    public ClientRequestHandler(Logger logger, IExternalBlockWatcherManager blockWatcherManager, IPlayerDataManager playerDataManager, IPortalClient portalClient) {
+    public ClientRequestHandler(Logger logger, IExternalBlockWatcherManager blockWatcherManager, ExternalBlockSubscriptions blockSubscriptions, IPlayerDataManager playerDataManager, IPortalClient portalClient, MessageCodec messageCodec) {
         this.logger = logger;
         this.blockWatcherManager = blockWatcherManager;
+        this.blockSubscriptions = blockSubscriptions;
         this.playerDataManager = playerDataManager;
         this.portalClient = portalClient;
+        this.messageCodec = messageCodec;
     }
 
     /**
@@ -69,6 +74,8 @@ public class ClientRequestHandler implements IRequestHandler {
                 handleRelayedRequest((RelayRequest) request, onFinish);
             }   else if(request instanceof GetBlockDataChangesRequest) {
                 handleGetBlockDataChangesRequest((GetBlockDataChangesRequest) request, onFinish);
+            }   else if(request instanceof BlockDataChangesPushRequest) {
+                handleBlockDataChangesPushRequest((BlockDataChangesPushRequest) request, onFinish);
             }   else if(request instanceof TestForwardedRequest) {
                 handleTestForwardedRequest((TestForwardedRequest) request, onFinish);
             }   else if(request instanceof CheckDestinationValidityRequest) {
@@ -93,19 +100,17 @@ public class ClientRequestHandler implements IRequestHandler {
         }
     }
 
-    private void handleRelayedRequest(RelayRequest request, Consumer<Response> onFinish) throws IOException, ClassNotFoundException {
-        Request innerRequest = request.getInnerRequest();
-        handleRequest(innerRequest, (response) -> {
-            ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
-            try {
-                new ObjectOutputStream(byteOutputStream).writeObject(response);
-            } catch (IOException ex) {
-                // This should never happen
-            }
+    private void handleRelayedRequest(RelayRequest request, Consumer<Response> onFinish) throws IOException {
+        Request innerRequest = (Request) messageCodec.decode(request.getInnerRequest());
+        // Block changes are pushed back to the server that subscribed to them
+        if(innerRequest instanceof GetBlockDataChangesRequest) {
+            ((GetBlockDataChangesRequest) innerRequest).setOriginServer(request.getSource());
+        }
 
-            // Wrap the response as a byte array to avoid the proxy trying to deserialize a type that doesn't exist on bungeecord
+        handleRequest(innerRequest, (response) -> {
+            // Wrap the response as an encoded frame to avoid the proxy trying to decode a type that doesn't exist on bungeecord
             Response wrappedResponse = new Response();
-            wrappedResponse.setResult(byteOutputStream.toByteArray());
+            wrappedResponse.setResult(messageCodec.encodeToBytes(response));
             onFinish.accept(wrappedResponse);
         });
     }
@@ -114,6 +119,11 @@ public class ClientRequestHandler implements IRequestHandler {
         blockWatcherManager.onRequestReceived(request, onFinish);
     }
 
+    private void handleBlockDataChangesPushRequest(@NotNull BlockDataChangesPushRequest request, @NotNull Consumer<Response> onFinish) throws RequestException {
+        blockSubscriptions.onChangesPushed(request);
+        onFinish.accept(new Response());
+    }
+
     private void handleTestForwardedRequest(@NotNull TestForwardedRequest request, @NotNull Consumer<Response> onFinish) throws RequestException  {
         logger.info("Received test forwarded request. Content: %s", request.getTestField());
 
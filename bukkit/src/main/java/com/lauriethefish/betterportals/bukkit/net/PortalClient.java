@@ -6,6 +6,7 @@ import com.lauriethefish.betterportals.bukkit.config.ProxyConfig;
 import com.lauriethefish.betterportals.bukkit.util.VersionUtil;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.net.*;
+import com.lauriethefish.betterportals.shared.net.codec.MessageCodec;
 import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
 import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStreamFactory;
 import com.lauriethefish.betterportals.shared.net.encryption.IEncryptedObjectStream;
@@ -16,9 +17,7 @@ import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 
 import javax.crypto.AEADBadTagException;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.net.Socket;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
@@ -36,6 +35,7 @@ public class PortalClient implements IPortalClient {
     private final IRequestHandler requestHandler;
     private final IClientReconnectHandler reconnectHandler;
     private final CipherManager cipherManager;
+    private final MessageCodec messageCodec;
 
     private Socket socket;
     private volatile boolean isRunning = false;
@@ -49,7 +49,7 @@ public class PortalClient implements IPortalClient {
     private final ConcurrentMap<Integer, Consumer<Response>> waitingRequests = new ConcurrentHashMap<>();
 
     @Inject
-    public PortalClient(JavaPlugin pl, ProxyConfig proxyConfig, Logger logger, CipherManager cipherManager, EncryptedObjectStreamFactory encryptedObjectStreamFactory, IRequestHandler requestHandler, IClientReconnectHandler reconnectHandler) {
+    public PortalClient(JavaPlugin pl, ProxyConfig proxyConfig, Logger logger, CipherManager cipherManager, EncryptedObjectStreamFactory encryptedObjectStreamFactory, IRequestHandler requestHandler, IClientReconnectHandler reconnectHandler, MessageCodec messageCodec) {
         this.pl = pl;
         this.proxyConfig = proxyConfig;
         this.logger = logger;
@@ -57,6 +57,9 @@ public class PortalClient implements IPortalClient {
         this.requestHandler = requestHandler;
         this.reconnectHandler = reconnectHandler;
         this.cipherManager = cipherManager;
+        this.messageCodec = messageCodec;
+
+        ServerMessages.register(messageCodec);
     }
 
     @Override
@@ -292,21 +295,20 @@ public class PortalClient implements IPortalClient {
     public void sendRequestToServer(@NotNull Request request, @NotNull String destinationServer, @NotNull Consumer<Response> onFinish) {
         // Tell the proxy to send the request to the correct server
         RelayRequest relayRequest = new RelayRequest();
-        relayRequest.setInnerRequest(request);
+        relayRequest.setInnerRequest(messageCodec.encodeToBytes(request));
         relayRequest.setDestination(destinationServer);
 
         // Relayed responses are wrapped so that they can be treated as opaque on the proxy side
         sendRequestToProxy(relayRequest, (response) -> {
             try {
                 byte[] responseData = (byte[]) response.getResult();
-                Object deserializedResponse = new ObjectInputStream(new ByteArrayInputStream(responseData)).readObject();
-                onFinish.accept((Response) deserializedResponse);
+                onFinish.accept((Response) messageCodec.decode(responseData));
 
             }   catch(RequestException ex) { // This is thrown if there is an error while forwarding the request, not in its processing at the destination
                 Response eResponse = new Response();
                 eResponse.setError(ex);
                 onFinish.accept(eResponse);
-            }   catch(IOException | ClassNotFoundException ex) {
+            }   catch(IOException ex) {
                 disconnect();
             }
         });
@@ -0,0 +1,222 @@
+package com.lauriethefish.betterportals.bukkit.net;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.api.PortalPosition;
+import com.lauriethefish.betterportals.bukkit.block.external.BlockDataChanges;
+import com.lauriethefish.betterportals.bukkit.math.Matrix;
+import com.lauriethefish.betterportals.bukkit.net.requests.*;
+import com.lauriethefish.betterportals.shared.net.codec.MessageCodec;
+import com.lauriethefish.betterportals.shared.net.codec.MessageReader;
+import com.lauriethefish.betterportals.shared.net.codec.MessageSerializer;
+import com.lauriethefish.betterportals.shared.net.codec.MessageWriter;
+import org.bukkit.util.Vector;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Registers the messages that are only sent between servers, and so are relayed by the proxy without being decoded.
+ */
+class ServerMessages {
+    private static final int CHECK_DESTINATION_VALIDITY_REQUEST = MessageCodec.FIRST_SERVER_ID;
+    private static final int GET_BLOCK_DATA_CHANGES_REQUEST = MessageCodec.FIRST_SERVER_ID + 1;
+    private static final int BLOCK_DATA_CHANGES_PUSH_REQUEST = MessageCodec.FIRST_SERVER_ID + 2;
+    private static final int GET_SELECTION_REQUEST = MessageCodec.FIRST_SERVER_ID + 3;
+    private static final int TEST_FORWARDED_REQUEST = MessageCodec.FIRST_SERVER_ID + 4;
+    private static final int BLOCK_DATA_CHANGES = MessageCodec.FIRST_SERVER_ID + 5;
+    private static final int EXTERNAL_SELECTION_INFO = MessageCodec.FIRST_SERVER_ID + 6;
+    private static final int INT_VECTOR = MessageCodec.FIRST_SERVER_ID + 7;
+
+    static void register(MessageCodec codec) {
+        codec.registerRequest(CHECK_DESTINATION_VALIDITY_REQUEST, CheckDestinationValidityRequest.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull CheckDestinationValidityRequest message) {
+                out.writeString(message.getDestinationWorldName());
+                out.writeUuid(message.getDestinationWorldId());
+                out.writeString(message.getOriginGameVersion());
+            }
+
+            @Override
+            public @NotNull CheckDestinationValidityRequest read(@NotNull MessageReader in) throws IOException {
+                CheckDestinationValidityRequest message = new CheckDestinationValidityRequest();
+                message.setDestinationWorldName(in.readString());
+                message.setDestinationWorldId(in.readUuid());
+                message.setOriginGameVersion(in.readString());
+                return message;
+            }
+        });
+
+        codec.registerRequest(GET_BLOCK_DATA_CHANGES_REQUEST, GetBlockDataChangesRequest.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull GetBlockDataChangesRequest message) {
+                out.writeUuid(message.getChangeSetId());
+                writeIntVector(out, message.getPosition());
+                writeMatrix(out, message.getRotateOriginToDest());
+                out.writeUuid(message.getWorldId());
+                out.writeString(message.getWorldName());
+                out.writeInt(message.getXAndZRadius());
+                out.writeInt(message.getYRadius());
+                out.writeString(message.getOriginServer());
+            }
+
+            @Override
+            public @NotNull GetBlockDataChangesRequest read(@NotNull MessageReader in) throws IOException {
+                GetBlockDataChangesRequest message = new GetBlockDataChangesRequest();
+                message.setChangeSetId(in.readUuid());
+                message.setPosition(readIntVector(in));
+                message.setRotateOriginToDest(readMatrix(in));
+                message.setWorldId(in.readUuid());
+                message.setWorldName(in.readString());
+                message.setXAndZRadius(in.readInt());
+                message.setYRadius(in.readInt());
+                message.setOriginServer(in.readString());
+                return message;
+            }
+        });
+
+        codec.registerRequest(BLOCK_DATA_CHANGES_PUSH_REQUEST, BlockDataChangesPushRequest.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull BlockDataChangesPushRequest message) {
+                out.writeUuid(message.getChangeSetId());
+                message.getChanges().write(out);
+            }
+
+            @Override
+            public @NotNull BlockDataChangesPushRequest read(@NotNull MessageReader in) throws IOException {
+                BlockDataChangesPushRequest message = new BlockDataChangesPushRequest();
+                message.setChangeSetId(in.readUuid());
+                message.setChanges(BlockDataChanges.read(in));
+                return message;
+            }
+        });
+
+        codec.registerRequest(GET_SELECTION_REQUEST, GetSelectionRequest.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull GetSelectionRequest message) {
+                out.writeUuid(message.getPlayerId());
+            }
+
+            @Override
+            public @NotNull GetSelectionRequest read(@NotNull MessageReader in) throws IOException {
+                GetSelectionRequest message = new GetSelectionRequest();
+                message.setPlayerId(in.readUuid());
+                return message;
+            }
+        });
+
+        codec.registerRequest(TEST_FORWARDED_REQUEST, TestForwardedRequest.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull TestForwardedRequest message) {
+                writeIntVector(out, message.getTestField());
+            }
+
+            @Override
+            public @NotNull TestForwardedRequest read(@NotNull MessageReader in) throws IOException {
+                TestForwardedRequest message = new TestForwardedRequest();
+                message.setTestField(readIntVector(in));
+                return message;
+            }
+        });
+
+        codec.register(BLOCK_DATA_CHANGES, BlockDataChanges.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull BlockDataChanges message) {
+                message.write(out);
+            }
+
+            @Override
+            public @NotNull BlockDataChanges read(@NotNull MessageReader in) throws IOException {
+                return BlockDataChanges.read(in);
+            }
+        });
+
+        codec.register(EXTERNAL_SELECTION_INFO, GetSelectionRequest.ExternalSelectionInfo.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull GetSelectionRequest.ExternalSelectionInfo message) {
+                writePortalPosition(out, message.getPosition());
+                out.writeInt(message.getSizeX());
+                out.writeInt(message.getSizeY());
+            }
+
+            @Override
+            public @NotNull GetSelectionRequest.ExternalSelectionInfo read(@NotNull MessageReader in) throws IOException {
+                return new GetSelectionRequest.ExternalSelectionInfo(readPortalPosition(in), in.readInt(), in.readInt());
+            }
+        });
+
+        codec.register(INT_VECTOR, IntVector.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull IntVector message) {
+                writeIntVector(out, message);
+            }
+
+            @Override
+            public @NotNull IntVector read(@NotNull MessageReader in) throws IOException {
+                return readIntVector(in);
+            }
+        });
+    }
+
+    private static void writeIntVector(MessageWriter out, IntVector vector) {
+        out.writeInt(vector.getX());
+        out.writeInt(vector.getY());
+        out.writeInt(vector.getZ());
+    }
+
+    private static IntVector readIntVector(MessageReader in) throws IOException {
+        return new IntVector(in.readInt(), in.readInt(), in.readInt());
+    }
+
+    private static void writeMatrix(MessageWriter out, Matrix matrix) {
+        for(double[] row : matrix.m) {
+            for(double value : row) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    private static Matrix readMatrix(MessageReader in) throws IOException {
+        double[][] values = new double[4][4];
+        for(double[] row : values) {
+            for(int i = 0; i < row.length; i++) {
+                row[i] = in.readDouble();
+            }
+        }
+        return new Matrix(values);
+    }
+
+    // Written in the same form as the config, so that the position can be created with its config constructor
+    private static void writePortalPosition(MessageWriter out, PortalPosition position) {
+        out.writeUuid(position.getWorldId());
+        out.writeString(position.getWorldName());
+        Vector vector = position.getVector();
+        out.writeDouble(vector.getX());
+        out.writeDouble(vector.getY());
+        out.writeDouble(vector.getZ());
+        out.writeString(position.getDirection().name());
+        out.writeString(position.getServerName());
+    }
+
+    private static PortalPosition readPortalPosition(MessageReader in) throws IOException {
+        Map<String, Object> map = new HashMap<>();
+        UUID worldId = in.readUuid();
+        if(worldId != null) {
+            map.put("worldId", worldId.toString());
+        }
+        map.put("worldName", in.readString());
+        map.put("x", in.readDouble());
+        map.put("y", in.readDouble());
+        map.put("z", in.readDouble());
+        map.put("direction", in.readString());
+        map.put("serverName", in.readString());
+
+        try {
+            return new PortalPosition(map);
+        }   catch(IllegalArgumentException | NullPointerException ex) {
+            throw new IOException("Malformed portal position", ex);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.lauriethefish.betterportals.bukkit.net.requests;
+
+import com.lauriethefish.betterportals.bukkit.block.external.BlockDataChanges;
+import com.lauriethefish.betterportals.shared.net.requests.Request;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.UUID;
+
+/**
+ * Sent by the destination of a cross-server portal to the origin with the block changes since the previous push.
+ * This is also sent without any changes every so often, so that the origin can check that it hasn't missed any, and so that the destination finds out once the origin has unsubscribed.
+ *
+ * This request has no result, but will return a response with a request exception if the origin is no longer subscribed.
+ */
+@Getter
+@Setter
+public class BlockDataChangesPushRequest extends Request {
+    private static final long serialVersionUID = 1L;
+
+    private UUID changeSetId;
+    private BlockDataChanges changes;
+}
@@ -9,8 +9,8 @@ import lombok.Setter;
 import java.util.UUID;
 
 /**
- * Used to request a set of block data changes from the destination of a cross-server portal.
- * This will send all of the blocks within the portal area the first time it's sent with a particular {@link GetBlockDataChangesRequest#changeSetId}.
+ * Used to subscribe to the block data changes at the destination of a cross-server portal.
+ * The response contains all of the blocks within the portal area, then the destination pushes any changes with a {@link BlockDataChangesPushRequest} until the origin stops accepting them.
  */
 @Getter
 @Setter
@@ -28,4 +28,9 @@ public class GetBlockDataChangesRequest extends Request {
      */
     private int xAndZRadius;
     private int yRadius;
+
+    /**
+     * Set by the destination to the server that sent the request, since changes are pushed back to it.
+     */
+    private String originServer;
 }
@@ -32,6 +32,12 @@ public class GetSelectionRequest extends Request {
             this.sizeX = portalSelection.getPortalSize().getBlockX();
             this.sizeY = portalSelection.getPortalSize().getBlockY();
         }
+
+        public ExternalSelectionInfo(PortalPosition position, int sizeX, int sizeY) {
+            this.position = position;
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+        }
     }
 
     private UUID playerId;
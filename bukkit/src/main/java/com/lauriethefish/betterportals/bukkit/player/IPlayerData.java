@@ -2,6 +2,7 @@ package com.lauriethefish.betterportals.bukkit.player;
 
 import com.lauriethefish.betterportals.bukkit.portal.selection.ISelectionManager;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
+import org.bukkit.block.Block;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
@@ -45,6 +46,13 @@ public interface IPlayerData {
      */
     void setSelection(@NotNull ISelectionManager selection);
 
+    /**
+     * Resends the portal blocks in the chunk section of <code>block</code> for each portal the player is viewing.
+     * Interacting with a block can make the client show the real block instead of the one through the portal.
+     * @param block The block that was interacted with
+     */
+    void refreshPortalBlocks(@NotNull Block block);
+
     /**
      * Called every tick, updates the portal view.
      */
@@ -13,6 +13,7 @@ import com.lauriethefish.betterportals.bukkit.portal.predicate.IPortalPredicateM
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import lombok.Getter;
 import lombok.Setter;
+import org.bukkit.block.Block;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
@@ -112,6 +113,15 @@ public class PlayerData implements IPlayerData  {
         }
     }
 
+    @Override
+    public void refreshPortalBlocks(@NotNull Block block) {
+        for(Map.Entry<IPortal, IPlayerPortalView> entry : portalViews.entrySet()) {
+            if(entry.getKey().getOriginPos().getWorld() != block.getWorld()) {continue;}
+
+            entry.getValue().refreshSection(block.getX(), block.getY(), block.getZ());
+        }
+    }
+
     private void deactivateViews(boolean loggingOut) {
         for(IPlayerPortalView view : portalViews.values()) {
             view.onDeactivate(loggingOut);
@@ -4,6 +4,9 @@ public interface IPlayerPortalView {
     // Called every tick while viewing through this view
     void update();
 
+    // Resends the shown blocks in the chunk section containing the given block next update
+    void refreshSection(int x, int y, int z);
+
     // Should reset the view through the portal back to the normal world
     // Previous position is needed as some things don't need to be reset when switching worlds/moving far enough away
     void onDeactivate(boolean loggingOut);
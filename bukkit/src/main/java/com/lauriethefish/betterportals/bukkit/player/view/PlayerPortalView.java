@@ -57,9 +57,10 @@ public class PlayerPortalView implements IPlayerPortalView  {
         boolean moved = previousPosition == null || !player.getLocation().toVector().equals(previousPosition.toVector());
 
         // We refresh the block view every N ticks so that if the client doesn't change some of the blocks, they will be resent
+        // Sections that the player interacts with are refreshed straight away, so this is only a fallback for other desyncs
         if(ticksSinceStarted % renderConfig.getBlockStateRefreshInterval() == 0) {
             blockView.update(true);
-        }   else if(moved) { // Otherwise, an update only happens when we move to save on performance
+        }   else if(moved || blockView.hasUnsentChanges()) { // Otherwise, an update only happens when we move to save on performance, or to send changes held back or sections to refresh
             blockView.update(false);
         }
 
@@ -72,6 +73,11 @@ public class PlayerPortalView implements IPlayerPortalView  {
         previousPosition = player.getLocation();
     }
 
+    @Override
+    public void refreshSection(int x, int y, int z) {
+        blockView.refreshSection(x, y, z);
+    }
+
     @Override
     public void onDeactivate(boolean loggingOut) {
         boolean shouldSendPackets = shouldSendPackets() && !loggingOut;
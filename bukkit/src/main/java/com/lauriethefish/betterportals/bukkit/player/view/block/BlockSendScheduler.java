@@ -0,0 +1,91 @@
+package com.lauriethefish.betterportals.bukkit.player.view.block;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.bukkit.events.IEventRegistrar;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the number of block changes sent to each player per tick, across all the portals they're viewing.
+ * Changes that don't fit in the budget are left unsent by the view, and sent in later ticks.
+ */
+@Singleton
+public class BlockSendScheduler implements Listener {
+    private static final long NANOS_PER_TICK = 50_000_000L;
+
+    private final RenderConfig renderConfig;
+    private final Map<UUID, Budget> budgets = new ConcurrentHashMap<>();
+
+    @Inject
+    public BlockSendScheduler(RenderConfig renderConfig, IEventRegistrar eventRegistrar) {
+        this.renderConfig = renderConfig;
+        eventRegistrar.register(this);
+    }
+
+    /**
+     * Takes up to <code>wanted</code> block changes from the budget of <code>player</code>.
+     * Safe to call from any thread.
+     * @param player The player being sent the changes
+     * @param wanted The number of changes waiting to be sent
+     * @return The number of changes that may be sent now
+     */
+    public int take(Player player, int wanted) {
+        int perTick = renderConfig.getMaxBlockChangesPerTick();
+        if(perTick == 0 || wanted == 0) {return wanted;}
+
+        return budgets.computeIfAbsent(player.getUniqueId(), (id) -> new Budget()).take(wanted, perTick);
+    }
+
+    /**
+     * Gives back changes taken from the budget of <code>player</code> that ended up not being sent.
+     * Safe to call from any thread.
+     * @param player The player that the changes were taken for
+     * @param unused The number of taken changes that weren't sent
+     */
+    public void giveBack(Player player, int unused) {
+        int perTick = renderConfig.getMaxBlockChangesPerTick();
+        if(perTick == 0 || unused == 0) {return;}
+
+        Budget budget = budgets.get(player.getUniqueId());
+        if(budget != null) {
+            budget.giveBack(unused, perTick);
+        }
+    }
+
+    @EventHandler
+    public void onPlayerLeave(PlayerQuitEvent event) {
+        budgets.remove(event.getPlayer().getUniqueId());
+    }
+
+    // Refills continuously at the per tick rate, but never holds more than one tick's worth, so that idle ticks don't allow a spike later
+    private static class Budget {
+        private double available = -1.0;
+        private long lastRefillTime;
+
+        private synchronized int take(int wanted, int perTick) {
+            long now = System.nanoTime();
+            if(available < 0.0) {
+                available = perTick;
+            }   else    {
+                available = Math.min(perTick, available + (double) (now - lastRefillTime) * perTick / NANOS_PER_TICK);
+            }
+            lastRefillTime = now;
+
+            int taken = Math.min(wanted, (int) available);
+            available -= taken;
+            return taken;
+        }
+
+        private synchronized void giveBack(int unused, int perTick) {
+            available = Math.min(perTick, available + unused);
+        }
+    }
+}
@@ -1,22 +1,27 @@
 package com.lauriethefish.betterportals.bukkit.player.view.block;
 
-import com.lauriethefish.betterportals.bukkit.block.IViewableBlockInfo;
+import com.lauriethefish.betterportals.bukkit.block.IMultiBlockChangeManager;
 import org.bukkit.entity.Player;
-import org.bukkit.util.Vector;
 
 // Implementors of this class must make sure that it is thread safe
 // Manages the current blocks that the player can see
 public interface IPlayerBlockStates {
-    // Should be called when moving a short distance in the same dimension
-    // Actually changes the blocks back to what they should be
-    void resetAndUpdate(int minChunkX, int maxChunkY);
+    // Gets the blocks currently shown to the player
+    ShownBlocks getShown();
 
-    // Note: these methods just update the array, they won't actually send any packets
-    // Returns if the block was not viewable last tick, AKA whether or not an update packet is needed
-    boolean setViewable(Vector position, IViewableBlockInfo block);
+    // Replaces the shown blocks with next, only if they are still expected. Returns false if another thread replaced them first, e.g. the view deactivated
+    boolean compareAndSet(ShownBlocks expected, ShownBlocks next);
 
-    // Returns if the block was viewable last tick, AKA whether or not an update packet is needed
-    boolean setNonViewable(Vector position, IViewableBlockInfo block);
+    // Should be called once the changes committed with compareAndSet have been sent
+    // If the view deactivated while they were being sent, this resets them, since the deactivation left that to the sending thread
+    void finishSending(ShownBlocks sent, int minChunkY, int maxChunkY);
+
+    // Prevents any more blocks from being shown. If shouldReset is true, the blocks are changed back to what they should be, now or once the update sending them finishes
+    void deactivate(boolean shouldReset, int minChunkY, int maxChunkY);
+
+    // Note: this doesn't send the changes, they're just added to the manager
+    // Adds changes to set every block showing destination data in shown back to its origin data
+    void addResetChanges(ShownBlocks shown, IMultiBlockChangeManager multiBlockChangeManager);
 
     interface Factory {
         IPlayerBlockStates create(Player player);
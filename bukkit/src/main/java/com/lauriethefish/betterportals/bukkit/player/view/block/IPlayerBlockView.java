@@ -2,6 +2,7 @@ package com.lauriethefish.betterportals.bukkit.player.view.block;
 
 public interface IPlayerBlockView {
     void update(boolean refresh); // If refresh is true, all blocks will be resent to the player regardless of if they've already seen the changes
+    boolean hasUnsentChanges(); // True if changes were held back by the send budget or sections need refreshing, and another update is needed to send them
+    void refreshSection(int x, int y, int z); // Resends the shown blocks in the chunk section containing the given block next update
     void onDeactivate(boolean shouldResetStates);
-    void finishReset();
 }
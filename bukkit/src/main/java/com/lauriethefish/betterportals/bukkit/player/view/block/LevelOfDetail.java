@@ -0,0 +1,89 @@
+package com.lauriethefish.betterportals.bukkit.player.view.block;
+
+import com.lauriethefish.betterportals.bukkit.block.ViewableBlockStore;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Picks how much of the area behind a portal is shown to one player, based on how far they are from it.
+ * Not thread safe, since updates to the same view never run at the same time.
+ */
+class LevelOfDetail {
+    private final RenderConfig renderConfig;
+
+    // 0 for the full effect size, otherwise one more than the index of the tier in the config
+    private int tier = 0;
+
+    // Indices of the blocks within the current tier's effect size, found again only when the tier or the store changes
+    private BitSet mask;
+    private ViewableBlockStore maskStore;
+    private int maskSize;
+    private int maskTier;
+
+    LevelOfDetail(RenderConfig renderConfig) {
+        this.renderConfig = renderConfig;
+    }
+
+    /**
+     * @return The current tier, 0 for the full effect size
+     */
+    int getTier() {
+        return tier;
+    }
+
+    /**
+     * Moves to the tier for a player at <code>distance</code> from the portal.
+     * A player only moves back to a closer tier once they're the hysteresis distance inside it.
+     * @param distance Distance between the player's eyes and the portal
+     * @return The new tier, 0 for the full effect size
+     */
+    int update(double distance) {
+        List<RenderConfig.LevelOfDetailTier> tiers = renderConfig.getLevelOfDetailTiers();
+        tier = Math.min(tier, tiers.size());
+
+        while(tier < tiers.size() && distance >= tiers.get(tier).getDistance()) {
+            tier++;
+        }
+        while(tier > 0 && distance < tiers.get(tier - 1).getDistance() - renderConfig.getLevelOfDetailHysteresis()) {
+            tier--;
+        }
+        return tier;
+    }
+
+    /**
+     * Finds which blocks are within the effect size of the current tier.
+     * @param store The store to find the blocks of
+     * @param size The number of blocks in the store
+     * @return Indices of the blocks within the effect size, which must not be modified, or null if every block is
+     */
+    @Nullable BitSet getMask(ViewableBlockStore store, int size) {
+        if(tier == 0) {return null;}
+        if(mask != null && maskStore == store && maskSize == size && maskTier == tier) {return mask;}
+
+        List<RenderConfig.LevelOfDetailTier> tiers = renderConfig.getLevelOfDetailTiers();
+        RenderConfig.LevelOfDetailTier current = tiers.get(Math.min(tier, tiers.size()) - 1);
+        int sizeXZ = current.getSizeXZ();
+        int sizeY = current.getSizeY();
+
+        // Positions in the store are relative to the portal
+        BitSet newMask = new BitSet(size);
+        int[] positions = store.getPositions();
+        for(int i = 0; i < size; i++) {
+            int packed = positions[i];
+            if(Math.abs(ViewableBlockStore.unpackX(packed)) <= sizeXZ
+                    && Math.abs(ViewableBlockStore.unpackY(packed)) <= sizeY
+                    && Math.abs(ViewableBlockStore.unpackZ(packed)) <= sizeXZ) {
+                newMask.set(i);
+            }
+        }
+
+        mask = newMask;
+        maskStore = store;
+        maskSize = size;
+        maskTier = tier;
+        return mask;
+    }
+}
@@ -2,21 +2,21 @@ package com.lauriethefish.betterportals.bukkit.player.view.block;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
-import com.lauriethefish.betterportals.bukkit.block.IViewableBlockInfo;
+import com.lauriethefish.betterportals.bukkit.block.BlockStatePalette;
 import com.lauriethefish.betterportals.bukkit.block.IMultiBlockChangeManager;
+import com.lauriethefish.betterportals.bukkit.block.ViewableBlockStore;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import org.bukkit.entity.Player;
-import org.bukkit.util.Vector;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class PlayerBlockStates implements IPlayerBlockStates {
     private final Player player;
     private final IMultiBlockChangeManager.Factory multiBlockChangeManagerFactory;
     private final Logger logger;
 
-    private final Map<Vector, IViewableBlockInfo> viewedStates = new HashMap<>();
+    private final AtomicReference<ShownBlocks> shown = new AtomicReference<>(ShownBlocks.NONE);
 
     @Inject
     public PlayerBlockStates(@Assisted Player player, IMultiBlockChangeManager.Factory multiBlockChangeManagerFactory, Logger logger) {
@@ -26,31 +26,70 @@ public class PlayerBlockStates implements IPlayerBlockStates {
     }
 
     @Override
-    public void resetAndUpdate(int minChunkY, int maxChunkY) {
-        if(viewedStates.size() == 0) {
+    public ShownBlocks getShown() {
+        return shown.get();
+    }
+
+    @Override
+    public boolean compareAndSet(ShownBlocks expected, ShownBlocks next) {
+        return shown.compareAndSet(expected, next);
+    }
+
+    @Override
+    public void finishSending(ShownBlocks sent, int minChunkY, int maxChunkY) {
+        if(shown.compareAndSet(sent, sent.sent())) {return;}
+
+        // The view deactivated while the blocks were being sent, and left resetting them to us
+        if(shown.get().isResetOnDeactivate()) {
+            logger.finest("Resetting blocks after sending finished");
+            reset(sent, minChunkY, maxChunkY);
+        }
+    }
+
+    @Override
+    public void deactivate(boolean shouldReset, int minChunkY, int maxChunkY) {
+        ShownBlocks previous = shown.getAndSet(shouldReset ? ShownBlocks.DEACTIVATED_RESET : ShownBlocks.DEACTIVATED);
+        if(!shouldReset || previous.isDeactivated()) {return;}
+
+        if(previous.isSending()) {
+            // The update sending these blocks will reset them once it's done, so that the reset can't arrive before them
+            logger.finest("Leaving reset to the update currently sending");
+        }   else    {
+            logger.finest("Resetting immediately!");
+            reset(previous, minChunkY, maxChunkY);
+        }
+    }
+
+    private void reset(ShownBlocks shown, int minChunkY, int maxChunkY) {
+        if(shown.getViewed().isEmpty()) {
             logger.finer("No states to reset!");
             return;
         }
 
         // Use a MultiBlockChangeManager to actually send the changes
         IMultiBlockChangeManager multiBlockChangeManager = multiBlockChangeManagerFactory.create(player, minChunkY, maxChunkY);
-
-        logger.finest("Resetting %d blocks", viewedStates.size());
-        for(Map.Entry<Vector, IViewableBlockInfo> entry : viewedStates.entrySet()) {
-            multiBlockChangeManager.addChangeOrigin(entry.getKey(), entry.getValue());
-        }
+        addResetChanges(shown, multiBlockChangeManager);
         multiBlockChangeManager.sendChanges();
-
-        viewedStates.clear();
     }
 
     @Override
-    public boolean setViewable(Vector position, IViewableBlockInfo block) {
-        return viewedStates.put(position, block) == null;
-    }
+    public void addResetChanges(ShownBlocks shown, IMultiBlockChangeManager multiBlockChangeManager) {
+        ViewableBlockStore store = shown.getStore();
+        BitSet viewed = shown.getViewed();
+        if(store == null || viewed.isEmpty()) {return;}
 
-    @Override
-    public boolean setNonViewable(Vector position, IViewableBlockInfo block) {
-        return viewedStates.remove(position, block);
+        logger.finest("Resetting %d blocks", viewed.cardinality());
+        int[] positions = store.getPositions();
+        int[] originDataIds = store.getOriginDataIds();
+        BlockStatePalette palette = store.getPalette();
+        for(int i = viewed.nextSetBit(0); i >= 0; i = viewed.nextSetBit(i + 1)) {
+            int packed = positions[i];
+            multiBlockChangeManager.addChange(
+                    store.getBaseX() + ViewableBlockStore.unpackX(packed),
+                    store.getBaseY() + ViewableBlockStore.unpackY(packed),
+                    store.getBaseZ() + ViewableBlockStore.unpackZ(packed),
+                    palette.get(originDataIds[i])
+            );
+        }
     }
 }
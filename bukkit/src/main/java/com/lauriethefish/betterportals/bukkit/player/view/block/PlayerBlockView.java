@@ -5,17 +5,24 @@ import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.lauriethefish.betterportals.api.IntVector;
 import com.lauriethefish.betterportals.api.PortalDirection;
+import com.lauriethefish.betterportals.bukkit.block.BlockStatePalette;
 import com.lauriethefish.betterportals.bukkit.block.IBlockMap;
-import com.lauriethefish.betterportals.bukkit.block.IViewableBlockInfo;
 import com.lauriethefish.betterportals.bukkit.block.IMultiBlockChangeManager;
+import com.lauriethefish.betterportals.bukkit.block.PortalVisibilityCache;
+import com.lauriethefish.betterportals.bukkit.block.ViewableBlockStore;
 import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.bukkit.math.PlaneIntersectionChecker;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.bukkit.tasks.BlockUpdateFinisher;
+import com.lauriethefish.betterportals.bukkit.tasks.PendingViewUpdate;
 import com.lauriethefish.betterportals.bukkit.util.HeightUtil;
 import com.lauriethefish.betterportals.bukkit.util.MaterialUtil;
+import com.lauriethefish.betterportals.bukkit.util.performance.ViewUpdateMetrics;
 import com.lauriethefish.betterportals.shared.logging.Logger;
+import lombok.Getter;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
@@ -23,19 +30,28 @@ import org.bukkit.util.Vector;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PlayerBlockView implements IPlayerBlockView   {
+    // How many blocks further from the portal plane a block at the edge of the player's view is treated as, when choosing which changes to send first
+    private static final double VIEW_DIRECTION_WEIGHT = 16.0;
+
     private final Player player;
     private final IPortal portal;
 
     private final IMultiBlockChangeManager.Factory multiBlockChangeManagerFactory;
     private final IPlayerBlockStates blockStates;
-    // Avoid resetting block states while they're being updated asynchronously
-    private final ReentrantLock statesLock = new ReentrantLock(true);
     private final Logger logger;
     private final BlockUpdateFinisher updateFinisher;
+    private final BlockSendScheduler sendScheduler;
+    private final RenderConfig renderConfig;
+    private final ViewUpdateMetrics metrics;
     private final boolean shouldHidePortalBlocks;
 
     private final int minChunkY;
@@ -43,20 +59,101 @@ public class PlayerBlockView implements IPlayerBlockView   {
 
     // Stored here since we can't access the Bukkit API from another thread
     private volatile Vector playerPosition;
+    private volatile Vector playerDirection;
+    // Where the player's eyes are expected to be next update, from their movement since the last, or null if not predicting
+    private volatile Vector predictedPosition;
+    private Vector previousPosition; // Only used on the main thread
+
+    // The visible blocks found ahead of time from the predicted position, if any
+    private volatile Prediction prediction;
+
+    private static class Prediction {
+        private final Vector eyePosition;
+        private final ViewableBlockStore store;
+        private final int size;
+        private final int detailTier;
+        private final BitSet visibleBlocks;
+
+        private Prediction(Vector eyePosition, ViewableBlockStore store, int size, int detailTier, BitSet visibleBlocks) {
+            this.eyePosition = eyePosition;
+            this.store = store;
+            this.size = size;
+            this.detailTier = detailTier;
+            this.visibleBlocks = visibleBlocks;
+        }
+    }
+
+    // Only used by the thread finishing the update
+    private final LevelOfDetail levelOfDetail;
+
+    // Whether some changes didn't fit in the player's send budget last update, so another update is needed to send them
+    private volatile boolean hasUnsentChanges = false;
+
+    // Chunk sections to resend the shown blocks of next update, e.g. since the player interacted with a block in them
+    private final Set<Long> sectionsToRefresh = ConcurrentHashMap.newKeySet();
+
+    // Blocks of pendingRefreshStore that were going to be refreshed, but didn't fit in the send budget. Only used by the thread finishing the update
+    private BitSet pendingRefreshBlocks = new BitSet();
+    private ViewableBlockStore pendingRefreshStore;
+    // The version of the store when the shown blocks were last sent, so that blocks whose data changed since can be resent. Only used by the thread finishing the update
+    private int sentVersion;
+
+    // The update waiting to be finished by the BlockUpdateFinisher, if any
+    @Getter private final PendingViewUpdate pendingUpdate = new PendingViewUpdate();
+
+    // Scratch space for each update, shared by every view updated on the same thread so that each view only keeps its viewed blocks
+    private static final ThreadLocal<UpdateBuffers> updateBuffers = ThreadLocal.withInitial(UpdateBuffers::new);
+
+    private static class UpdateBuffers {
+        // The center of each viewable block
+        private double[] blockCentersX = new double[0];
+        private double[] blockCentersY = new double[0];
+        private double[] blockCentersZ = new double[0];
+        // The index in the store of each checked block, when only some are checked
+        private int[] checkedIndices = new int[0];
+        private final BitSet checkedVisible = new BitSet();
 
-    // Used to avoid a situation where the portal is no longer viewable and the blocks were reset, then an async update comes in and resends them
-    private volatile boolean didDeactivate = false;
+        // Blocks that are visible this update, blocks whose visibility changed since the last, and unchanged blocks to resend when refreshing
+        private final BitSet visibleBlocks = new BitSet();
+        private final BitSet changedBlocks = new BitSet();
+        private final BitSet refreshBlocks = new BitSet();
+
+        // Used to sort blocks by priority when they don't all fit in the send budget
+        private long[] priorityKeys = new long[0];
+
+        private void ensureCapacity(int size) {
+            if (blockCentersX.length >= size) {return;}
+
+            int newLength = Math.max(size, blockCentersX.length * 2);
+            blockCentersX = new double[newLength];
+            blockCentersY = new double[newLength];
+            blockCentersZ = new double[newLength];
+            checkedIndices = new int[newLength];
+        }
+
+        private long[] getPriorityKeys(int size) {
+            if(priorityKeys.length < size) {
+                priorityKeys = new long[Math.max(size, priorityKeys.length * 2)];
+            }
+            return priorityKeys;
+        }
+    }
 
     @Inject
     public PlayerBlockView(@Assisted Player player, @Assisted IPortal portal,
                            IMultiBlockChangeManager.Factory multiBlockChangeManagerFactory, IPlayerBlockStates.Factory blockStatesFactory,
-                           Logger logger, BlockUpdateFinisher updateFinisher, RenderConfig renderConfig) {
+                           Logger logger, BlockUpdateFinisher updateFinisher, BlockSendScheduler sendScheduler, RenderConfig renderConfig,
+                           ViewUpdateMetrics metrics) {
         this.player = player;
         this.portal = portal;
         this.multiBlockChangeManagerFactory = multiBlockChangeManagerFactory;
         this.blockStates = blockStatesFactory.create(player);
         this.logger = logger;
         this.updateFinisher = updateFinisher;
+        this.sendScheduler = sendScheduler;
+        this.renderConfig = renderConfig;
+        this.metrics = metrics;
+        this.levelOfDetail = new LevelOfDetail(renderConfig);
         this.shouldHidePortalBlocks = portal.isNetherPortal() && renderConfig.isPortalBlocksHidden();
 
         World viewWorld = player.getWorld();
@@ -67,7 +164,18 @@ public class PlayerBlockView implements IPlayerBlockView   {
     // Called whenever the player moves
     @Override
     public void update(boolean refresh) {
-        playerPosition = player.getEyeLocation().toVector();
+        Location eyeLocation = player.getEyeLocation();
+        Vector position = eyeLocation.toVector();
+        if(renderConfig.isPredictiveBlockUpdates() && previousPosition != null && !position.equals(previousPosition)) {
+            // Assume the player keeps moving the same distance each tick
+            predictedPosition = position.clone().multiply(2.0).subtract(previousPosition);
+        }   else    {
+            predictedPosition = null;
+        }
+        previousPosition = position;
+
+        playerPosition = position;
+        playerDirection = eyeLocation.getDirection();
         updateFinisher.scheduleUpdate(this, refresh);
 
         if(refresh && shouldHidePortalBlocks) {
@@ -76,97 +184,201 @@ public class PlayerBlockView implements IPlayerBlockView   {
     }
 
     @Override
-    public void finishReset() {
-        statesLock.lock();
-        try {
-            blockStates.resetAndUpdate(minChunkY, maxChunkY);
-        }   finally {
-            statesLock.unlock();
+    public boolean hasUnsentChanges() {
+        return hasUnsentChanges || !sectionsToRefresh.isEmpty();
+    }
+
+    @Override
+    public void refreshSection(int x, int y, int z) {
+        sectionsToRefresh.add(getSectionKey(x >> 4, y >> 4, z >> 4));
+    }
+
+    private static long getSectionKey(int sectionX, int sectionY, int sectionZ) {
+        return ((long) sectionX & 0x3FFFFF) << 42 | ((long) sectionZ & 0x3FFFFF) << 20 | (sectionY & 0xFFFFF);
+    }
+
+    // Adds the visible blocks in the sections waiting to be refreshed to refreshBlocks
+    private void addSectionsToRefresh(ViewableBlockStore store, BitSet visibleBlocks, BitSet refreshBlocks) {
+        if(sectionsToRefresh.isEmpty()) {return;}
+
+        Set<Long> sections = new HashSet<>();
+        for(Iterator<Long> iterator = sectionsToRefresh.iterator(); iterator.hasNext();) {
+            sections.add(iterator.next());
+            iterator.remove();
+        }
+
+        int[] positions = store.getPositions();
+        for(int i = visibleBlocks.nextSetBit(0); i >= 0; i = visibleBlocks.nextSetBit(i + 1)) {
+            int packed = positions[i];
+            long sectionKey = getSectionKey(
+                    (store.getBaseX() + ViewableBlockStore.unpackX(packed)) >> 4,
+                    (store.getBaseY() + ViewableBlockStore.unpackY(packed)) >> 4,
+                    (store.getBaseZ() + ViewableBlockStore.unpackZ(packed)) >> 4
+            );
+            if(sections.contains(sectionKey)) {
+                refreshBlocks.set(i);
+            }
+        }
+    }
+
+    // Adds the blocks that were already shown and are still visible, but whose data changed since they were sent, to refreshBlocks
+    private void addChangedBlocks(ViewableBlockStore store, BitSet viewedBlocks, BitSet visibleBlocks, BitSet refreshBlocks) {
+        int[] versions = store.getVersions();
+        for(int i = viewedBlocks.nextSetBit(0); i >= 0; i = viewedBlocks.nextSetBit(i + 1)) {
+            // Versions only increase, but the difference is compared in case they overflow
+            if(versions[i] - sentVersion > 0 && visibleBlocks.get(i)) {
+                refreshBlocks.set(i);
+            }
         }
     }
 
     // Called whenever the player is no longer activating the portal
     @Override
     public void onDeactivate(boolean shouldResetStates) {
-        didDeactivate = true;
         logger.finer("Player block view deactivating. Should reset states: %b", shouldResetStates);
 
-        if(shouldResetStates) {
-            // Reset the portal blocks back to the portal material. Avoid reshowing them if the portal is no longer registered, since then breaking a portal will create ghost portal blocks.
-            if(shouldHidePortalBlocks && portal.isRegistered()) {
-                setPortalBlocks(getPortalBlockData());
-            }
-
-            // If the states lock is available, then brilliant, we can reset the states now
-            if(statesLock.tryLock()) {
-                logger.finest("Resetting immediately!");
-                try {
-                    blockStates.resetAndUpdate(minChunkY, maxChunkY);
-                } finally {
-                    statesLock.unlock();
-                }
-            }   else    {
-                logger.finest("Scheduling reset");
-                // Otherwise, we schedule a reset to happen later on
-                updateFinisher.scheduleReset(this);
-            }
+        // Reset the portal blocks back to the portal material. Avoid reshowing them if the portal is no longer registered, since then breaking a portal will create ghost portal blocks.
+        if(shouldResetStates && shouldHidePortalBlocks && portal.isRegistered()) {
+            setPortalBlocks(getPortalBlockData());
         }
+
+        // This also stops any update in progress from sending more blocks afterwards. If one is sending right now, it does the reset once it's done
+        blockStates.deactivate(shouldResetStates, minChunkY, maxChunkY);
     }
 
-    public void finishUpdate(boolean refresh) {
-        if(didDeactivate) {return;} // Avoid resetting block states while they're being updated asynchronously
+    /**
+     * Finds which blocks the player can see through the portal, and sends the blocks that changed.
+     * @param refresh Whether to resend all visible blocks, regardless of if they were already sent
+     * @return The number of block changes sent
+     */
+    public int finishUpdate(boolean refresh) {
+        ShownBlocks shown = blockStates.getShown();
+        if(shown.isDeactivated()) {return 0;} // Avoid resending blocks once they've been reset
         if(refresh) {
             logger.finest("Refreshing already sent blocks!");
         }
-        statesLock.lock();
 
-        try {
-            IMultiBlockChangeManager multiBlockChangeManager = multiBlockChangeManagerFactory.create(player, minChunkY, maxChunkY);
-            List<PacketContainer> queuedTileEntityUpdates = new ArrayList<>();
+        IMultiBlockChangeManager multiBlockChangeManager = multiBlockChangeManagerFactory.create(player, minChunkY, maxChunkY);
+        List<PacketContainer> queuedTileEntityUpdates = new ArrayList<>();
 
-            PlaneIntersectionChecker intersectionChecker = portal.getTransformations().createIntersectionChecker(playerPosition);
+        IBlockMap viewableBlockArray = portal.getViewableBlocks();
+        ViewableBlockStore store = viewableBlockArray.getViewableBlockStore();
+        if(store == null) {
+            return 0;
+        }
+
+        // Indices from a previous store don't refer to the same blocks, so reset the blocks shown from it first
+        BitSet viewedBlocks = shown.getViewed();
+        if(shown.getStore() != store) {
+            blockStates.addResetChanges(shown, multiBlockChangeManager);
+            viewedBlocks = new BitSet();
+        }
 
-            IBlockMap viewableBlockArray = portal.getViewableBlocks();
-            List<IViewableBlockInfo> viewableStates = viewableBlockArray.getViewableStates();
-            if(viewableStates == null) {
-                return;
+        // The size must be read before the arrays, since only entries up to the size are guaranteed to be written
+        int version = store.getVersion();
+        int size = store.size();
+        int[] positions = store.getPositions();
+        int[] originDataIds = store.getOriginDataIds();
+        int[] destDataIds = store.getDestDataIds();
+        BlockStatePalette palette = store.getPalette();
+
+        UpdateBuffers buffers = updateBuffers.get();
+        BitSet visibleBlocks = buffers.visibleBlocks;
+        Vector eyePosition = playerPosition;
+
+        // Players further away are shown a smaller area, without block entity data
+        int previousDetailTier = levelOfDetail.getTier();
+        int detailTier = levelOfDetail.update(eyePosition.distance(portal.getOriginPos().getVector()));
+        if(detailTier == 0 && previousDetailTier != 0) {
+            // Resend the blocks that were shown without their block entity data
+            refresh = true;
+        }
+
+        if(!usePrediction(eyePosition, store, size, detailTier, visibleBlocks)) {
+            findVisibleBlocks(eyePosition, store, size, buffers, detailTier, visibleBlocks);
+        }
+
+        // Only blocks whose visibility flipped need a packet, unless we're refreshing the sent blocks
+        BitSet changedBlocks = buffers.changedBlocks;
+        changedBlocks.clear();
+        changedBlocks.or(viewedBlocks);
+        changedBlocks.xor(visibleBlocks);
+        BitSet refreshBlocks = buffers.refreshBlocks;
+        refreshBlocks.clear();
+        if (refresh) {
+            refreshBlocks.or(visibleBlocks);
+            sectionsToRefresh.clear();
+        }   else    {
+            addSectionsToRefresh(store, visibleBlocks, refreshBlocks);
+            if(pendingRefreshStore == store) {
+                // Blocks that are no longer visible have been reset since, so only the visible ones are still waiting
+                pendingRefreshBlocks.and(visibleBlocks);
+                refreshBlocks.or(pendingRefreshBlocks);
+            }
+            if(shown.getStore() == store && version != sentVersion) {
+                addChangedBlocks(store, viewedBlocks, visibleBlocks, refreshBlocks);
             }
+        }
+        refreshBlocks.andNot(changedBlocks);
+
+        // If the changes don't all fit in the player's budget, send those nearest the portal and the player's view first, then any refreshed blocks
+        boolean deferredChanges = limitToBudget(changedBlocks, store, buffers);
+        BitSet deferredRefreshBlocks = (BitSet) refreshBlocks.clone();
+        boolean deferredRefresh = limitToBudget(refreshBlocks, store, buffers);
+        deferredRefreshBlocks.andNot(refreshBlocks);
+
+        // Unsent changes are still different next update, so they get sent then, unless their visibility flips back first
+        BitSet nextViewedBlocks = (BitSet) viewedBlocks.clone();
+        nextViewedBlocks.xor(changedBlocks);
+        changedBlocks.or(refreshBlocks);
 
-            for (IViewableBlockInfo blockInfo : viewableStates) {
-                Vector position = blockInfo.getOriginPos().getCenterPos();
-
-                boolean visible = intersectionChecker.checkIfIntersects(position);
-
-                // If visible/non-visible, change to the new state
-                // However, don't bother resending the packet again if the block has already been changed
-                // (unless we're refreshing the sent blocks)
-                if (visible) {
-                    if (blockStates.setViewable(position, blockInfo) || refresh) {
-                        multiBlockChangeManager.addChangeDestination(position, blockInfo);
-
-                        PacketContainer nbtUpdatePacket = viewableBlockArray.getDestinationTileEntityPacket(blockInfo.getOriginPos());
-                        if (nbtUpdatePacket != null) {
-                            if (nbtUpdatePacket.getBlocks() != null)
-                                continue;
-                            queuedTileEntityUpdates.add(nbtUpdatePacket);
-                            logger.fine("Queueing tile state update at destination");
-                        }
-                    }
-                } else {
-                    if (blockStates.setNonViewable(position, blockInfo)) {
-                        multiBlockChangeManager.addChangeOrigin(position, blockInfo);
-
-                        PacketContainer nbtUpdatePacket = viewableBlockArray.getOriginTileEntityPacket(blockInfo.getOriginPos());
-                        if (nbtUpdatePacket != null) {
-                            if (nbtUpdatePacket.getBlocks() != null)
-                                continue;
-                            queuedTileEntityUpdates.add(nbtUpdatePacket);
-                            logger.fine("Queueing tile state update at origin");
-                        }
-                    }
+        // Far tiers skip block entity data behind the portal, but blocks going back to the origin must always get theirs back
+        boolean sendTileEntities = detailTier == 0;
+        for (int i = changedBlocks.nextSetBit(0); i >= 0; i = changedBlocks.nextSetBit(i + 1)) {
+            int packed = positions[i];
+            int x = store.getBaseX() + ViewableBlockStore.unpackX(packed);
+            int y = store.getBaseY() + ViewableBlockStore.unpackY(packed);
+            int z = store.getBaseZ() + ViewableBlockStore.unpackZ(packed);
+
+            // Change to the new state, visible or non-visible
+            if (visibleBlocks.get(i)) {
+                multiBlockChangeManager.addChange(x, y, z, palette.get(destDataIds[i]));
+                if (!sendTileEntities) {continue;}
+
+                PacketContainer nbtUpdatePacket = viewableBlockArray.getDestinationTileEntityPacket(new IntVector(x, y, z));
+                if (nbtUpdatePacket != null) {
+                    if (nbtUpdatePacket.getBlocks() != null)
+                        continue;
+                    queuedTileEntityUpdates.add(nbtUpdatePacket);
+                    logger.fine("Queueing tile state update at destination");
+                }
+            } else {
+                multiBlockChangeManager.addChange(x, y, z, palette.get(originDataIds[i]));
+
+                PacketContainer nbtUpdatePacket = viewableBlockArray.getOriginTileEntityPacket(new IntVector(x, y, z));
+                if (nbtUpdatePacket != null) {
+                    if (nbtUpdatePacket.getBlocks() != null)
+                        continue;
+                    queuedTileEntityUpdates.add(nbtUpdatePacket);
+                    logger.fine("Queueing tile state update at origin");
                 }
             }
+        }
+
+        // Commit the new shown blocks before sending them. This fails if the view deactivated meanwhile, in which case the reset has already been sent
+        ShownBlocks sending = ShownBlocks.sending(store, nextViewedBlocks);
+        if(!blockStates.compareAndSet(shown, sending)) {
+            // Nothing was sent, so the budget taken for these changes can be used by the player's other views
+            sendScheduler.giveBack(player, changedBlocks.cardinality());
+            return 0;
+        }
+        // Refreshed blocks that didn't fit are refreshed next update instead
+        pendingRefreshBlocks = deferredRefreshBlocks;
+        pendingRefreshStore = store;
+        sentVersion = version;
+        hasUnsentChanges = deferredChanges || deferredRefresh;
 
+        try {
             // Show the player the changed states
             multiBlockChangeManager.sendChanges();
             try {
@@ -176,12 +388,169 @@ public class PlayerBlockView implements IPlayerBlockView   {
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
             }
+        }   finally {
+            // If the view deactivated while sending, this resets the blocks now that they can't arrive after the reset
+            blockStates.finishSending(sending, minChunkY, maxChunkY);
+        }
+
+        int blocksSent = changedBlocks.cardinality();
+        predictNextVisible(store, size, buffers, detailTier);
+
+        // Removed due to being unreasonably frequent
+        //logger.finest("Performed viewable block process. Time taken: %fms", timer.getTimeTakenMillis());
+        return blocksSent;
+    }
+
+    /**
+     * Uses the visible blocks found ahead of time, if they were predicted close enough to where the player's eyes actually are.
+     * @param eyePosition Where the player's eyes are
+     * @param store The current store of the portal
+     * @param size The size of the store that visibility is needed for
+     * @param detailTier The level of detail tier that visibility is needed for
+     * @param visibleBlocks Set to the predicted visible blocks if the prediction was used
+     * @return Whether the prediction was used
+     */
+    private boolean usePrediction(Vector eyePosition, ViewableBlockStore store, int size, int detailTier, BitSet visibleBlocks) {
+        Prediction current = prediction;
+        if(current == null) {return false;}
+        prediction = null;
+
+        double tolerance = renderConfig.getPredictionTolerance();
+        if(current.store != store || current.size != size || current.detailTier != detailTier || current.eyePosition.distanceSquared(eyePosition) > tolerance * tolerance) {
+            metrics.recordPredictionMiss();
+            return false;
+        }
+
+        metrics.recordPredictionHit();
+        visibleBlocks.clear();
+        visibleBlocks.or(current.visibleBlocks);
+        return true;
+    }
+
+    /**
+     * Finds the blocks visible from where the player's eyes are predicted to be next update, while the player is moving.
+     * This is done after the current update has been sent, so that the next update can skip finding them if the prediction was right.
+     * @param store The current store of the portal
+     * @param size The size of the store to check
+     * @param buffers Scratch space for this thread
+     * @param detailTier The current level of detail tier
+     */
+    private void predictNextVisible(ViewableBlockStore store, int size, UpdateBuffers buffers, int detailTier) {
+        Vector predicted = predictedPosition;
+        if(predicted == null) {return;}
+
+        BitSet predictedVisible = new BitSet(size);
+        findVisibleBlocks(predicted, store, size, buffers, detailTier, predictedVisible);
+        prediction = new Prediction(predicted, store, size, detailTier, predictedVisible);
+    }
+
+    /**
+     * Finds which blocks of <code>store</code> are visible through the portal, reusing the result of another update from nearly the same eye position if possible.
+     * Only blocks within the effect size of the level of detail tier are checked.
+     * @param eyePosition The position to check visibility from
+     * @param store The store to check the blocks of
+     * @param size The number of blocks in the store to check
+     * @param buffers Scratch space for this thread
+     * @param detailTier The level of detail tier to find the visible blocks for
+     * @param visibleBlocks Set to the indices of the visible blocks
+     */
+    private void findVisibleBlocks(Vector eyePosition, ViewableBlockStore store, int size, UpdateBuffers buffers, int detailTier, BitSet visibleBlocks) {
+        PortalVisibilityCache visibilityCache = portal.getVisibilityCache();
+        long eyeCell = PortalVisibilityCache.getCell(store, eyePosition, detailTier);
+
+        BitSet cached = visibilityCache.get(eyeCell, store, size);
+        if(cached != null) {
+            visibleBlocks.clear();
+            visibleBlocks.or(cached);
+            return;
+        }
+
+        // Check the visibility of every block in one batch, from the center of the eye cell so that the result is the same for every player in it
+        buffers.ensureCapacity(size);
+        double[] blockCentersX = buffers.blockCentersX;
+        double[] blockCentersY = buffers.blockCentersY;
+        double[] blockCentersZ = buffers.blockCentersZ;
+        int[] checkedIndices = buffers.checkedIndices;
+        int[] positions = store.getPositions();
+        BitSet detailMask = levelOfDetail.getMask(store, size);
+
+        int count = 0;
+        for (int i = detailMask == null ? 0 : detailMask.nextSetBit(0); i >= 0 && i < size; i = detailMask == null ? i + 1 : detailMask.nextSetBit(i + 1)) {
+            int packed = positions[i];
+            checkedIndices[count] = i;
+            blockCentersX[count] = store.getBaseX() + ViewableBlockStore.unpackX(packed) + 0.5;
+            blockCentersY[count] = store.getBaseY() + ViewableBlockStore.unpackY(packed) + 0.5;
+            blockCentersZ[count] = store.getBaseZ() + ViewableBlockStore.unpackZ(packed) + 0.5;
+            count++;
+        }
+
+        PlaneIntersectionChecker intersectionChecker = portal.getTransformations().createIntersectionChecker(PortalVisibilityCache.getCellCenter(store, eyeCell));
+        if(detailMask == null) {
+            intersectionChecker.checkIfIntersects(blockCentersX, blockCentersY, blockCentersZ, count, visibleBlocks);
+        }   else    {
+            // Results are for the checked blocks only, so are mapped back to their indices in the store
+            BitSet checkedVisible = buffers.checkedVisible;
+            intersectionChecker.checkIfIntersects(blockCentersX, blockCentersY, blockCentersZ, count, checkedVisible);
+            visibleBlocks.clear();
+            for (int j = checkedVisible.nextSetBit(0); j >= 0; j = checkedVisible.nextSetBit(j + 1)) {
+                visibleBlocks.set(checkedIndices[j]);
+            }
+        }
+        visibilityCache.put(eyeCell, store, size, visibleBlocks);
+    }
+
+    /**
+     * Clears all but the highest priority blocks in <code>blocks</code> that fit in the player's send budget.
+     * Blocks in sections nearer the portal plane and the player's looking direction have higher priority.
+     * @param blocks Indices of the blocks to send, cleared down to those allowed
+     * @param store The store that the indices refer to
+     * @param buffers Scratch space for this thread
+     * @return Whether any blocks were cleared
+     */
+    private boolean limitToBudget(BitSet blocks, ViewableBlockStore store, UpdateBuffers buffers) {
+        int count = blocks.cardinality();
+        int allowed = sendScheduler.take(player, count);
+        if(allowed == count) {return false;}
+        if(allowed == 0) {
+            blocks.clear();
+            return true;
+        }
+
+        Vector planeOrigin = portal.getOriginPos().getVector();
+        Vector planeNormal = portal.getOriginPos().getDirection().toVector();
+        Vector eye = playerPosition;
+        Vector direction = playerDirection;
+
+        int[] positions = store.getPositions();
+        long[] keys = buffers.getPriorityKeys(count);
+        int keyCount = 0;
+        for(int i = blocks.nextSetBit(0); i >= 0; i = blocks.nextSetBit(i + 1)) {
+            // Prioritise by the center of the block's section, so that the changes sent are grouped into as few packets as possible
+            int packed = positions[i];
+            double sectionX = ((store.getBaseX() + ViewableBlockStore.unpackX(packed)) & ~0xF) + 8.0;
+            double sectionY = ((store.getBaseY() + ViewableBlockStore.unpackY(packed)) & ~0xF) + 8.0;
+            double sectionZ = ((store.getBaseZ() + ViewableBlockStore.unpackZ(packed)) & ~0xF) + 8.0;
+
+            double planeDistance = Math.abs((sectionX - planeOrigin.getX()) * planeNormal.getX()
+                    + (sectionY - planeOrigin.getY()) * planeNormal.getY()
+                    + (sectionZ - planeOrigin.getZ()) * planeNormal.getZ());
+
+            double toX = sectionX - eye.getX();
+            double toY = sectionY - eye.getY();
+            double toZ = sectionZ - eye.getZ();
+            double length = Math.sqrt(toX * toX + toY * toY + toZ * toZ);
+            double alignment = length == 0.0 ? 1.0 : (toX * direction.getX() + toY * direction.getY() + toZ * direction.getZ()) / length;
+
+            float priority = (float) (planeDistance + VIEW_DIRECTION_WEIGHT * (1.0 - alignment));
+            // Non-negative floats sort in the same order as their bits, and the index is kept in the low bits
+            keys[keyCount++] = (long) Float.floatToIntBits(priority) << 32 | i;
+        }
 
-            // Removed due to being unreasonably frequent
-            //logger.finest("Performed viewable block process. Time taken: %fms", timer.getTimeTakenMillis());
-        }   finally     {
-            statesLock.unlock();
+        Arrays.sort(keys, 0, keyCount);
+        for(int k = allowed; k < keyCount; k++) {
+            blocks.clear((int) keys[k]);
         }
+        return true;
     }
 
     // Gets the right rotation of portal block depending on the portal's direction
@@ -0,0 +1,64 @@
+package com.lauriethefish.betterportals.bukkit.player.view.block;
+
+import com.lauriethefish.betterportals.bukkit.block.ViewableBlockStore;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+
+/**
+ * The blocks that a player is being shown through a portal.
+ * Instances are never modified once created, instead each update replaces the current instance with compare and set, so updates and resets never need to lock.
+ */
+@Getter
+public class ShownBlocks {
+    /**
+     * Nothing shown yet.
+     */
+    public static final ShownBlocks NONE = new ShownBlocks(null, new BitSet(), false, false, false);
+
+    /**
+     * The view has deactivated and the shown blocks were, or are about to be, reset. No more blocks may be sent.
+     */
+    public static final ShownBlocks DEACTIVATED_RESET = new ShownBlocks(null, new BitSet(), false, true, true);
+
+    /**
+     * The view has deactivated without resetting, e.g. since the player is too far away. No more blocks may be sent.
+     */
+    public static final ShownBlocks DEACTIVATED = new ShownBlocks(null, new BitSet(), false, true, false);
+
+    // The store that the indices in viewed refer to
+    private final @Nullable ViewableBlockStore store;
+    // Indices of the blocks showing destination data. Must not be modified
+    private final @NotNull BitSet viewed;
+    // Whether an update has committed these blocks and is still sending them. If the view deactivates meanwhile, that update resets them once sent
+    private final boolean sending;
+    private final boolean deactivated;
+    private final boolean resetOnDeactivate;
+
+    private ShownBlocks(@Nullable ViewableBlockStore store, @NotNull BitSet viewed, boolean sending, boolean deactivated, boolean resetOnDeactivate) {
+        this.store = store;
+        this.viewed = viewed;
+        this.sending = sending;
+        this.deactivated = deactivated;
+        this.resetOnDeactivate = resetOnDeactivate;
+    }
+
+    /**
+     * Creates the blocks shown once an update has been sent.
+     * @param store The store that <code>viewed</code> refers to
+     * @param viewed Indices of the blocks showing destination data, which must not be modified afterwards
+     * @return The shown blocks, marked as still being sent
+     */
+    public static @NotNull ShownBlocks sending(@NotNull ViewableBlockStore store, @NotNull BitSet viewed) {
+        return new ShownBlocks(store, viewed, true, false, false);
+    }
+
+    /**
+     * @return The same shown blocks, marked as finished sending
+     */
+    public @NotNull ShownBlocks sent() {
+        return new ShownBlocks(store, viewed, false, deactivated, resetOnDeactivate);
+    }
+}
@@ -4,6 +4,7 @@ import com.google.inject.assistedinject.Assisted;
 import com.lauriethefish.betterportals.api.BetterPortal;
 import com.lauriethefish.betterportals.api.PortalPosition;
 import com.lauriethefish.betterportals.bukkit.block.IBlockMap;
+import com.lauriethefish.betterportals.bukkit.block.PortalVisibilityCache;
 import com.lauriethefish.betterportals.bukkit.entity.IPortalEntityManager;
 import com.lauriethefish.betterportals.bukkit.math.PortalTransformations;
 import org.bukkit.util.Vector;
@@ -52,6 +53,11 @@ public interface IPortal extends BetterPortal {
      */
     @NotNull IBlockMap getViewableBlocks();
 
+    /**
+     * @return The blocks found visible from each eye position, shared between the players viewing this portal
+     */
+    @NotNull PortalVisibilityCache getVisibilityCache();
+
     /**
      * @return The lists of entities nearby this portal at the origin and destination
      */
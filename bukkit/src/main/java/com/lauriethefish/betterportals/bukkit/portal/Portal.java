@@ -4,6 +4,7 @@ import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.lauriethefish.betterportals.api.PortalPosition;
 import com.lauriethefish.betterportals.bukkit.block.IBlockMap;
+import com.lauriethefish.betterportals.bukkit.block.PortalVisibilityCache;
 import com.lauriethefish.betterportals.bukkit.chunk.chunkloading.PortalChunkLoader;
 import com.lauriethefish.betterportals.bukkit.config.MiscConfig;
 import com.lauriethefish.betterportals.bukkit.entity.IPortalEntityManager;
@@ -40,6 +41,7 @@ public class Portal implements IPortal, ConfigurationSerializable {
 
     @Getter private final PortalTransformations transformations;
     @Getter private final IBlockMap viewableBlocks;
+    @Getter private final PortalVisibilityCache visibilityCache;
 
     @Getter private final IPortalEntityManager entityList;
     private final PortalChunkLoader chunkLoader;
@@ -49,7 +51,7 @@ public class Portal implements IPortal, ConfigurationSerializable {
 
     @Inject
     public Portal(IPortalManager portalManager, IPortalEntityManager.Factory entityListFactory, IBlockMap.Factory viewableBlockArrayFactory,
-                  PortalChunkLoader chunkLoader, MiscConfig miscConfig,
+                  PortalVisibilityCache visibilityCache, PortalChunkLoader chunkLoader, MiscConfig miscConfig,
                   Logger logger, PortalTransformationsFactory transformationsFactory,
                   @Assisted("originPos") PortalPosition originPos, @Assisted("destPos") PortalPosition destPos,
                   @Assisted Vector size, @Assisted("isCustom") boolean isCustom,
@@ -72,6 +74,7 @@ public class Portal implements IPortal, ConfigurationSerializable {
 
         this.transformations = transformationsFactory.create(this);
         this.viewableBlocks = viewableBlockArrayFactory.create(this);
+        this.visibilityCache = visibilityCache;
         
         this.relocatePlayer = relocatePlayer;
     }
@@ -106,6 +109,7 @@ public class Portal implements IPortal, ConfigurationSerializable {
         logger.finer("Portal was deactivated");
         chunkLoader.unforceloadPortalChunks(destPos);
         viewableBlocks.reset();
+        visibilityCache.clear();
         ticksSinceActivated = -1;
     }
 
@@ -0,0 +1,109 @@
+package com.lauriethefish.betterportals.bukkit.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.shared.logging.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs block map flood fills on worker threads when asynchronous block updates are enabled.
+ */
+@Singleton
+public class BlockMapUpdateExecutor {
+    // How long to wait for queued updates to finish when stopping before discarding them
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    private final Logger logger;
+    private final RenderConfig renderConfig;
+
+    private ExecutorService executor;
+
+    // Wraps each update so that it can be told that it was discarded if the workers are stopped before it runs
+    private class QueuedUpdate implements Runnable {
+        private final Runnable update;
+        private final Runnable onDiscarded;
+
+        private QueuedUpdate(Runnable update, Runnable onDiscarded) {
+            this.update = update;
+            this.onDiscarded = onDiscarded;
+        }
+
+        @Override
+        public void run() {
+            try {
+                update.run();
+            }   catch(RuntimeException ex) {
+                logger.severe("Error occurred while updating portal blocks asynchronously");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    @Inject
+    public BlockMapUpdateExecutor(Logger logger, RenderConfig renderConfig) {
+        this.logger = logger;
+        this.renderConfig = renderConfig;
+    }
+
+    /**
+     * Starts the worker threads, if asynchronous block updates are enabled.
+     * Any previously started threads are stopped first, so that changes to the thread count are applied on reload.
+     */
+    public void start() {
+        stop();
+        if(!renderConfig.isAsyncBlockUpdates()) {return;}
+
+        AtomicInteger threadId = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(renderConfig.getAsyncBlockUpdateThreads(), (runnable) -> {
+            Thread thread = new Thread(runnable, "BetterPortals Block Map Update Thread " + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.fine("Started %d block map update threads", renderConfig.getAsyncBlockUpdateThreads());
+    }
+
+    /**
+     * Stops the worker threads, waiting for queued updates to finish.
+     * If they take too long, updates that haven't started yet are discarded, and their <code>onDiscarded</code> callbacks run on this thread.
+     */
+    public void stop() {
+        if(executor == null) {return;}
+
+        ExecutorService stopping = executor;
+        executor = null;
+        stopping.shutdown();
+        try {
+            if(stopping.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {return;}
+        }   catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        logger.warning("Block map updates took too long to finish, discarding the remaining updates");
+        for(Runnable discarded : stopping.shutdownNow()) {
+            if(discarded instanceof QueuedUpdate) {
+                ((QueuedUpdate) discarded).onDiscarded.run();
+            }
+        }
+    }
+
+    /**
+     * Runs <code>update</code> on a worker thread.
+     * @param update The update to run
+     * @param onDiscarded Called instead of <code>update</code> if the workers are stopped before it starts
+     * @return Whether the update was submitted. This is false if the workers aren't running
+     */
+    public boolean submit(Runnable update, Runnable onDiscarded) {
+        ExecutorService current = executor;
+        if(current == null || current.isShutdown()) {
+            return false;
+        }
+
+        current.execute(new QueuedUpdate(update, onDiscarded));
+        return true;
+    }
+}
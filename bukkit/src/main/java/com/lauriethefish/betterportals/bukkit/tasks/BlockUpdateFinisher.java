@@ -1,69 +1,106 @@
 package com.lauriethefish.betterportals.bukkit.tasks;
 
 import com.lauriethefish.betterportals.bukkit.player.view.block.PlayerBlockView;
+import com.lauriethefish.betterportals.bukkit.util.performance.ViewUpdateMetrics;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles doing the final processing for portal block updates on another thread
  * Doing tons of raycasts to find which blocks are visible is moderately expensive, so happens on another thread
+ * <p>
+ * Each view has one {@link PendingViewUpdate} slot, so a view is only ever queued once, and scheduling doesn't need to search the queue.
+ * Updates to the same view never run at the same time, since each update depends on the blocks shown by the last.
  */
 public abstract class BlockUpdateFinisher {
-    private enum BlockViewUpdateType {
+    // Ordered so that each type supersedes the ones before it
+    enum BlockViewUpdateType {
         REGULAR, // Update blocks
-        REFRESH, // Update and refresh all blocks
-        RESET // Reset all blocks
+        REFRESH // Update and refresh all blocks
     }
 
-    private static class BlockViewUpdateInfo {
-        PlayerBlockView blockView;
-        BlockViewUpdateType type;
-        public BlockViewUpdateInfo(PlayerBlockView blockView, BlockViewUpdateType type) {
-            this.blockView = blockView;
-            this.type = type;
-        }
-
-        // Equals only requires the BlockViewUpdateInfo to be equal - used to check if an update is already pending
-        @Override
-        public boolean equals(Object other) {
-            if(!(other instanceof BlockViewUpdateInfo)) {return false;}
-
-            return blockView == ((BlockViewUpdateInfo) other).blockView;
-        }
-    }
-
-    private final BlockingQueue<BlockViewUpdateInfo> updateQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<PlayerBlockView> updateQueue = new LinkedBlockingQueue<>();
     protected final Logger logger;
+    private final ViewUpdateMetrics metrics;
+
+    // Number of views queued that haven't started processing yet
+    private final AtomicInteger queuedCount = new AtomicInteger();
 
     private volatile boolean hasStopped = false;
 
-    protected BlockUpdateFinisher(Logger logger) {
+    protected BlockUpdateFinisher(Logger logger, ViewUpdateMetrics metrics) {
         this.logger = logger;
+        this.metrics = metrics;
     }
 
-    private void processUpdate(BlockViewUpdateInfo next) {
-        if(next.type == BlockViewUpdateType.RESET) {
-            logger.fine("Running scheduled reset");
-            next.blockView.finishReset();
-        }   else    {
-            next.blockView.finishUpdate(next.type == BlockViewUpdateType.REFRESH);
+    /**
+     * Runs the update pending for <code>blockView</code>, if any.
+     * @param blockView The view to update
+     */
+    protected void processUpdate(PlayerBlockView blockView) {
+        queuedCount.decrementAndGet();
+        PendingViewUpdate pendingUpdate = blockView.getPendingUpdate();
+
+        // If another thread is already updating this view, it runs the pending update once it's done instead of us
+        while(pendingUpdate.tryStartRunning()) {
+            try {
+                BlockViewUpdateType type = pendingUpdate.take();
+                if(type != null) {
+                    long startTime = System.nanoTime();
+                    long waitTime = startTime - pendingUpdate.getQueuedTime();
+                    metrics.recordQueueWait(waitTime);
+
+                    int blocksSent = blockView.finishUpdate(type == BlockViewUpdateType.REFRESH);
+                    metrics.recordFinished(waitTime, System.nanoTime() - startTime, blocksSent);
+                }
+            }   finally {
+                pendingUpdate.finishRunning();
+            }
+
+            // An update may have been scheduled while running, and the thread that took it from the queue may have already given up
+            if(!pendingUpdate.hasPending()) {return;}
         }
     }
 
+    /**
+     * Drops the queued update for <code>blockView</code> without processing it, e.g. if the view couldn't be queued since the threads were stopped.
+     * @param blockView The view to drop the update of
+     */
+    protected void discardUpdate(PlayerBlockView blockView) {
+        queuedCount.decrementAndGet();
+        blockView.getPendingUpdate().take();
+    }
+
+    // Records when the view was queued and the new queue depth before queueing it
+    private void queue(PlayerBlockView blockView) {
+        blockView.getPendingUpdate().setQueuedTime(System.nanoTime());
+        metrics.recordQueueDepth(queuedCount.incrementAndGet());
+        enqueue(blockView);
+    }
+
+    /**
+     * Queues <code>blockView</code> to have its pending update processed.
+     * Called at most once for each time a view's pending update is set.
+     * @param blockView The view to queue
+     */
+    protected void enqueue(PlayerBlockView blockView) {
+        updateQueue.add(blockView);
+    }
+
     protected void processUpdatesContinually()  {
         try {
             while (!hasStopped) {
-                BlockViewUpdateInfo next = updateQueue.take();
-                processUpdate(next);
+                processUpdate(updateQueue.take());
             }
         }   catch(InterruptedException ignored) { }
     }
 
     protected void finishPendingUpdates() {
         while(true) {
-            BlockViewUpdateInfo next = updateQueue.poll();
+            PlayerBlockView next = updateQueue.poll();
             if(next == null) {return;}
 
             processUpdate(next);
@@ -88,36 +125,19 @@ public abstract class BlockUpdateFinisher {
      * @param refresh Whether to resend all block states regardless of if they were already sent
      */
     public void scheduleUpdate(PlayerBlockView blockView, boolean refresh) {
-        BlockViewUpdateInfo updateInfo = new BlockViewUpdateInfo(blockView, refresh ? BlockViewUpdateType.REFRESH : BlockViewUpdateType.REGULAR);
-
-        if(updateQueue.contains(updateInfo)) {
+        metrics.recordScheduled();
+        BlockViewUpdateType type = refresh ? BlockViewUpdateType.REFRESH : BlockViewUpdateType.REGULAR;
+        BlockViewUpdateType previous = blockView.getPendingUpdate().offer(type);
+        if(previous != null) {
             logger.fine("Block update was scheduled when previous update had not finished. Server is running behind!");
+            if(previous.ordinal() < type.ordinal()) {
+                metrics.recordSuperseded();
+            }   else    {
+                metrics.recordCoalesced();
+            }
             return;
         }
 
-        try {
-            updateQueue.put(updateInfo);
-        }   catch(InterruptedException ex) {
-            ex.printStackTrace();
-        }
-    }
-
-    /**
-     * Schedules a block reset which will call {@link PlayerBlockView#finishReset()} when ran.
-     * This will remove any block updates currently queued for this view
-     * @param blockView The block view to reset
-     */
-    public void scheduleReset(PlayerBlockView blockView) {
-        try {
-            BlockViewUpdateInfo updateInfo = new BlockViewUpdateInfo(blockView, BlockViewUpdateType.RESET);
-
-            // Remove any updates pending to update the given view
-            updateQueue.remove(updateInfo);
-
-            // Now we can schedule our reset
-            updateQueue.put(updateInfo);
-        }   catch(InterruptedException ex) {
-            ex.printStackTrace();
-        }
+        queue(blockView);
     }
 }
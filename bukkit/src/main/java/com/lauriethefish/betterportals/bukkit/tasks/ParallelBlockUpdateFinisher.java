@@ -0,0 +1,85 @@
+package com.lauriethefish.betterportals.bukkit.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.bukkit.player.view.block.PlayerBlockView;
+import com.lauriethefish.betterportals.bukkit.util.performance.ViewUpdateMetrics;
+import com.lauriethefish.betterportals.shared.logging.Logger;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Finishes block view updates on a pool of threads, so that updates for different players run in parallel.
+ * Each view is only queued once at a time, and updates to the same view never run at the same time.
+ */
+@Singleton
+public class ParallelBlockUpdateFinisher extends BlockUpdateFinisher {
+    private final RenderConfig renderConfig;
+
+    private volatile ForkJoinPool pool;
+
+    @Inject
+    public ParallelBlockUpdateFinisher(Logger logger, ViewUpdateMetrics metrics, RenderConfig renderConfig) {
+        super(logger, metrics);
+        this.renderConfig = renderConfig;
+    }
+
+    @Override
+    public void start() {
+        stopPool();
+
+        int threadCount = renderConfig.getBlockViewUpdateThreads();
+        if(threadCount <= 0) {
+            // Leave the other half of the processors for the main thread and everything else on the server
+            threadCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        }
+
+        // Async mode processes tasks in the order they were submitted, which is fairer between players
+        pool = new ForkJoinPool(threadCount, (pool) -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("BetterPortals View Update Thread " + thread.getPoolIndex());
+            return thread;
+        }, null, true);
+        logger.fine("Started %d block view update threads", threadCount);
+    }
+
+    @Override
+    public void stop() {
+        stopPool();
+        super.stop();
+    }
+
+    private void stopPool() {
+        ForkJoinPool current = pool;
+        if(current != null) {
+            current.shutdownNow();
+            pool = null;
+        }
+    }
+
+    @Override
+    protected void enqueue(PlayerBlockView blockView) {
+        ForkJoinPool current = pool;
+        if(current == null) {
+            // Not started yet, or stopped. The pending update is cleared so that the view can be queued again once started
+            discardUpdate(blockView);
+            return;
+        }
+
+        try {
+            current.execute(() -> {
+                try {
+                    processUpdate(blockView);
+                }   catch(RuntimeException ex) {
+                    logger.severe("Error occurred while updating player block view");
+                    ex.printStackTrace();
+                }
+            });
+        }   catch(RejectedExecutionException ex) {
+            discardUpdate(blockView);
+        }
+    }
+}
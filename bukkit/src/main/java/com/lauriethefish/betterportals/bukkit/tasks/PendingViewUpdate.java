@@ -0,0 +1,74 @@
+package com.lauriethefish.betterportals.bukkit.tasks;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the update that is waiting to be done for one block view, if any.
+ * Since each view has at most one pending update, checking for and upgrading a pending update doesn't need to search a queue.
+ */
+public class PendingViewUpdate {
+    private final AtomicReference<BlockUpdateFinisher.BlockViewUpdateType> pending = new AtomicReference<>();
+    // Whether a thread is currently updating the view
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    // When the view was last queued, in System.nanoTime. Written before the view is queued, so is visible to the thread that takes it from the queue
+    private volatile long queuedTime;
+
+    /**
+     * Sets the pending update to <code>type</code>, unless an update that does at least as much is already pending.
+     * A refresh supersedes a regular update.
+     * @param type The update to schedule
+     * @return The update that was already pending, or null if none was. The view only needs queueing if this is null
+     */
+    BlockUpdateFinisher.BlockViewUpdateType offer(BlockUpdateFinisher.BlockViewUpdateType type) {
+        while(true) {
+            BlockUpdateFinisher.BlockViewUpdateType current = pending.get();
+            if(current != null && current.ordinal() >= type.ordinal()) {
+                return current;
+            }
+
+            if(pending.compareAndSet(current, type)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Removes the pending update, so that later updates queue the view again.
+     * @return The update that was pending, or null if there was none
+     */
+    BlockUpdateFinisher.BlockViewUpdateType take() {
+        return pending.getAndSet(null);
+    }
+
+    /**
+     * @return Whether an update is waiting to be taken
+     */
+    boolean hasPending() {
+        return pending.get() != null;
+    }
+
+    /**
+     * Marks the view as being updated by this thread.
+     * @return false if another thread is already updating the view
+     */
+    boolean tryStartRunning() {
+        return running.compareAndSet(false, true);
+    }
+
+    /**
+     * Marks the view as no longer being updated, after {@link PendingViewUpdate#tryStartRunning()} returned true.
+     */
+    void finishRunning() {
+        running.set(false);
+    }
+
+    void setQueuedTime(long queuedTime) {
+        this.queuedTime = queuedTime;
+    }
+
+    long getQueuedTime() {
+        return queuedTime;
+    }
+}
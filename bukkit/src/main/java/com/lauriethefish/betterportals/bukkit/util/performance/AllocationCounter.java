@@ -0,0 +1,31 @@
+package com.lauriethefish.betterportals.bukkit.util.performance;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Used to measure how many bytes are allocated by the current thread during an operation.
+ * This relies on a HotSpot extension, so {@link AllocationCounter#getBytesAllocated()} returns -1 on JVMs that don't support it.
+ */
+public class AllocationCounter {
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private final long before = getCurrentThreadAllocatedBytes();
+
+    /**
+     * @return The number of bytes allocated by this thread since this instance was created, or -1 if unsupported
+     */
+    public long getBytesAllocated() {
+        if(before < 0) {return -1;}
+
+        return getCurrentThreadAllocatedBytes() - before;
+    }
+
+    private static long getCurrentThreadAllocatedBytes() {
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean sunThreadBean) || !sunThreadBean.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+
+        return sunThreadBean.getCurrentThreadAllocatedBytes();
+    }
+}
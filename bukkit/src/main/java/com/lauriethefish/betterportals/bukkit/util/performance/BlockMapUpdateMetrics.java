@@ -0,0 +1,87 @@
+package com.lauriethefish.betterportals.bukkit.util.performance;
+
+import com.google.inject.Singleton;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals the time spent updating block maps on the main thread and on worker threads.
+ * Used to compare the tick time cost of synchronous and asynchronous block updates.
+ */
+@Singleton
+public class BlockMapUpdateMetrics {
+    private final LongAdder mainThreadNanos = new LongAdder();
+    private final LongAdder mainThreadUpdates = new LongAdder();
+    private final LongAdder workerNanos = new LongAdder();
+    private final LongAdder workerUpdates = new LongAdder();
+    private final LongAdder skippedUpdates = new LongAdder();
+    private final LongAdder culledCells = new LongAdder();
+
+    /**
+     * Records time spent updating a block map on the main thread.
+     * @param nanos Time taken in nanoseconds
+     */
+    public void recordMainThread(long nanos) {
+        mainThreadNanos.add(nanos);
+        mainThreadUpdates.increment();
+    }
+
+    /**
+     * Records time spent doing a flood fill on a worker thread.
+     * @param nanos Time taken in nanoseconds
+     */
+    public void recordWorker(long nanos) {
+        workerNanos.add(nanos);
+        workerUpdates.increment();
+    }
+
+    /**
+     * Records that an update was skipped, since the previous asynchronous update had not yet finished.
+     */
+    public void recordSkipped() {
+        skippedUpdates.increment();
+    }
+
+    /**
+     * Records that a flood fill reached a cell outside the view volume of its portal, and didn't spread from it.
+     */
+    public void recordCulled() {
+        culledCells.increment();
+    }
+
+    public long getMainThreadNanos() {
+        return mainThreadNanos.sum();
+    }
+
+    public long getMainThreadUpdates() {
+        return mainThreadUpdates.sum();
+    }
+
+    public long getWorkerNanos() {
+        return workerNanos.sum();
+    }
+
+    public long getWorkerUpdates() {
+        return workerUpdates.sum();
+    }
+
+    public long getSkippedUpdates() {
+        return skippedUpdates.sum();
+    }
+
+    public long getCulledCells() {
+        return culledCells.sum();
+    }
+
+    /**
+     * Sets all totals back to zero.
+     */
+    public void reset() {
+        mainThreadNanos.reset();
+        mainThreadUpdates.reset();
+        workerNanos.reset();
+        workerUpdates.reset();
+        skippedUpdates.reset();
+        culledCells.reset();
+    }
+}
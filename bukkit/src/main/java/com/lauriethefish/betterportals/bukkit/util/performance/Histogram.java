@@ -0,0 +1,154 @@
+package com.lauriethefish.betterportals.bukkit.util.performance;
+
+import com.lauriethefish.betterportals.api.HistogramSnapshot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe histogram of non-negative long values, with buckets laid out like HdrHistogram.
+ * Values below {@link Histogram#SUB_BUCKET_COUNT} each have their own bucket. Above this, each power of two range is split into half that many buckets,
+ * so every value is recorded to within about 3%, and the whole long range fits in under 2,000 buckets.
+ * Recording never allocates or locks.
+ */
+public class Histogram {
+    private static final int PRECISION_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << PRECISION_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (Long.SIZE - 1 - PRECISION_BITS) * HALF_SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    static int getBucketIndex(long value) {
+        if(value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // Keep the top PRECISION_BITS bits of the value, which lie between half and all of the sub bucket count
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (PRECISION_BITS - 1);
+        int mantissa = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + (mantissa - HALF_SUB_BUCKET_COUNT);
+    }
+
+    // The largest value that is recorded in the bucket at index
+    static long getBucketUpperBound(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / HALF_SUB_BUCKET_COUNT + 1;
+        long mantissa = offset % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        long upperBound = ((mantissa + 1) << shift) - 1;
+        // The last bucket's upper bound overflows
+        return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+    }
+
+    /**
+     * Records one value.
+     * @param value The value to record. Negative values are recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+
+        counts.incrementAndGet(getBucketIndex(value));
+        totalCount.increment();
+        totalSum.add(value);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Copies the current values. Values recorded while copying may or may not be included.
+     * @return The copied values
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copiedCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            copiedCounts[i] = counts.get(i);
+            count += copiedCounts[i];
+        }
+
+        if(count == 0) {
+            return new Snapshot(copiedCounts, 0, 0, 0, 0.0);
+        }
+        return new Snapshot(copiedCounts, count, min.get(), max.get(), totalSum.sum() / (double) totalCount.sum());
+    }
+
+    /**
+     * Removes all recorded values. Values recorded during the reset may be partially kept.
+     */
+    public void reset() {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalSum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    private static class Snapshot implements HistogramSnapshot {
+        private final long[] counts;
+        private final long count;
+        private final long min;
+        private final long max;
+        private final double mean;
+
+        private Snapshot(long[] counts, long count, long min, long max, double mean) {
+            this.counts = counts;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public long getMin() {
+            return min;
+        }
+
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public double getMean() {
+            return mean;
+        }
+
+        @Override
+        public long getValueAtPercentile(double percentile) {
+            if(count == 0) {return 0;}
+
+            long targetCount = Math.max(1, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count));
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if(seen >= targetCount) {
+                    // Values are never above the max, even if the bucket goes higher
+                    return Math.min(getBucketUpperBound(i), max);
+                }
+            }
+
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d min=%d p50=%d p90=%d p99=%d max=%d mean=%.1f", count, min, getValueAtPercentile(50.0), getValueAtPercentile(90.0), getValueAtPercentile(99.0), max, mean);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.lauriethefish.betterportals.bukkit.util.performance;
+
+import com.lauriethefish.betterportals.bukkit.math.PlaneIntersectionChecker;
+import lombok.Getter;
+import org.bukkit.util.Vector;
+
+import java.util.BitSet;
+
+/**
+ * Compares the time taken and memory allocated by the different ways of checking block visibility through a portal.
+ */
+public class IntersectionBenchmark {
+    /**
+     * The result of timing one way of checking visibility.
+     */
+    @Getter
+    public static class Result {
+        private final double nanosPerCheck;
+        private final long bytesPerIteration;
+        private final int visibleCount;
+
+        private Result(double nanosPerCheck, long bytesPerIteration, int visibleCount) {
+            this.nanosPerCheck = nanosPerCheck;
+            this.bytesPerIteration = bytesPerIteration;
+            this.visibleCount = visibleCount;
+        }
+    }
+
+    private final Vector planeCenter;
+    private final Vector planeNormal;
+    private final Vector rayOrigin;
+    private final Vector maxDev;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    private final int count;
+
+    /**
+     * @param planeCenter The center position of the plane
+     * @param planeNormal The direction of the plane, this should be normalised
+     * @param rayOrigin Where the rays start
+     * @param maxDev The size of the plane, as a radius
+     * @param xs X coordinates of the positions to check
+     * @param ys Y coordinates of the positions to check
+     * @param zs Z coordinates of the positions to check
+     * @param count Number of positions to check
+     */
+    public IntersectionBenchmark(Vector planeCenter, Vector planeNormal, Vector rayOrigin, Vector maxDev, double[] xs, double[] ys, double[] zs, int count) {
+        this.planeCenter = planeCenter;
+        this.planeNormal = planeNormal;
+        this.rayOrigin = rayOrigin;
+        this.maxDev = maxDev;
+        this.xs = xs;
+        this.ys = ys;
+        this.zs = zs;
+        this.count = count;
+    }
+
+    /**
+     * Times checking each position separately using primitive coordinates.
+     * @param iterations Number of times to check every position
+     * @return The timing result
+     */
+    public Result timeScalar(int iterations) {
+        PlaneIntersectionChecker checker = new PlaneIntersectionChecker(planeCenter, planeNormal, rayOrigin, maxDev);
+
+        int visible = 0;
+        long startTime = System.nanoTime();
+        AllocationCounter allocationCounter = new AllocationCounter();
+        for(int iteration = 0; iteration < iterations; iteration++) {
+            visible = 0;
+            for(int i = 0; i < count; i++) {
+                if(checker.checkIfIntersects(xs[i], ys[i], zs[i])) {
+                    visible++;
+                }
+            }
+        }
+
+        return createResult(startTime, allocationCounter, iterations, visible);
+    }
+
+    /**
+     * Times checking every position in one batch.
+     * @param iterations Number of times to check every position
+     * @return The timing result
+     */
+    public Result timeBatch(int iterations) {
+        PlaneIntersectionChecker checker = new PlaneIntersectionChecker(planeCenter, planeNormal, rayOrigin, maxDev);
+        BitSet results = new BitSet(count);
+
+        long startTime = System.nanoTime();
+        AllocationCounter allocationCounter = new AllocationCounter();
+        for(int iteration = 0; iteration < iterations; iteration++) {
+            checker.checkIfIntersects(xs, ys, zs, count, results);
+        }
+
+        return createResult(startTime, allocationCounter, iterations, results.cardinality());
+    }
+
+    private Result createResult(long startTime, AllocationCounter allocationCounter, int iterations, int visibleCount) {
+        long bytesAllocated = allocationCounter.getBytesAllocated();
+        long timeTaken = System.nanoTime() - startTime;
+
+        long checks = Math.max(1L, (long) iterations * count);
+        return new Result(timeTaken / (double) checks, bytesAllocated < 0 ? -1 : bytesAllocated / Math.max(1, iterations), visibleCount);
+    }
+}
@@ -0,0 +1,160 @@
+package com.lauriethefish.betterportals.bukkit.util.performance;
+
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.api.HistogramSnapshot;
+import com.lauriethefish.betterportals.api.ViewUpdateStatistics;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long player block view updates wait and take, from being scheduled on the main thread to their changes being sent.
+ * Recorded from both the main thread and the view update threads.
+ */
+@Singleton
+public class ViewUpdateMetrics {
+    private final Histogram queueDepth = new Histogram();
+    private final Histogram queueWaitNanos = new Histogram();
+    private final Histogram processingNanos = new Histogram();
+    private final Histogram latencyNanos = new Histogram();
+    private final Histogram blocksSent = new Histogram();
+
+    private final LongAdder scheduledUpdates = new LongAdder();
+    private final LongAdder coalescedUpdates = new LongAdder();
+    private final LongAdder supersededUpdates = new LongAdder();
+    private final LongAdder visibilityCacheHits = new LongAdder();
+    private final LongAdder visibilityCacheMisses = new LongAdder();
+    private final LongAdder predictionHits = new LongAdder();
+    private final LongAdder predictionMisses = new LongAdder();
+
+    /**
+     * Records that an update was scheduled.
+     */
+    public void recordScheduled() {
+        scheduledUpdates.increment();
+    }
+
+    /**
+     * Records that an update was dropped, since an update doing at least as much was already pending.
+     */
+    public void recordCoalesced() {
+        coalescedUpdates.increment();
+    }
+
+    /**
+     * Records that a pending update was replaced by one doing more.
+     */
+    public void recordSuperseded() {
+        supersededUpdates.increment();
+    }
+
+    /**
+     * Records that the visibility of a portal's blocks was reused from another update in the same eye cell.
+     */
+    public void recordVisibilityCacheHit() {
+        visibilityCacheHits.increment();
+    }
+
+    /**
+     * Records that the visibility of a portal's blocks had to be checked.
+     */
+    public void recordVisibilityCacheMiss() {
+        visibilityCacheMisses.increment();
+    }
+
+    /**
+     * Records that the blocks visible from a player's predicted eye position were used, since they were close enough to the actual position.
+     */
+    public void recordPredictionHit() {
+        predictionHits.increment();
+    }
+
+    /**
+     * Records that a player's eyes ended up too far from their predicted position, so the visible blocks had to be found again.
+     */
+    public void recordPredictionMiss() {
+        predictionMisses.increment();
+    }
+
+    /**
+     * Records the number of views waiting to be updated, just after one was queued.
+     * @param depth The number of queued views
+     */
+    public void recordQueueDepth(int depth) {
+        queueDepth.record(depth);
+    }
+
+    /**
+     * Records the time between a view being queued and its update starting.
+     * @param nanos Time waited in nanoseconds
+     */
+    public void recordQueueWait(long nanos) {
+        queueWaitNanos.record(nanos);
+    }
+
+    /**
+     * Records a finished block update.
+     * @param waitNanos Time that the update waited in the queue
+     * @param processingNanos Time taken to process the update
+     * @param blockCount Number of block changes sent to the player
+     */
+    public void recordFinished(long waitNanos, long processingNanos, int blockCount) {
+        this.processingNanos.record(processingNanos);
+        latencyNanos.record(waitNanos + processingNanos);
+        blocksSent.record(blockCount);
+    }
+
+    /**
+     * @return A copy of the current statistics
+     */
+    public ViewUpdateStatistics getStatistics() {
+        return new Statistics(
+                queueDepth.snapshot(),
+                queueWaitNanos.snapshot(),
+                processingNanos.snapshot(),
+                latencyNanos.snapshot(),
+                blocksSent.snapshot(),
+                scheduledUpdates.sum(),
+                coalescedUpdates.sum(),
+                supersededUpdates.sum(),
+                visibilityCacheHits.sum(),
+                visibilityCacheMisses.sum(),
+                predictionHits.sum(),
+                predictionMisses.sum()
+        );
+    }
+
+    @Getter
+    private static class Statistics implements ViewUpdateStatistics {
+        private final @NotNull HistogramSnapshot queueDepth;
+        private final @NotNull HistogramSnapshot queueWaitNanos;
+        private final @NotNull HistogramSnapshot processingNanos;
+        private final @NotNull HistogramSnapshot latencyNanos;
+        private final @NotNull HistogramSnapshot blocksSent;
+        private final long scheduledUpdates;
+        private final long coalescedUpdates;
+        private final long supersededUpdates;
+        private final long visibilityCacheHits;
+        private final long visibilityCacheMisses;
+        private final long predictionHits;
+        private final long predictionMisses;
+
+        private Statistics(@NotNull HistogramSnapshot queueDepth, @NotNull HistogramSnapshot queueWaitNanos, @NotNull HistogramSnapshot processingNanos,
+                           @NotNull HistogramSnapshot latencyNanos, @NotNull HistogramSnapshot blocksSent, long scheduledUpdates, long coalescedUpdates, long supersededUpdates,
+                           long visibilityCacheHits, long visibilityCacheMisses, long predictionHits, long predictionMisses) {
+            this.queueDepth = queueDepth;
+            this.queueWaitNanos = queueWaitNanos;
+            this.processingNanos = processingNanos;
+            this.latencyNanos = latencyNanos;
+            this.blocksSent = blocksSent;
+            this.scheduledUpdates = scheduledUpdates;
+            this.coalescedUpdates = coalescedUpdates;
+            this.supersededUpdates = supersededUpdates;
+            this.visibilityCacheHits = visibilityCacheHits;
+            this.visibilityCacheMisses = visibilityCacheMisses;
+            this.predictionHits = predictionHits;
+            this.predictionMisses = predictionMisses;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import com.lauriethefish.betterportals.bukkit.block.external.BlockDataChanges;
+import com.lauriethefish.betterportals.bukkit.block.external.WatchedBlockIds;
+import com.lauriethefish.betterportals.shared.net.codec.MessageCodec;
+import com.lauriethefish.betterportals.shared.net.codec.MessageReader;
+import com.lauriethefish.betterportals.shared.net.codec.MessageSerializer;
+import com.lauriethefish.betterportals.shared.net.codec.MessageWriter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockDataChangesTests {
+    private static final int VOLUME_SIZE = 4096;
+
+    // Builds changes the same way as the watcher at the destination of a portal
+    private static class Destination {
+        private final Map<String, Integer> paletteIds = new HashMap<>();
+        private final String[] states = new String[VOLUME_SIZE];
+        private final WatchedBlockIds sentIds = new WatchedBlockIds(VOLUME_SIZE);
+
+        private BlockDataChanges push(Map<Integer, String> blocks) {
+            int paletteStart = paletteIds.size();
+            List<String> newPaletteEntries = new ArrayList<>();
+            BitSet changed = new BitSet(VOLUME_SIZE);
+            int[] ids = new int[blocks.size()];
+            int changeCount = 0;
+
+            for(Map.Entry<Integer, String> block : new TreeMap<>(blocks).entrySet()) {
+                int index = block.getKey();
+                if(block.getValue().equals(states[index])) {continue;}
+
+                states[index] = block.getValue();
+                int id = paletteIds.computeIfAbsent(block.getValue(), key -> {
+                    newPaletteEntries.add(key);
+                    return paletteIds.size();
+                });
+                sentIds.set(index, id);
+
+                changed.set(index);
+                ids[changeCount++] = id;
+            }
+
+            return new BlockDataChanges(paletteStart, newPaletteEntries.toArray(new String[0]), changed, ids, paletteIds.size(), sentIds.getChecksum());
+        }
+    }
+
+    // Applies changes the same way as the fetcher at the origin of a portal
+    private static class Origin {
+        private final List<String> palette = new ArrayList<>();
+        private final String[] states = new String[VOLUME_SIZE];
+        private final WatchedBlockIds currentIds = new WatchedBlockIds(VOLUME_SIZE);
+
+        private boolean receive(BlockDataChanges changes) {
+            if(changes.getPaletteStart() != palette.size()) {return false;}
+
+            palette.addAll(Arrays.asList(changes.getNewPaletteEntries()));
+            currentIds.apply(changes, (index, id) -> states[index] = palette.get(id));
+            return currentIds.getChecksum() == changes.getChecksum();
+        }
+    }
+
+    private MessageCodec codec;
+
+    @BeforeEach
+    public void setUp() {
+        codec = new MessageCodec();
+        codec.register(MessageCodec.FIRST_SERVER_ID, BlockDataChanges.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull BlockDataChanges message) {
+                message.write(out);
+            }
+
+            @Override
+            public @NotNull BlockDataChanges read(@NotNull MessageReader in) throws IOException {
+                return BlockDataChanges.read(in);
+            }
+        });
+    }
+
+    private BlockDataChanges roundTrip(BlockDataChanges changes) throws IOException {
+        return (BlockDataChanges) codec.decode(codec.encodeToBytes(changes));
+    }
+
+    private static long sumChecksums(int[] ids) {
+        long checksum = 0;
+        for(int index = 0; index < ids.length; index++) {
+            if(ids[index] != -1) {
+                checksum += BlockDataChanges.getChecksum(index, ids[index]);
+            }
+        }
+        return checksum;
+    }
+
+    private void checkRoundTrip(int paletteSize, int changeCount, long seed) throws IOException {
+        Random random = new Random(seed);
+        String[] entries = new String[paletteSize];
+        for(int i = 0; i < paletteSize; i++) {
+            entries[i] = "minecraft:block_" + i;
+        }
+
+        BitSet changed = new BitSet(VOLUME_SIZE);
+        while(changed.cardinality() < changeCount) {
+            changed.set(random.nextInt(VOLUME_SIZE));
+        }
+        int[] ids = new int[changeCount];
+        for(int i = 0; i < changeCount; i++) {
+            ids[i] = random.nextInt(paletteSize);
+        }
+        // Make sure the largest ID is packed, since it uses every bit
+        ids[changeCount - 1] = paletteSize - 1;
+
+        BlockDataChanges result = roundTrip(new BlockDataChanges(0, entries, changed, ids, paletteSize, 0x123456789ABCDEFL));
+        assertEquals(0, result.getPaletteStart());
+        assertArrayEquals(entries, result.getNewPaletteEntries());
+        assertEquals(changed, result.getChanged());
+        assertEquals(changeCount, result.getChangeCount());
+        assertArrayEquals(ids, result.getIds());
+        assertEquals(0x123456789ABCDEFL, result.getChecksum());
+    }
+
+    @Test
+    public void testRoundTripWithOneEntryPalette() throws IOException {
+        checkRoundTrip(1, 50, 1);
+    }
+
+    @Test
+    public void testRoundTripWithIdsNotFillingLongs() throws IOException {
+        // 9 bits per ID, so only 7 fit in each long
+        checkRoundTrip(300, 1000, 2);
+    }
+
+    @Test
+    public void testRoundTripWithEveryBlockChanged() throws IOException {
+        checkRoundTrip(16, VOLUME_SIZE, 3);
+    }
+
+    @Test
+    public void testEmptyChangesRoundTrip() throws IOException {
+        BlockDataChanges result = roundTrip(new BlockDataChanges(7, new String[0], new BitSet(), new int[0], 7, 42));
+        assertEquals(7, result.getPaletteStart());
+        assertEquals(0, result.getNewPaletteEntries().length);
+        assertTrue(result.getChanged().isEmpty());
+        assertEquals(0, result.getIds().length);
+        assertEquals(42, result.getChecksum());
+    }
+
+    @Test
+    public void testPaletteGrowsAcrossPushes() throws IOException {
+        Destination destination = new Destination();
+        Origin origin = new Origin();
+        Random random = new Random(4);
+
+        // Each push adds new kinds of block, so the number of bits per ID grows as the pushes go on
+        int kinds = 2;
+        for(int push = 0; push < 8; push++) {
+            Map<Integer, String> blocks = new HashMap<>();
+            for(int i = 0; i < 200; i++) {
+                blocks.put(random.nextInt(VOLUME_SIZE), "minecraft:block_" + random.nextInt(kinds));
+            }
+            kinds *= 2;
+
+            BlockDataChanges changes = roundTrip(destination.push(blocks));
+            assertTrue(origin.receive(changes), "Checksum or palette differed after push " + push);
+            assertEquals(destination.paletteIds.size(), origin.palette.size());
+            assertArrayEquals(destination.states, origin.states, "States differed after push " + push);
+        }
+        assertTrue(origin.palette.size() > 64);
+    }
+
+    @Test
+    public void testOverwrittenBlockUpdatesChecksum() throws IOException {
+        Destination destination = new Destination();
+        Origin origin = new Origin();
+
+        assertTrue(origin.receive(roundTrip(destination.push(Map.of(10, "minecraft:stone", 11, "minecraft:dirt")))));
+        long firstChecksum = origin.currentIds.getChecksum();
+
+        // Overwriting a block must remove its old ID from the checksum, not just add the new one
+        assertTrue(origin.receive(roundTrip(destination.push(Map.of(10, "minecraft:dirt")))));
+        assertEquals("minecraft:dirt", origin.states[10]);
+        assertNotEquals(firstChecksum, origin.currentIds.getChecksum());
+        assertEquals(sumChecksums(new int[]{-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1, 1}), origin.currentIds.getChecksum());
+
+        // Changing it back gives the same checksum as before, since it only depends on the current IDs
+        assertTrue(origin.receive(roundTrip(destination.push(Map.of(10, "minecraft:stone")))));
+        assertEquals("minecraft:stone", origin.states[10]);
+        assertEquals(firstChecksum, origin.currentIds.getChecksum());
+    }
+
+    @Test
+    public void testSettingSameIdDoesNotChangeChecksum() {
+        WatchedBlockIds ids = new WatchedBlockIds(VOLUME_SIZE);
+        assertTrue(ids.set(5, 3));
+        long checksum = ids.getChecksum();
+
+        assertFalse(ids.set(5, 3));
+        assertEquals(checksum, ids.getChecksum());
+        assertEquals(3, ids.get(5));
+        assertEquals(-1, ids.get(6));
+
+        ids.clear();
+        assertEquals(0, ids.getChecksum());
+        assertEquals(-1, ids.get(5));
+    }
+
+    @Test
+    public void testMissedChangeIsDetected() throws IOException {
+        Destination destination = new Destination();
+        Origin origin = new Origin();
+
+        assertTrue(origin.receive(roundTrip(destination.push(Map.of(1, "minecraft:stone", 2, "minecraft:dirt")))));
+        // Lost before reaching the origin. This doesn't add to the palette, so only the checksum can show that it was missed
+        destination.push(Map.of(1, "minecraft:dirt"));
+
+        assertFalse(origin.receive(roundTrip(destination.push(Map.of(3, "minecraft:stone")))));
+    }
+
+    @Test
+    public void testMissedPaletteEntriesAreDetected() throws IOException {
+        Destination destination = new Destination();
+        Origin origin = new Origin();
+
+        assertTrue(origin.receive(roundTrip(destination.push(Map.of(1, "minecraft:stone")))));
+        destination.push(Map.of(2, "minecraft:dirt"));
+
+        assertFalse(origin.receive(roundTrip(destination.push(Map.of(3, "minecraft:stone")))));
+    }
+}
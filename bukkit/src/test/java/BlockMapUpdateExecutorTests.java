@@ -0,0 +1,108 @@
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.bukkit.tasks.BlockMapUpdateExecutor;
+import com.lauriethefish.betterportals.shared.logging.OverrideLogger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockMapUpdateExecutorTests {
+    // Only one worker, so that the second update stays queued behind the first
+    private static class TestRenderConfig extends RenderConfig {
+        private TestRenderConfig() {
+            super(new OverrideLogger(java.util.logging.Logger.getLogger("BlockMapUpdateExecutorTests")));
+        }
+
+        @Override
+        public boolean isAsyncBlockUpdates() {
+            return true;
+        }
+
+        @Override
+        public int getAsyncBlockUpdateThreads() {
+            return 1;
+        }
+    }
+
+    private BlockMapUpdateExecutor executor;
+    private final CountDownLatch releaseWorker = new CountDownLatch(1);
+    private final CountDownLatch workerStarted = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        executor = new BlockMapUpdateExecutor(new OverrideLogger(java.util.logging.Logger.getLogger("BlockMapUpdateExecutorTests")), new TestRenderConfig());
+        executor.start();
+
+        // Keeps the only worker busy until released
+        assertTrue(executor.submit(() -> {
+            workerStarted.countDown();
+            try {
+                releaseWorker.await();
+            }   catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> {}));
+        assertTrue(workerStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        releaseWorker.countDown();
+        executor.stop();
+    }
+
+    // Queues an update in the same way as a block map, which sets a flag that must be cleared whether or not the update runs
+    private AtomicBoolean queueUpdate(AtomicBoolean ran) {
+        AtomicBoolean updateRunning = new AtomicBoolean(true);
+        assertTrue(executor.submit(() -> {
+            ran.set(true);
+            updateRunning.set(false);
+        }, () -> updateRunning.set(false)));
+        return updateRunning;
+    }
+
+    @Test
+    public void testQueuedUpdateRunsOnReload() {
+        AtomicBoolean ran = new AtomicBoolean();
+        AtomicBoolean updateRunning = queueUpdate(ran);
+
+        // Let the worker finish while the reload is waiting for it
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            }   catch(InterruptedException ignored) {}
+            releaseWorker.countDown();
+        }).start();
+        executor.start();
+
+        assertTrue(ran.get());
+        assertFalse(updateRunning.get());
+    }
+
+    @Test
+    public void testDiscardedUpdateClearsFlagOnReload() {
+        AtomicBoolean ran = new AtomicBoolean();
+        AtomicBoolean updateRunning = queueUpdate(ran);
+
+        // The worker never finishes in time, so the queued update is discarded
+        executor.start();
+
+        assertFalse(ran.get());
+        assertFalse(updateRunning.get(), "Discarded update left its flag set, so the block map would never update again");
+    }
+
+    @Test
+    public void testUpdatesRunAfterReload() throws InterruptedException {
+        releaseWorker.countDown();
+        executor.start();
+
+        CountDownLatch ran = new CountDownLatch(1);
+        assertTrue(executor.submit(ran::countDown, () -> {}));
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
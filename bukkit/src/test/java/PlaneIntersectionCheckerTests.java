@@ -0,0 +1,69 @@
+import com.lauriethefish.betterportals.bukkit.math.PlaneIntersectionChecker;
+import org.bukkit.util.Vector;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PlaneIntersectionCheckerTests {
+    private static final int POSITION_COUNT = 20_000;
+
+    private void checkMatchesReference(Vector planeNormal, Vector maxDev, long seed) {
+        Random random = new Random(seed);
+        Vector planeCenter = new Vector(10.5, 64.0, -20.5);
+
+        for(int origin = 0; origin < 10; origin++) {
+            Vector rayOrigin = planeCenter.clone().add(new Vector(random.nextDouble() * 12 - 6, random.nextDouble() * 6 - 3, random.nextDouble() * 12 - 6));
+
+            double[] xs = new double[POSITION_COUNT];
+            double[] ys = new double[POSITION_COUNT];
+            double[] zs = new double[POSITION_COUNT];
+            for(int i = 0; i < POSITION_COUNT; i++) {
+                xs[i] = planeCenter.getX() + random.nextDouble() * 40 - 20;
+                ys[i] = planeCenter.getY() + random.nextDouble() * 40 - 20;
+                zs[i] = planeCenter.getZ() + random.nextDouble() * 40 - 20;
+            }
+
+            PlaneIntersectionChecker checker = new PlaneIntersectionChecker(planeCenter, planeNormal, rayOrigin, maxDev);
+            ReferencePlaneIntersectionChecker reference = new ReferencePlaneIntersectionChecker(planeCenter, planeNormal, rayOrigin, maxDev);
+            BitSet batchResults = new BitSet(POSITION_COUNT);
+            checker.checkIfIntersects(xs, ys, zs, POSITION_COUNT, batchResults);
+
+            int visible = 0;
+            for(int i = 0; i < POSITION_COUNT; i++) {
+                boolean expected = reference.checkIfIntersects(new Vector(xs[i], ys[i], zs[i]));
+                String position = String.format("(%f, %f, %f) from %s", xs[i], ys[i], zs[i], rayOrigin);
+                assertEquals(expected, checker.checkIfIntersects(xs[i], ys[i], zs[i]), "Scalar result differed for " + position);
+                assertEquals(expected, batchResults.get(i), "Batch result differed for " + position);
+
+                if(expected) {
+                    visible++;
+                }
+            }
+
+            // Make sure that the positions actually test both outcomes
+            assertTrue(visible > 0 && visible < POSITION_COUNT);
+        }
+    }
+
+    @Test
+    public void testMatchesReferenceFacingZ() {
+        checkMatchesReference(new Vector(0.0, 0.0, 1.0), new Vector(1.5, 2.0, 0.5), 0);
+        checkMatchesReference(new Vector(0.0, 0.0, -1.0), new Vector(1.5, 2.0, 0.5), 1);
+    }
+
+    @Test
+    public void testMatchesReferenceFacingX() {
+        checkMatchesReference(new Vector(1.0, 0.0, 0.0), new Vector(0.5, 2.0, 1.5), 2);
+        checkMatchesReference(new Vector(-1.0, 0.0, 0.0), new Vector(0.5, 2.0, 1.5), 3);
+    }
+
+    @Test
+    public void testMatchesReferenceFacingY() {
+        checkMatchesReference(new Vector(0.0, 1.0, 0.0), new Vector(1.5, 0.5, 1.5), 4);
+        checkMatchesReference(new Vector(0.0, -1.0, 0.0), new Vector(1.5, 0.5, 1.5), 5);
+    }
+}
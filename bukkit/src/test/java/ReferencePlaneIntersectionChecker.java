@@ -0,0 +1,42 @@
+import com.lauriethefish.betterportals.bukkit.math.MathUtil;
+import org.bukkit.util.Vector;
+
+/**
+ * The implementation of {@link com.lauriethefish.betterportals.bukkit.math.PlaneIntersectionChecker} before it was changed to use primitives.
+ * Kept so that the current implementation can be checked against it.
+ */
+public class ReferencePlaneIntersectionChecker {
+    private final Vector planeCenter;
+    private final Vector planeNormal;
+    private final Vector rayOrigin;
+    private final Vector maxDev;
+
+    public ReferencePlaneIntersectionChecker(Vector planeCenter, Vector planeNormal, Vector rayOrigin, Vector maxDev) {
+        this.planeCenter = planeCenter;
+        this.planeNormal = planeNormal;
+        this.rayOrigin = rayOrigin;
+        this.maxDev = maxDev;
+    }
+
+    public boolean checkIfIntersects(Vector pos) {
+        Vector direction = pos.clone().subtract(rayOrigin).normalize();
+
+        double denominator = planeNormal.dot(direction);
+        if(Math.abs(denominator) > MathUtil.EPSILON) {
+            Vector difference = planeCenter.clone().subtract(rayOrigin);
+            double t = difference.dot(planeNormal) / denominator;
+            if(rayOrigin.distance(pos) < t)    {
+                return false;
+            }
+
+            if(t > MathUtil.EPSILON) {
+                Vector portalIntersectPoint = rayOrigin.clone().add(direction.multiply(t));
+                Vector distCenter = portalIntersectPoint.subtract(planeCenter);
+
+                return Math.abs(distCenter.getX()) <= maxDev.getX() && Math.abs(distCenter.getY()) <= maxDev.getY() && Math.abs(distCenter.getZ()) <= Math.abs(maxDev.getZ());
+            }
+        }
+
+        return false;
+    }
+}
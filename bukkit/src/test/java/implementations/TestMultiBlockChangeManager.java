@@ -4,14 +4,10 @@ import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.lauriethefish.betterportals.bukkit.block.IMultiBlockChangeManager;
-import com.lauriethefish.betterportals.bukkit.block.IViewableBlockInfo;
 import lombok.Getter;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class TestMultiBlockChangeManager implements IMultiBlockChangeManager {
     @Getter private final Player player;
     @Getter private boolean wereChangesSent = false;
@@ -22,17 +18,12 @@ public class TestMultiBlockChangeManager implements IMultiBlockChangeManager {
     }
 
     @Override
-    public void addChangeOrigin(Vector position, IViewableBlockInfo newData) {
-
-    }
-
-    @Override
-    public void addChangeDestination(Vector position, IViewableBlockInfo newData) {
+    public void addChange(Vector position, WrappedBlockData newData) {
 
     }
 
     @Override
-    public void addChange(Vector position, WrappedBlockData newData) {
+    public void addChange(int x, int y, int z, WrappedBlockData newData) {
 
     }
 
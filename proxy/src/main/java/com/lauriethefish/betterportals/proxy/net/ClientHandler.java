@@ -5,8 +5,12 @@ import com.google.inject.assistedinject.Assisted;
 import com.lauriethefish.betterportals.proxy.IProxy;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.net.*;
-import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStreamFactory;
+import com.lauriethefish.betterportals.shared.net.codec.MessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
+import com.lauriethefish.betterportals.shared.net.encryption.EncryptedFrameCodec;
 import com.lauriethefish.betterportals.shared.net.encryption.IEncryptedObjectStream;
+import com.lauriethefish.betterportals.shared.net.encryption.StreamMetrics;
+import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
 import com.lauriethefish.betterportals.shared.net.requests.Request;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
@@ -14,78 +18,193 @@ import org.jetbrains.annotations.NotNull;
 import javax.crypto.AEADBadTagException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
-public class ClientHandler implements IClientHandler {
+/**
+ * Reads and writes the connection to one server on an {@link EventLoop}.
+ * Messages can be sent from any thread. They're encrypted on the sending thread, then queued until the loop flushes the connection at the end of its current iteration.
+ * <p>
+ * The queue of messages waiting to be sent is bounded. Reading from the server is paused while too many bytes are waiting, and it is disconnected if the queue fills up entirely.
+ */
+public class ClientHandler implements IClientHandler, EventLoop.Handler, EventLoop.Flushable {
+    private static final int INITIAL_READ_BUFFER_SIZE = 65_536;
+
+    // Reading is paused above the high water mark, and resumed below the low water mark, so that a server can't queue responses faster than it reads them
+    private static final long HIGH_WATER_MARK = 4_194_304;
+    private static final long LOW_WATER_MARK = 1_048_576;
+    // Servers that haven't read this many bytes are assumed to be stuck. Must fit at least one message of the maximum size
+    private static final long MAX_PENDING_BYTES = 2L * IEncryptedObjectStream.MAX_REQUEST_SIZE;
+
+    // Maximum number of queued messages written in one call
+    private static final int MAX_WRITE_BATCH = 64;
+
     private final IPortalServer portalServer;
     private final Logger logger;
-    private final EncryptedObjectStreamFactory encryptedObjectStreamFactory;
     private final IRequestHandler requestHandler;
 
-    private final Socket socket;
-    private IEncryptedObjectStream objectStream;
+    private final SocketChannel channel;
+    private final SocketAddress remoteAddress;
+    private final EventLoop eventLoop;
+    private final EncryptedFrameCodec frameCodec;
+    private SelectionKey key;
 
     @Getter private String serverName = null;
     @Getter private String gameVersion;
 
     private final IProxy proxy;
 
-    private volatile boolean isRunning = true;
+    private final AtomicBoolean isRunning = new AtomicBoolean(true);
+    private volatile boolean disconnectAfterFlush = false;
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+    private boolean isReadPaused = false;
+
+    private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean isFlushRequested = new AtomicBoolean();
+    private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_WRITE_BATCH];
 
     private final AtomicInteger currentRequestId = new AtomicInteger();
     private final ConcurrentMap<Integer, Consumer<Response>> waitingRequests = new ConcurrentHashMap<>();
 
     @Inject
-    public ClientHandler(@Assisted Socket socket, IPortalServer portalServer, Logger logger, EncryptedObjectStreamFactory encryptedObjectStreamFactory, IRequestHandler requestHandler, IProxy proxy) {
-        this.socket = socket;
+    public ClientHandler(@Assisted SocketChannel channel, @Assisted EventLoop eventLoop, IPortalServer portalServer, Logger logger, IRequestHandler requestHandler, IProxy proxy,
+                         CipherManager cipherManager, MessageCodec messageCodec, StreamMetrics streamMetrics) {
+        this.channel = channel;
+        this.remoteAddress = channel.socket().getRemoteSocketAddress();
+        this.eventLoop = eventLoop;
+        this.frameCodec = new EncryptedFrameCodec(cipherManager, messageCodec, streamMetrics);
         this.portalServer = portalServer;
         this.logger = logger;
-        this.encryptedObjectStreamFactory = encryptedObjectStreamFactory;
         this.requestHandler = requestHandler;
         this.proxy = proxy;
+    }
 
-        new Thread(() -> {
-            try {
-                run();
-            }   catch(IOException ex) {
-                if (!isRunning) {
-                    return;
-                } // An IOException gets thrown if another thread shuts down this connection
-
-                if(ex.getCause() instanceof AEADBadTagException) {
-                    printEncryptionFailure();
-                }   else    {
-                    logger.warning("An IO error occurred while connected to %s", socket.getRemoteSocketAddress());
-                    ex.printStackTrace();
-                }
-            }   catch(AEADBadTagException ex) {
+    @Override
+    public void start() {
+        eventLoop.register(channel, SelectionKey.OP_READ, this);
+    }
+
+    private void printEncryptionFailure() {
+        logger.warning("Failed to initialise encryption with %s", remoteAddress);
+        logger.warning("Please make sure that your encryption key is valid!");
+    }
+
+    @Override
+    public void onRegistered(@NotNull SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    public void onReady(@NotNull SelectionKey key) {
+        try {
+            if(key.isReadable()) {
+                read();
+            }
+            if(key.isValid() && key.isWritable()) {
+                flush();
+            }
+        }   catch(IOException ex) {
+            if (!isRunning.get()) {
+                return;
+            } // An IOException gets thrown if another thread shuts down this connection
+
+            if(ex.getCause() instanceof AEADBadTagException) {
                 printEncryptionFailure();
-            }   catch(Exception ex) {
-                logger.warning("An error occurred while connected to %s", socket.getRemoteSocketAddress());
+            }   else    {
+                logger.warning("An IO error occurred while connected to %s", remoteAddress);
                 ex.printStackTrace();
-            }   finally     {
-                disconnect();
             }
-        }).start();
+            disconnect();
+        }   catch(AEADBadTagException ex) {
+            printEncryptionFailure();
+            disconnect();
+        }   catch(Exception ex) {
+            logger.warning("An error occurred while connected to %s", remoteAddress);
+            ex.printStackTrace();
+            disconnect();
+        }
+    }
+
+    @Override
+    public void onClosed() {
+        disconnect();
+    }
+
+    /**
+     * Reads whatever is available from the channel, then handles every complete message that has been read.
+     */
+    private void read() throws IOException, GeneralSecurityException {
+        if(channel.read(readBuffer) == -1) {
+            logger.fine("Connection to %s was closed by the other end", remoteAddress);
+            disconnect();
+            return;
+        }
+
+        readBuffer.flip();
+        int requiredCapacity = 0;
+        while(isRunning.get() && readBuffer.remaining() >= EncryptedFrameCodec.HEADER_LENGTH) {
+            int frameLength = EncryptedFrameCodec.getFrameLength(readBuffer);
+            if(readBuffer.remaining() < frameLength) {
+                requiredCapacity = frameLength;
+                break;
+            }
+
+            handleMessage(frameCodec.decode(readBuffer));
+        }
+
+        if(requiredCapacity > readBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(requiredCapacity);
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }   else if(!readBuffer.hasRemaining() && readBuffer.capacity() > INITIAL_READ_BUFFER_SIZE) {
+            // Large buffers are only kept for one message, so that one large message doesn't keep using memory
+            readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+        }   else    {
+            readBuffer.compact();
+        }
     }
 
-    private void printEncryptionFailure() {
-        logger.warning("Failed to initialise encryption with %s", socket.getRemoteSocketAddress());
-        logger.warning("Please make sure that your encryption key is valid!");
+    private void handleMessage(Object next) throws IOException, GeneralSecurityException {
+        if(serverName == null) {
+            if(!(next instanceof Handshake)) {
+                throw new IOException("Expected a handshake, but received " + (next == null ? "null" : next.getClass().getName()));
+            }
+
+            if(!performHandshake((Handshake) next)) {
+                disconnectAfterFlush();
+            }
+            return;
+        }
+
+        if (next instanceof DisconnectNotice) {
+            logger.fine("Received disconnection notice, shutting down!");
+            disconnect();
+        } else if (next instanceof Response) {
+            processResponse((Response) next);
+        } else if (next instanceof Request) {
+            processRequest((Request) next);
+        }
     }
 
     /**
-     * Reads a {@link Handshake} to get info about the server that is connecting, then sends a {@link HandshakeResponse} to tell the connecting server if the connection was successful.
+     * Uses a {@link Handshake} to get info about the server that is connecting, then sends a {@link HandshakeResponse} to tell the connecting server if the connection was successful.
      * @return If the handshake was successful
      */
-    private boolean performHandshake() throws IOException, ClassNotFoundException, GeneralSecurityException {
-        logger.fine("Reading handshake . . .");
-        Handshake handshake = (Handshake) objectStream.readObject();
+    private boolean performHandshake(Handshake handshake) throws IOException, GeneralSecurityException {
         logger.fine("Handshake plugin version: %s. Handshake game version: %s", handshake.getPluginVersion(), handshake.getGameVersion());
 
         // The plugin version needs to be the same, since the protocol may have changed
@@ -95,7 +214,7 @@ public class ClientHandler implements IClientHandler {
             result = HandshakeResponse.Result.PLUGIN_VERSION_MISMATCH;
         }
 
-        InetSocketAddress statedServerAddress = new InetSocketAddress(socket.getInetAddress(), handshake.getServerPort());
+        InetSocketAddress statedServerAddress = new InetSocketAddress(channel.socket().getInetAddress(), handshake.getServerPort());
 
         // Find the bungeecord server that the connector is connecting from
         String serverName = handshake.getOverrideServerName();
@@ -134,26 +253,6 @@ public class ClientHandler implements IClientHandler {
         }
     }
 
-    private void run() throws IOException, ClassNotFoundException, GeneralSecurityException    {
-        objectStream = encryptedObjectStreamFactory.create(socket.getInputStream(), socket.getOutputStream());
-
-        if(!performHandshake()) {
-            return;
-        }
-
-        while(true) {
-            Object next = objectStream.readObject();
-            if (next instanceof DisconnectNotice) {
-                logger.fine("Received disconnection notice, shutting down!");
-                return;
-            } else if (next instanceof Response) {
-                processResponse((Response) next);
-            } else if (next instanceof Request) {
-                processRequest((Request) next);
-            }
-        }
-    }
-
     /**
      * Sends <code>request</code> to the request handler and then sends the response with the correct ID.
      * @param request The request to process
@@ -161,6 +260,10 @@ public class ClientHandler implements IClientHandler {
     private void processRequest(Request request) {
         // We don't just send the response directly, since it may take some time to process the request, and we need to be ready for more requests.
         int requestId = request.getId();
+        if(request instanceof RelayRequest) {
+            ((RelayRequest) request).setSource(serverName);
+        }
+
         requestHandler.handleRequest(request, (response) -> {
             response.setId(requestId); // Assign the correct request ID so that the client knows which request this response is for
             try {
@@ -188,42 +291,158 @@ public class ClientHandler implements IClientHandler {
 
     @Override
     public void shutDown() {
-        if(!isRunning) {return;}
+        if(!isRunning.get()) {return;}
 
+        // Set first, so that the loop can't flush the notice before knowing to disconnect afterwards
+        disconnectAfterFlush = true;
         try {
             send(new DisconnectNotice());
         }   catch(IOException | GeneralSecurityException ex)   {
-            logger.warning("Error occurred while sending disconnection notice to %s", socket.getRemoteSocketAddress());
+            logger.warning("Error occurred while sending disconnection notice to %s", remoteAddress);
+            disconnect();
         }
-        disconnect();
+    }
+
+    private void disconnectAfterFlush() {
+        disconnectAfterFlush = true;
+        requestFlush();
     }
 
     /**
-     * Closes the socket and unregisters this handler in this {@link IPortalServer}
+     * Closes the channel and unregisters this handler in this {@link IPortalServer}
      * Any waiting requests will receive a response with an error.
      */
     private void disconnect() {
-        if(!isRunning) {return;}
-        isRunning = false;
+        // Not synchronized, since failing the waiting requests may disconnect other handlers, which could be disconnecting this one at the same time
+        if(!isRunning.compareAndSet(true, false)) {return;}
 
         portalServer.onServerDisconnect(this);
         try {
-            socket.close();
+            channel.close();
         }   catch (IOException ex) {
-            logger.warning("Error occurred while disconnecting from %s", socket.getRemoteSocketAddress());
+            logger.warning("Error occurred while disconnecting from %s", remoteAddress);
             ex.printStackTrace();
         }
+        pendingWrites.clear();
 
         // Send an error to all waiting requests
         Response disconnectResponse = new Response();
         disconnectResponse.setError(new RequestException("Client server connection disconnected while sending the request"));
-        for(Consumer<Response> responseConsumer : waitingRequests.values()) {
-            responseConsumer.accept(disconnectResponse);
+        for(Integer requestId : waitingRequests.keySet()) {
+            Consumer<Response> responseConsumer = waitingRequests.remove(requestId);
+            if(responseConsumer != null) {
+                responseConsumer.accept(disconnectResponse);
+            }
+        }
+    }
+
+    /**
+     * Encrypts <code>obj</code> on the current thread, then queues it to be written by the event loop.
+     * @throws IOException If the connection is closed, or too many bytes are already waiting to be sent
+     */
+    private void send(Object obj) throws IOException, GeneralSecurityException {
+        if(!isRunning.get()) {
+            throw new IOException("Attempted to send a message after the connection was closed");
+        }
+
+        ByteBuffer frame;
+        // The frame codec reuses its buffer, so the frame is copied before the next message can be encoded
+        synchronized(frameCodec) {
+            ByteBuffer encoded = frameCodec.encode(obj);
+            frame = ByteBuffer.allocate(encoded.remaining());
+            frame.put(encoded);
+        }
+        frame.flip();
+
+        long pending = pendingBytes.addAndGet(frame.remaining());
+        if(pending > MAX_PENDING_BYTES) {
+            pendingBytes.addAndGet(-frame.remaining());
+            throw new IOException(String.format("%s has %d bytes waiting to be sent, and isn't reading them", remoteAddress, pending));
+        }
+
+        pendingWrites.add(frame);
+        requestFlush();
+    }
+
+    private void requestFlush() {
+        if(isFlushRequested.compareAndSet(false, true)) {
+            eventLoop.requestFlush(this);
+        }
+    }
+
+    /**
+     * Writes as many queued messages as the channel will accept without blocking.
+     * Called on the event loop thread.
+     */
+    @Override
+    public void flush() {
+        isFlushRequested.set(false);
+        if(!isRunning.get() || key == null) {return;}
+
+        try {
+            writePending();
+        }   catch(IOException ex) {
+            if(!isRunning.get()) {return;}
+
+            logger.warning("An IO error occurred while sending to %s", remoteAddress);
+            ex.printStackTrace();
+            disconnect();
+            return;
+        }
+
+        if(pendingWrites.isEmpty() && disconnectAfterFlush) {
+            disconnect();
+            return;
         }
+        updateInterestOps();
     }
 
-    private synchronized void send(Object obj) throws IOException, GeneralSecurityException {
-        objectStream.writeObject(obj);
+    private void writePending() throws IOException {
+        while(true) {
+            int count = 0;
+            for(ByteBuffer frame : pendingWrites) {
+                writeBatch[count] = frame;
+                count++;
+                if(count == MAX_WRITE_BATCH) {break;}
+            }
+            if(count == 0) {return;}
+
+            // Messages are only removed from the queue once fully written, since this is the only thread that removes them
+            pendingBytes.addAndGet(-channel.write(writeBatch, 0, count));
+            boolean isChannelFull = false;
+            for(int i = 0; i < count; i++) {
+                if(writeBatch[i].hasRemaining()) {
+                    isChannelFull = true;
+                    break;
+                }
+                pendingWrites.poll();
+            }
+            Arrays.fill(writeBatch, 0, count, null);
+
+            if(isChannelFull) {return;}
+        }
+    }
+
+    private void updateInterestOps() {
+        long pending = pendingBytes.get();
+        if(!isReadPaused && pending > HIGH_WATER_MARK) {
+            logger.fine("Pausing reading from %s, since it has %d bytes waiting to be sent", remoteAddress, pending);
+            isReadPaused = true;
+        }   else if(isReadPaused && pending < LOW_WATER_MARK) {
+            logger.fine("Resuming reading from %s", remoteAddress);
+            isReadPaused = false;
+        }
+
+        // The channel is only selected for writing while it's full, otherwise messages are written when flushed
+        int ops = (isReadPaused ? 0 : SelectionKey.OP_READ) | (pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+        if(key.isValid() && key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    @Override
+    public boolean isWritable() {
+        return isRunning.get() && pendingBytes.get() < HIGH_WATER_MARK;
     }
 
     private void verifyCanSendRequests() {
@@ -246,6 +465,13 @@ public class ClientHandler implements IClientHandler {
             logger.warning("Client server connection disconnected while sending the request");
 
             disconnect();
+            // The request may have been added after the waiting requests were sent an error, if this was already disconnected
+            Consumer<Response> waiter = waitingRequests.remove(requestId);
+            if(waiter != null) {
+                Response response = new Response();
+                response.setError(new RequestException("Client server connection disconnected while sending the request"));
+                waiter.accept(response);
+            }
         }
     }
 }
@@ -0,0 +1,261 @@
+package com.lauriethefish.betterportals.proxy.net;
+
+import com.lauriethefish.betterportals.shared.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a selector on its own thread, which reads and writes every channel registered with it.
+ * This means that one thread handles many connections, instead of each connection blocking a thread of its own.
+ * <p>
+ * Writes are batched, so each connection is flushed at most once per iteration of the loop, after everything read in that iteration has been handled.
+ */
+public class EventLoop {
+    // Maximum time to wait for pending writes, e.g. disconnection notices, when shutting down
+    private static final long SHUTDOWN_TIMEOUT_MS = 1000;
+    // Maximum time to wait for the loop to finish when shutting down. This is longer than the time spent waiting for writes, so only times out if closing the connections hangs
+    private static final long JOIN_TIMEOUT_MS = SHUTDOWN_TIMEOUT_MS * 2;
+
+    private final Logger logger;
+    private final Selector selector;
+    private final Thread thread;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<Flushable> toFlush = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean isRunning = true;
+
+    /**
+     * Called on the event loop thread for each channel registered with the loop.
+     */
+    public interface Handler {
+        /**
+         * Called once the channel has been registered.
+         * @param key The key of the channel
+         */
+        default void onRegistered(@NotNull SelectionKey key) {}
+
+        /**
+         * Called when the channel is ready for any of the operations in its interest set.
+         * @param key The key of the channel
+         * @throws IOException If reading or writing the channel failed
+         */
+        void onReady(@NotNull SelectionKey key) throws IOException;
+
+        /**
+         * Called when the loop shuts down, before the channel is closed.
+         */
+        default void onClosed() {}
+    }
+
+    /**
+     * Something that has writes waiting to be sent at the end of the current iteration of the loop.
+     */
+    public interface Flushable {
+        void flush();
+    }
+
+    public EventLoop(@NotNull Logger logger, @NotNull String name) throws IOException {
+        this.logger = logger;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * @return Whether the current thread is the thread of this loop
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs <code>task</code> on the loop thread, at the start of the next iteration.
+     * @param task The task to run
+     */
+    public void execute(@NotNull Runnable task) {
+        tasks.add(task);
+        wakeUp();
+    }
+
+    /**
+     * Registers <code>channel</code> with this loop. The channel must be in non-blocking mode.
+     * @param channel The channel to register
+     * @param ops The operations to select the channel for
+     * @param handler Called once the channel is registered, and whenever the channel is ready
+     */
+    public void register(@NotNull SelectableChannel channel, int ops, @NotNull Handler handler) {
+        execute(() -> {
+            try {
+                handler.onRegistered(channel.register(selector, ops, handler));
+            }   catch(ClosedChannelException ex) {
+                handler.onClosed();
+            }
+        });
+    }
+
+    /**
+     * Flushes <code>flushable</code> at the end of the current iteration of the loop, or the next one if the loop is waiting.
+     * This should only be called once until the flush happens, otherwise it will be flushed more than once.
+     * @param flushable The connection to flush
+     */
+    public void requestFlush(@NotNull Flushable flushable) {
+        toFlush.add(flushable);
+        // Flushes requested on the loop thread will happen before it next waits, so it doesn't need to be woken
+        if(!inEventLoop()) {
+            wakeUp();
+        }
+    }
+
+    private void wakeUp() {
+        selector.wakeup();
+    }
+
+    private void run() {
+        logger.fine("Hello from event loop thread %s", thread.getName());
+        while(isRunning) {
+            try {
+                selector.select();
+            }   catch(IOException ex) {
+                logger.warning("An IO error occurred while waiting for connections to be ready");
+                ex.printStackTrace();
+                break;
+            }
+
+            runTasks();
+            handleSelectedKeys();
+            flushPending();
+        }
+
+        closeAll();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            }   catch(RuntimeException ex) {
+                logger.warning("An error occurred while running a task on the event loop");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void handleSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while(iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if(!key.isValid()) {continue;}
+
+            try {
+                ((Handler) key.attachment()).onReady(key);
+            }   catch(IOException | RuntimeException ex) {
+                logger.warning("An error occurred while handling a ready connection");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void flushPending() {
+        Flushable flushable;
+        while((flushable = toFlush.poll()) != null) {
+            flushable.flush();
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        flushPending();
+        drainWrites();
+
+        for(SelectionKey key : selector.keys()) {
+            ((Handler) key.attachment()).onClosed();
+            try {
+                key.channel().close();
+            }   catch(IOException ex) {
+                logger.warning("An IO error occurred while closing a connection");
+                ex.printStackTrace();
+            }
+        }
+
+        try {
+            selector.close();
+        }   catch(IOException ex) {
+            logger.warning("An IO error occurred while closing the event loop");
+            ex.printStackTrace();
+        }
+        logger.fine("Event loop thread %s finished", thread.getName());
+    }
+
+    // Keeps writing to channels that were too full to take everything, until all pending writes have been sent or the timeout expires
+    private void drainWrites() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_TIMEOUT_MS);
+        while(hasPendingWrites()) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if(remainingMs <= 0) {
+                logger.warning("Timed out waiting for writes to be sent while shutting down event loop %s", thread.getName());
+                return;
+            }
+
+            try {
+                selector.select(remainingMs);
+            }   catch(IOException ex) {
+                logger.warning("An IO error occurred while waiting for writes to be sent");
+                ex.printStackTrace();
+                return;
+            }
+
+            runTasks();
+            handleSelectedKeys();
+            flushPending();
+        }
+    }
+
+    // Channels are only selected for writing while they have writes that didn't fit
+    private boolean hasPendingWrites() {
+        if(!tasks.isEmpty() || !toFlush.isEmpty()) {return true;}
+
+        for(SelectionKey key : selector.keys()) {
+            if(key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the loop without waiting for it to finish.
+     * Before closing every channel registered with it, the loop keeps writing until all pending writes have been sent, for up to {@link EventLoop#SHUTDOWN_TIMEOUT_MS}.
+     */
+    public void stop() {
+        execute(() -> isRunning = false);
+    }
+
+    /**
+     * Stops the loop, as in {@link EventLoop#stop()}, then waits for it to finish, unless called from the loop thread.
+     */
+    public void shutDown() {
+        stop();
+        if(inEventLoop()) {return;}
+
+        try {
+            thread.join(JOIN_TIMEOUT_MS);
+        }   catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -5,13 +5,19 @@ import com.lauriethefish.betterportals.shared.net.requests.Request;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.function.Consumer;
 
 /**
  * Represents each sub-server connected to the proxy that is registered with the plugin
  */
 public interface IClientHandler {
+    /**
+     * Starts reading from the server on the handler's event loop.
+     * This must only be called once the handler is in the portal server's connected servers, otherwise the server's handshake may be handled before it can register.
+     */
+    void start();
+
     /**
      * @return The game version of the connected server, or null if the server hasn't completed the handshake.
      */
@@ -35,7 +41,12 @@ public interface IClientHandler {
      */
     void sendRequest(@NotNull Request request, @NotNull Consumer<Response> onFinish);
 
+    /**
+     * @return Whether this server is reading what is sent to it quickly enough to be sent more requests. If not, new requests should be rejected instead of queued.
+     */
+    boolean isWritable();
+
     interface Factory {
-        IClientHandler create(Socket socket);
+        IClientHandler create(SocketChannel channel, EventLoop eventLoop);
     }
 }
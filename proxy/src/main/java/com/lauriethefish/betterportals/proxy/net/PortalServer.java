@@ -9,23 +9,32 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashSet;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Accepts connections from servers, and spreads them across a few {@link EventLoop}s, instead of using a thread for each connection.
+ */
 @Singleton
 public class PortalServer implements IPortalServer {
+    // Messages are decrypted on the event loops, so a few are used to let different servers be handled in parallel
+    private static final int EVENT_LOOP_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
     private final Logger logger;
     private final IProxyConfig config;
     private final IClientHandler.Factory serverHandlerFactory;
 
-    private final Set<IClientHandler> connectedServers = new HashSet<>();
+    private final Set<IClientHandler> connectedServers = ConcurrentHashMap.newKeySet();
     private final Map<String, IClientHandler> registeredServers = new ConcurrentHashMap<>();
 
-    private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] eventLoops;
+    private int nextEventLoop = 0;
     private volatile boolean isRunning = false;
 
     @Inject
@@ -44,37 +53,41 @@ public class PortalServer implements IPortalServer {
         isRunning = true;
 
         logger.info("Starting up portal server");
-        new Thread(() -> {
-            logger.fine("Hello from server thread");
-            try {
-                runServer();
-            }   catch(IOException ex)   {
-                logger.fine("Caught IO Error on server thread");
-                // An IOException is thrown if another thread shuts down the connection, e.g. on plugin unload
-                if(!isRunning) {return;}
-
-                logger.warning("An IO error occurred while running the portal server");
-                ex.printStackTrace();
-            }   catch(Exception ex) {
-                logger.warning("An error occurred while running the portal server");
-                ex.printStackTrace();
-            }   finally     {
-                shutDown();
+        try {
+            eventLoops = new EventLoop[EVENT_LOOP_COUNT];
+            for(int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop(logger, "BetterPortals event loop " + i);
+                eventLoops[i].start();
             }
-        }).start();
-    }
 
-    private void runServer() throws IOException {
-        serverSocket = new ServerSocket();
-        serverSocket.bind(config.getBindAddress());
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(config.getBindAddress());
 
-        while(isRunning) {
+            // Accepting is cheap, so it happens on the first loop alongside its connections
             logger.fine("Awaiting new connections");
-            Socket next = serverSocket.accept();
-            logger.fine("Received connection from %s", next.getRemoteSocketAddress());
+            eventLoops[0].register(serverChannel, SelectionKey.OP_ACCEPT, key -> acceptConnections());
+        }   catch(IOException ex) {
+            logger.warning("An IO error occurred while starting the portal server");
+            ex.printStackTrace();
+            shutDown();
+        }
+    }
+
+    private void acceptConnections() throws IOException {
+        SocketChannel next;
+        while((next = serverChannel.accept()) != null) {
+            logger.fine("Received connection from %s", next.getRemoteAddress());
+            next.configureBlocking(false);
+            // Messages are already batched into one write per loop iteration, so there's no need to delay small writes
+            next.setOption(StandardSocketOptions.TCP_NODELAY, true);
 
-            IClientHandler handler = serverHandlerFactory.create(next);
+            EventLoop eventLoop = eventLoops[nextEventLoop];
+            nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+
+            IClientHandler handler = serverHandlerFactory.create(next, eventLoop);
             connectedServers.add(handler);
+            handler.start();
         }
     }
 
@@ -85,15 +98,29 @@ public class PortalServer implements IPortalServer {
         logger.info("Shutting down portal server");
         isRunning = false;
         try {
-            // The socket close error will be caught since we set isRunning to false.
-            serverSocket.close();
-            for(IClientHandler serverHandler : registeredServers.values()) {
-                serverHandler.shutDown();
+            if(serverChannel != null) {
+                serverChannel.close();
             }
         }   catch(IOException ex) {
             logger.warning("An IO error occurred while shutting down the portal server");
             ex.printStackTrace();
         }
+
+        for(IClientHandler serverHandler : registeredServers.values()) {
+            serverHandler.shutDown();
+        }
+
+        // Each loop sends the disconnection notices, then closes any connections that are left. They're all stopped first, so that they do this at the same time
+        for(EventLoop eventLoop : eventLoops) {
+            if(eventLoop != null) {
+                eventLoop.stop();
+            }
+        }
+        for(EventLoop eventLoop : eventLoops) {
+            if(eventLoop != null) {
+                eventLoop.shutDown();
+            }
+        }
     }
 
     @Override
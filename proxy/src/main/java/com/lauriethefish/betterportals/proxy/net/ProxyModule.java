@@ -5,9 +5,6 @@ import com.google.inject.assistedinject.FactoryModuleBuilder;
 import com.lauriethefish.betterportals.proxy.IProxyConfig;
 import com.lauriethefish.betterportals.proxy.IProxy;
 import com.lauriethefish.betterportals.shared.net.IRequestHandler;
-import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStream;
-import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStreamFactory;
-import com.lauriethefish.betterportals.shared.net.encryption.IEncryptedObjectStream;
 
 /**
  * Configures the BetterPortals proxy server for viewing cross server portals
@@ -22,9 +19,5 @@ public class ProxyModule extends AbstractModule {
                 .implement(IClientHandler.class, ClientHandler.class)
                 .build(IClientHandler.Factory.class)
         );
-        install(new FactoryModuleBuilder()
-                .implement(IEncryptedObjectStream.class, EncryptedObjectStream.class)
-                .build(EncryptedObjectStreamFactory.class)
-        );
     }
 }
@@ -68,6 +68,10 @@ public class ProxyRequestHandler implements IRequestHandler {
 
     private void handleRelayRequest(RelayRequest request, Consumer<Response> onFinish) throws RequestException  {
         IClientHandler clientHandler = checkExists(request.getDestination());
+        // Rejecting requests tells the sender to back off, instead of queueing more for a server that isn't keeping up
+        if(!clientHandler.isWritable()) {
+            throw new RequestException(String.format("Server %s is not reading requests quickly enough", request.getDestination()));
+        }
         clientHandler.sendRequest(request, onFinish);
     }
 
@@ -0,0 +1,12 @@
+package com.lauriethefish.betterportals.shared.net;
+
+/**
+ * Stands in for the cause of a {@link RequestException} that occurred on another server or the proxy, since only its description is sent.
+ */
+public class RemoteException extends Exception {
+    private static final long serialVersionUID = 1;
+
+    public RemoteException(String description) {
+        super(description);
+    }
+}
@@ -18,7 +18,10 @@ public class Response implements Serializable {
     @Getter private int id;
 
     private Object result;
-    private RequestException error;
+    /**
+     * The error that occurred while processing the request, or null if there wasn't one.
+     */
+    @Getter private RequestException error;
 
     /**
      * Checks for errors, then returns the result of the request, if there is one.
@@ -40,4 +43,12 @@ public class Response implements Serializable {
             throw error;
         }
     }
+
+    /**
+     * Used when encoding the response, since the error is sent separately.
+     * @return The result of the request, even if there was an error
+     */
+    public Object getResultUnchecked() {
+        return result;
+    }
 }
@@ -0,0 +1,236 @@
+package com.lauriethefish.betterportals.shared.net.codec;
+
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.shared.net.requests.Request;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Converts messages sent between the proxy and servers to and from bytes, without using Java serialization.
+ * Each message type is registered with an ID and a {@link MessageSerializer}, which writes its fields directly into a pooled {@link ByteBuffer}.
+ * <p>
+ * The proxy only registers the messages in {@link SharedMessages}, while servers also register their own, so requests relayed between servers are sent as already encoded frames that the proxy doesn't need to read.
+ * Types without a serializer are still sent with Java serialization, but everything sent regularly should be registered.
+ */
+@Singleton
+public class MessageCodec {
+    /**
+     * Written at the start of each frame, and should be incremented whenever the format of any message changes.
+     */
+    public static final int PROTOCOL_VERSION = 1;
+
+    private static final int NULL_ID = 0;
+    private static final int SERIALIZED_ID = 1;
+    private static final int BYTES_ID = 2;
+
+    /**
+     * Message IDs below this are reserved for messages registered in the shared module.
+     */
+    public static final int FIRST_SERVER_ID = 32;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    private final Map<Class<?>, Registration<?>> registrationsByClass = new ConcurrentHashMap<>();
+    private final Map<Integer, Registration<?>> registrationsById = new ConcurrentHashMap<>();
+    private final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
+    public MessageCodec() {
+        SharedMessages.register(this);
+    }
+
+    /**
+     * Registers a message type so that it can be written and read.
+     * @param id The ID to send the message with. Must be the same on every server and the proxy
+     * @param type The type of the message
+     * @param serializer Writes and reads the fields of the message
+     * @param <T> The type of the message
+     * @throws IllegalArgumentException If another type is already registered with <code>id</code>
+     */
+    public <T> void register(int id, @NotNull Class<T> type, @NotNull MessageSerializer<T> serializer) {
+        if(id <= BYTES_ID) {
+            throw new IllegalArgumentException("Message ID " + id + " is reserved");
+        }
+
+        Registration<T> registration = new Registration<>(id, type, serializer);
+        Registration<?> existing = registrationsById.putIfAbsent(id, registration);
+        if(existing != null && existing.type != type) {
+            throw new IllegalArgumentException(String.format("Message ID %d is already registered to %s", id, existing.type.getName()));
+        }
+
+        registrationsById.put(id, registration);
+        registrationsByClass.put(type, registration);
+    }
+
+    /**
+     * Registers a request type, writing the ID of the request before the fields written by <code>serializer</code>.
+     * @see MessageCodec#register(int, Class, MessageSerializer)
+     */
+    public <T extends Request> void registerRequest(int id, @NotNull Class<T> type, @NotNull MessageSerializer<T> serializer) {
+        register(id, type, new MessageSerializer<T>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull T message) {
+                out.writeInt(message.getId());
+                serializer.write(out, message);
+            }
+
+            @Override
+            public @NotNull T read(@NotNull MessageReader in) throws IOException {
+                int requestId = in.readInt();
+                T message = serializer.read(in);
+                message.setId(requestId);
+                return message;
+            }
+        });
+    }
+
+    /**
+     * Encodes a message into a buffer from the pool.
+     * The buffer should be given back with {@link MessageCodec#release(ByteBuffer)} once it has been sent.
+     * @param message The message to encode
+     * @return A buffer ready to be read, containing the encoded message
+     */
+    public @NotNull ByteBuffer encode(@Nullable Object message) {
+        ByteBuffer buffer = bufferPool.poll();
+        if(buffer == null) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+
+        MessageWriter writer = new MessageWriter(this, buffer);
+        writer.writeByte(PROTOCOL_VERSION);
+        writer.writeObject(message);
+
+        ByteBuffer result = writer.getBuffer();
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Encodes a message into a new array, e.g. for a request that will be relayed without being decoded.
+     * @param message The message to encode
+     * @return The encoded message
+     */
+    public @NotNull byte[] encodeToBytes(@Nullable Object message) {
+        ByteBuffer buffer = encode(message);
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        release(buffer);
+        return result;
+    }
+
+    /**
+     * Gives a buffer back to the pool, once nothing will read or write it again.
+     * @param buffer The buffer to give back
+     */
+    public void release(@NotNull ByteBuffer buffer) {
+        // Buffers that have grown are left to the garbage collector, so that one large message doesn't keep using memory
+        if(buffer.capacity() == BUFFER_SIZE && bufferPool.size() < MAX_POOLED_BUFFERS) {
+            buffer.clear();
+            bufferPool.add(buffer);
+        }
+    }
+
+    /**
+     * Decodes a message written by {@link MessageCodec#encode(Object)}.
+     * @param frame The encoded message
+     * @return The decoded message
+     * @throws IOException If the message was malformed, or its type isn't registered
+     */
+    public @Nullable Object decode(@NotNull ByteBuffer frame) throws IOException {
+        MessageReader reader = new MessageReader(this, frame);
+        int version = reader.readByte();
+        if(version != PROTOCOL_VERSION) {
+            throw new IOException(String.format("Received message with protocol version %d, expected %d", version, PROTOCOL_VERSION));
+        }
+
+        return reader.readObject();
+    }
+
+    /**
+     * @see MessageCodec#decode(ByteBuffer)
+     */
+    public @Nullable Object decode(@NotNull byte[] frame) throws IOException {
+        return decode(ByteBuffer.wrap(frame));
+    }
+
+    @SuppressWarnings("unchecked")
+    void writeValue(MessageWriter writer, @Nullable Object value) {
+        if(value == null) {
+            writer.writeVarInt(NULL_ID);
+            return;
+        }
+
+        if(value instanceof byte[]) {
+            writer.writeVarInt(BYTES_ID);
+            writer.writeBytes((byte[]) value);
+            return;
+        }
+
+        Registration<Object> registration = (Registration<Object>) registrationsByClass.get(value.getClass());
+        if(registration != null) {
+            writer.writeVarInt(registration.id);
+            registration.serializer.write(writer, value);
+            return;
+        }
+
+        writer.writeVarInt(SERIALIZED_ID);
+        writer.writeBytes(serialize(value));
+    }
+
+    @Nullable Object readValue(MessageReader reader) throws IOException {
+        int id = reader.readVarInt();
+        switch(id) {
+            case NULL_ID:
+                return null;
+            case BYTES_ID:
+                return reader.readBytes();
+            case SERIALIZED_ID:
+                return deserialize(reader.readBytes());
+        }
+
+        Registration<?> registration = registrationsById.get(id);
+        if(registration == null) {
+            throw new IOException("Received message with unknown ID " + id);
+        }
+        return registration.serializer.read(reader);
+    }
+
+    private byte[] serialize(Object value) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            new ObjectOutputStream(outputStream).writeObject(value);
+        }   catch(IOException ex) {
+            throw new IllegalArgumentException("Message of type " + value.getClass().getName() + " has no serializer and is not serializable", ex);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private Object deserialize(byte[] data) throws IOException {
+        if(data == null) {return null;}
+
+        try {
+            return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+        }   catch(ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static class Registration<T> {
+        private final int id;
+        private final Class<T> type;
+        private final MessageSerializer<T> serializer;
+
+        private Registration(int id, Class<T> type, MessageSerializer<T> serializer) {
+            this.id = id;
+            this.type = type;
+            this.serializer = serializer;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.lauriethefish.betterportals.shared.net.codec;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Reads the fields of messages written by a {@link MessageWriter}.
+ * Lengths are checked against the remaining bytes, so a malformed message can't make us allocate more than was received.
+ */
+public class MessageReader {
+    private final MessageCodec codec;
+    private final ByteBuffer buffer;
+
+    MessageReader(MessageCodec codec, ByteBuffer buffer) {
+        this.codec = codec;
+        this.buffer = buffer;
+    }
+
+    private void checkRemaining(int length) throws IOException {
+        if(buffer.remaining() < length) {
+            throw new IOException(String.format("Message was too short, needed %d more bytes but only %d remained", length, buffer.remaining()));
+        }
+    }
+
+    public int readByte() throws IOException {
+        checkRemaining(1);
+        return buffer.get();
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readInt() throws IOException {
+        checkRemaining(4);
+        return buffer.getInt();
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            int next = readByte();
+            value |= (next & 0x7F) << shift;
+            if((next & 0x80) == 0) {
+                if(value < 0) {break;}
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    public long readLong() throws IOException {
+        checkRemaining(8);
+        return buffer.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        checkRemaining(4);
+        return buffer.getFloat();
+    }
+
+    public double readDouble() throws IOException {
+        checkRemaining(8);
+        return buffer.getDouble();
+    }
+
+    public @Nullable String readString() throws IOException {
+        int length = readVarInt() - 1;
+        if(length == -1) {return null;}
+
+        checkRemaining(length);
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    public @Nullable UUID readUuid() throws IOException {
+        if(!readBoolean()) {return null;}
+        return new UUID(readLong(), readLong());
+    }
+
+    public @Nullable byte[] readBytes() throws IOException {
+        int length = readVarInt() - 1;
+        if(length == -1) {return null;}
+
+        checkRemaining(length);
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return value;
+    }
+
+    public @NotNull long[] readLongs() throws IOException {
+        int length = readVarInt();
+        if(length > buffer.remaining() / 8) {
+            throw new IOException(String.format("Message was too short for an array of %d longs", length));
+        }
+
+        long[] value = new long[length];
+        buffer.asLongBuffer().get(value);
+        buffer.position(buffer.position() + length * 8);
+        return value;
+    }
+
+    /**
+     * Reads an object written by {@link MessageWriter#writeObject(Object)}.
+     * @return The read object, which may be null
+     * @throws IOException If the message ID isn't registered, or the object was malformed
+     */
+    public @Nullable Object readObject() throws IOException {
+        return codec.readValue(this);
+    }
+}
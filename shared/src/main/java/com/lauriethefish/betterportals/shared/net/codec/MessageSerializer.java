@@ -0,0 +1,27 @@
+package com.lauriethefish.betterportals.shared.net.codec;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Writes and reads one type of message registered with a {@link MessageCodec}.
+ * Fields must be read in the same order that they were written.
+ * @param <T> The type of message
+ */
+public interface MessageSerializer<T> {
+    /**
+     * Writes the fields of <code>message</code>.
+     * @param out The writer to write the fields to
+     * @param message The message to write
+     */
+    void write(@NotNull MessageWriter out, @NotNull T message);
+
+    /**
+     * Reads a message written by {@link MessageSerializer#write(MessageWriter, Object)}.
+     * @param in The reader to read the fields from
+     * @return The read message
+     * @throws IOException If the message was malformed
+     */
+    @NotNull T read(@NotNull MessageReader in) throws IOException;
+}
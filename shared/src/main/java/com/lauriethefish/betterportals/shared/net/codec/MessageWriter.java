@@ -0,0 +1,131 @@
+package com.lauriethefish.betterportals.shared.net.codec;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Writes the fields of messages into a buffer taken from the {@link MessageCodec}'s pool, growing it if necessary.
+ */
+public class MessageWriter {
+    private final MessageCodec codec;
+    private ByteBuffer buffer;
+
+    MessageWriter(MessageCodec codec, ByteBuffer buffer) {
+        this.codec = codec;
+        this.buffer = buffer;
+    }
+
+    private void ensureRemaining(int length) {
+        if(buffer.remaining() >= length) {return;}
+
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+        buffer.flip();
+        grown.put(buffer);
+        codec.release(buffer);
+        buffer = grown;
+    }
+
+    /**
+     * @return The buffer containing everything written so far. This may change as more is written
+     */
+    @NotNull ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public void writeByte(int value) {
+        ensureRemaining(1);
+        buffer.put((byte) value);
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    public void writeInt(int value) {
+        ensureRemaining(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes a non-negative integer in as few bytes as possible, 7 bits per byte.
+     * @param value The value to write, which must not be negative
+     */
+    public void writeVarInt(int value) {
+        if(value < 0) {
+            throw new IllegalArgumentException("Variable length integers cannot be negative");
+        }
+
+        ensureRemaining(5);
+        while(value >= 0x80) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public void writeLong(long value) {
+        ensureRemaining(8);
+        buffer.putLong(value);
+    }
+
+    public void writeFloat(float value) {
+        ensureRemaining(4);
+        buffer.putFloat(value);
+    }
+
+    public void writeDouble(double value) {
+        ensureRemaining(8);
+        buffer.putDouble(value);
+    }
+
+    public void writeString(@Nullable String value) {
+        if(value == null) {
+            writeVarInt(0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length + 1);
+        ensureRemaining(bytes.length);
+        buffer.put(bytes);
+    }
+
+    public void writeUuid(@Nullable UUID value) {
+        writeBoolean(value != null);
+        if(value != null) {
+            writeLong(value.getMostSignificantBits());
+            writeLong(value.getLeastSignificantBits());
+        }
+    }
+
+    public void writeBytes(@Nullable byte[] value) {
+        if(value == null) {
+            writeVarInt(0);
+            return;
+        }
+
+        writeVarInt(value.length + 1);
+        ensureRemaining(value.length);
+        buffer.put(value);
+    }
+
+    public void writeLongs(@NotNull long[] value) {
+        writeVarInt(value.length);
+        ensureRemaining(value.length * 8);
+        for(long element : value) {
+            buffer.putLong(element);
+        }
+    }
+
+    /**
+     * Writes an object of any type registered with the codec, or null, prefixed with its message ID.
+     * @param value The object to write
+     */
+    public void writeObject(@Nullable Object value) {
+        codec.writeValue(this, value);
+    }
+}
@@ -0,0 +1,182 @@
+package com.lauriethefish.betterportals.shared.net.codec;
+
+import com.lauriethefish.betterportals.shared.net.*;
+import com.lauriethefish.betterportals.shared.net.requests.PreviousServerPutRequest;
+import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
+import com.lauriethefish.betterportals.shared.net.requests.TeleportRequest;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Registers the messages that the proxy and servers both use.
+ */
+class SharedMessages {
+    private static final int HANDSHAKE = 3;
+    private static final int HANDSHAKE_RESPONSE = 4;
+    private static final int DISCONNECT_NOTICE = 5;
+    private static final int RESPONSE = 6;
+    private static final int RELAY_REQUEST = 7;
+    private static final int TELEPORT_REQUEST = 8;
+    private static final int PREVIOUS_SERVER_PUT_REQUEST = 9;
+
+    static void register(MessageCodec codec) {
+        codec.register(HANDSHAKE, Handshake.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull Handshake message) {
+                out.writeString(message.getPluginVersion());
+                out.writeString(message.getGameVersion());
+                out.writeInt(message.getServerPort());
+                out.writeString(message.getOverrideServerName());
+            }
+
+            @Override
+            public @NotNull Handshake read(@NotNull MessageReader in) throws IOException {
+                Handshake message = new Handshake();
+                message.setPluginVersion(in.readString());
+                message.setGameVersion(in.readString());
+                message.setServerPort(in.readInt());
+                message.setOverrideServerName(in.readString());
+                return message;
+            }
+        });
+
+        codec.register(HANDSHAKE_RESPONSE, HandshakeResponse.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull HandshakeResponse message) {
+                out.writeByte(message.getStatus().ordinal());
+            }
+
+            @Override
+            public @NotNull HandshakeResponse read(@NotNull MessageReader in) throws IOException {
+                HandshakeResponse.Result[] statuses = HandshakeResponse.Result.values();
+                int status = in.readByte();
+                if(status < 0 || status >= statuses.length) {
+                    throw new IOException("Unknown handshake status " + status);
+                }
+
+                HandshakeResponse message = new HandshakeResponse();
+                message.setStatus(statuses[status]);
+                return message;
+            }
+        });
+
+        codec.register(DISCONNECT_NOTICE, DisconnectNotice.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull DisconnectNotice message) {}
+
+            @Override
+            public @NotNull DisconnectNotice read(@NotNull MessageReader in) {
+                return new DisconnectNotice();
+            }
+        });
+
+        codec.register(RESPONSE, Response.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull Response message) {
+                out.writeInt(message.getId());
+
+                RequestException error = message.getError();
+                out.writeBoolean(error != null);
+                if(error != null) {
+                    out.writeString(error.getMessage());
+                    // Only the description of the cause is sent, since its type might not exist on the other side
+                    out.writeString(error.getCause() == null ? null : error.getCause().toString());
+                }   else    {
+                    out.writeObject(message.getResultUnchecked());
+                }
+            }
+
+            @Override
+            public @NotNull Response read(@NotNull MessageReader in) throws IOException {
+                Response message = new Response();
+                message.setId(in.readInt());
+
+                if(in.readBoolean()) {
+                    String errorMessage = in.readString();
+                    String cause = in.readString();
+                    message.setError(cause == null ? new RequestException(errorMessage) : new RequestException(new RemoteException(cause), errorMessage));
+                }   else    {
+                    message.setResult(in.readObject());
+                }
+                return message;
+            }
+        });
+
+        codec.registerRequest(RELAY_REQUEST, RelayRequest.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull RelayRequest message) {
+                out.writeString(message.getDestination());
+                out.writeString(message.getSource());
+                out.writeBytes(message.getInnerRequest());
+            }
+
+            @Override
+            public @NotNull RelayRequest read(@NotNull MessageReader in) throws IOException {
+                RelayRequest message = new RelayRequest();
+                message.setDestination(in.readString());
+                message.setSource(in.readString());
+                message.setInnerRequest(in.readBytes());
+                return message;
+            }
+        });
+
+        codec.registerRequest(TELEPORT_REQUEST, TeleportRequest.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull TeleportRequest message) {
+                out.writeUuid(message.getPlayerId());
+                out.writeString(message.getDestServer());
+                out.writeUuid(message.getDestWorldId());
+                out.writeString(message.getDestWorldName());
+                out.writeDouble(message.getDestX());
+                out.writeDouble(message.getDestY());
+                out.writeDouble(message.getDestZ());
+                out.writeFloat(message.getDestPitch());
+                out.writeFloat(message.getDestYaw());
+                out.writeBoolean(message.isFlying());
+                out.writeBoolean(message.isGliding());
+                out.writeDouble(message.getDestVelX());
+                out.writeDouble(message.getDestVelY());
+                out.writeDouble(message.getDestVelZ());
+                out.writeBoolean(message.isRelocatePlayer());
+            }
+
+            @Override
+            public @NotNull TeleportRequest read(@NotNull MessageReader in) throws IOException {
+                TeleportRequest message = new TeleportRequest();
+                message.setPlayerId(in.readUuid());
+                message.setDestServer(in.readString());
+                message.setDestWorldId(in.readUuid());
+                message.setDestWorldName(in.readString());
+                message.setDestX(in.readDouble());
+                message.setDestY(in.readDouble());
+                message.setDestZ(in.readDouble());
+                message.setDestPitch(in.readFloat());
+                message.setDestYaw(in.readFloat());
+                message.setFlying(in.readBoolean());
+                message.setGliding(in.readBoolean());
+                message.setDestVelX(in.readDouble());
+                message.setDestVelY(in.readDouble());
+                message.setDestVelZ(in.readDouble());
+                message.setRelocatePlayer(in.readBoolean());
+                return message;
+            }
+        });
+
+        codec.registerRequest(PREVIOUS_SERVER_PUT_REQUEST, PreviousServerPutRequest.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull PreviousServerPutRequest message) {
+                out.writeUuid(message.getPlayerId());
+                out.writeString(message.getPreviousServer());
+            }
+
+            @Override
+            public @NotNull PreviousServerPutRequest read(@NotNull MessageReader in) throws IOException {
+                PreviousServerPutRequest message = new PreviousServerPutRequest();
+                message.setPlayerId(in.readUuid());
+                message.setPreviousServer(in.readString());
+                return message;
+            }
+        });
+    }
+}
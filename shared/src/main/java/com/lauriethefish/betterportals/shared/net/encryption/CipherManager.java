@@ -18,9 +18,10 @@ import java.util.UUID;
  */
 @Singleton
 public class CipherManager {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
     private static final int AES_KEY_SIZE = 256; // Bits
     public static final int GCM_NONCE_LENGTH = 12; // Bytes
-    private static final int GCM_TAG_LENGTH = 16; // Bytes
+    public static final int GCM_TAG_LENGTH = 16; // Bytes
 
     private SecretKey secretKey;
     private SecureRandom random;
@@ -62,16 +63,54 @@ public class CipherManager {
         return new GCMParameterSpec(GCM_TAG_LENGTH * 8, nonce);
     }
 
+    /**
+     * Fills <code>bytes</code> with secure random bytes, e.g. for the random part of a counter based nonce.
+     * @param bytes The array to fill
+     */
+    public void nextRandomBytes(byte[] bytes) {
+        random.nextBytes(bytes);
+    }
+
     public Cipher createEncrypt() throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
         cipher.init(Cipher.ENCRYPT_MODE, secretKey, getGcmParameterSpec(generateRandomNonce()));
         return cipher;
     }
 
     public Cipher createDecrypt(byte[] nonce) throws GeneralSecurityException  {
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
         cipher.init(Cipher.DECRYPT_MODE, secretKey, getGcmParameterSpec(nonce));
 
         return cipher;
     }
+
+    /**
+     * Creates a cipher that isn't initialised yet, so that it can be reused with {@link CipherManager#initEncrypt(Cipher, byte[])} or {@link CipherManager#initDecrypt(Cipher, byte[])} for each message.
+     * @return The new cipher
+     * @throws GeneralSecurityException If the encryption algorithm wasn't found
+     */
+    public Cipher createCipher() throws GeneralSecurityException {
+        return Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * Initialises <code>cipher</code> to encrypt one message.
+     * GCM is broken if a nonce is ever used twice with the same key, so <code>nonce</code> must be unique.
+     * @param cipher The cipher to initialise
+     * @param nonce The nonce of the message
+     * @throws GeneralSecurityException If the nonce was the same as the last one used with <code>cipher</code>
+     */
+    public void initEncrypt(Cipher cipher, byte[] nonce) throws GeneralSecurityException {
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, getGcmParameterSpec(nonce));
+    }
+
+    /**
+     * Initialises <code>cipher</code> to decrypt one message.
+     * @param cipher The cipher to initialise
+     * @param nonce The nonce that the message was encrypted with
+     * @throws GeneralSecurityException If initialising the cipher failed
+     */
+    public void initDecrypt(Cipher cipher, byte[] nonce) throws GeneralSecurityException {
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, getGcmParameterSpec(nonce));
+    }
 }
@@ -0,0 +1,278 @@
+package com.lauriethefish.betterportals.shared.net.encryption;
+
+import com.lauriethefish.betterportals.shared.net.codec.MessageCodec;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.lauriethefish.betterportals.shared.net.encryption.IEncryptedObjectStream.MAX_REQUEST_SIZE;
+
+/**
+ * Converts messages to and from the encrypted frames sent between the proxy and servers, without depending on how the frames are read or written.
+ * Each frame is a header followed by the encrypted message:
+ * <ul>
+ *     <li>4 byte length of the encrypted message</li>
+ *     <li>1 byte of flags, which is authenticated along with the message</li>
+ *     <li>12 byte nonce</li>
+ * </ul>
+ * Messages are compressed before they're encrypted, since encrypted data can't be compressed.
+ * Compression is skipped for small messages, and for messages that don't get much smaller, e.g. ones that are mostly already compressed.
+ * <p>
+ * One codec should be created for each connection, since the ciphers, compressor and buffers are reused for every message.
+ * Nonces are a random prefix, chosen when the codec is created, followed by a counter, so that they're never repeated without needing a secure random number for every message.
+ * Encoding and decoding may happen on different threads, but neither is thread safe on its own.
+ */
+public class EncryptedFrameCodec {
+    public static final int HEADER_LENGTH = 4 + 1 + CipherManager.GCM_NONCE_LENGTH;
+    private static final int NONCE_COUNTER_LENGTH = 4;
+
+    private static final byte FLAG_COMPRESSED = 1;
+
+    // Messages smaller than this are sent uncompressed, since the saving is too small to be worth the CPU time
+    private static final int COMPRESSION_THRESHOLD = 256;
+    // Compressed messages must be at least this fraction smaller, otherwise they're sent uncompressed
+    private static final int MIN_COMPRESSION_SAVING_DIVISOR = 8;
+    // Messages at least twice this size have this many bytes compressed first, to check whether the rest is worth compressing
+    private static final int COMPRESSION_SAMPLE_SIZE = 4096;
+
+    // Larger buffers are only used for one message, so that one large message doesn't keep using memory
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1_048_576;
+
+    private final CipherManager cipherManager;
+    private final MessageCodec messageCodec;
+    private final StreamMetrics metrics;
+
+    private Cipher encryptCipher;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final byte[] writeNonce = new byte[CipherManager.GCM_NONCE_LENGTH];
+    private int nonceCounter = 0;
+    private final byte[] writeFlags = new byte[1];
+    private byte[] compressionBuffer = new byte[0];
+    private byte[] writeBuffer = new byte[0];
+
+    private Cipher decryptCipher;
+    private final Inflater inflater = new Inflater();
+    private final byte[] readNonce = new byte[CipherManager.GCM_NONCE_LENGTH];
+    private final byte[] readFlags = new byte[1];
+    private byte[] plainTextBuffer = new byte[0];
+    private byte[] decompressionBuffer = new byte[0];
+
+    public EncryptedFrameCodec(CipherManager cipherManager, MessageCodec messageCodec, StreamMetrics metrics) {
+        this.cipherManager = cipherManager;
+        this.messageCodec = messageCodec;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Finds the length of the frame starting at the position of <code>header</code>, without moving its position.
+     * @param header Buffer containing at least {@link EncryptedFrameCodec#HEADER_LENGTH} bytes
+     * @return The length of the frame, including the header
+     * @throws IOException If the length is too short for an encrypted message
+     * @throws IllegalStateException If the length is greater than {@link IEncryptedObjectStream#MAX_REQUEST_SIZE}
+     */
+    public static int getFrameLength(@NotNull ByteBuffer header) throws IOException {
+        int length = header.getInt(header.position());
+
+        if(length > MAX_REQUEST_SIZE) {
+            throw new IllegalStateException(String.format("Requested length (%d bytes) was greater than the max request size of %d bytes", length, MAX_REQUEST_SIZE));
+        }
+        if(length < CipherManager.GCM_TAG_LENGTH) {
+            throw new IOException(String.format("Requested length (%d bytes) was too short for an encrypted message", length));
+        }
+
+        return HEADER_LENGTH + length;
+    }
+
+    /**
+     * Decrypts and decodes the frame starting at the position of <code>frame</code>, and moves its position to the end of the frame.
+     * @param frame Array backed buffer containing the whole frame
+     * @return The decoded message
+     * @throws GeneralSecurityException If decryption failed, e.g. because the frame was encrypted with a different key
+     * @throws IOException If the frame was too short or malformed
+     */
+    public @Nullable Object decode(@NotNull ByteBuffer frame) throws GeneralSecurityException, IOException {
+        long startTime = System.nanoTime();
+        int frameLength = getFrameLength(frame);
+        if(frame.remaining() < frameLength) {
+            throw new IOException("Frame was shorter than its stated length");
+        }
+
+        byte[] data = frame.array();
+        int frameStart = frame.arrayOffset() + frame.position();
+        readFlags[0] = data[frameStart + 4];
+        System.arraycopy(data, frameStart + 5, readNonce, 0, readNonce.length);
+        frame.position(frame.position() + frameLength);
+
+        if(decryptCipher == null) {
+            decryptCipher = cipherManager.createCipher();
+        }
+        cipherManager.initDecrypt(decryptCipher, readNonce);
+        decryptCipher.updateAAD(readFlags);
+
+        int cipherTextLength = frameLength - HEADER_LENGTH;
+        byte[] plainText = getBuffer(plainTextBuffer, decryptCipher.getOutputSize(cipherTextLength));
+        int plainTextLength = decryptCipher.doFinal(data, frameStart + HEADER_LENGTH, cipherTextLength, plainText, 0);
+        plainTextBuffer = retainBuffer(plainTextBuffer, plainText);
+
+        Object result;
+        if(readFlags[0] == FLAG_COMPRESSED) {
+            result = decodeCompressed(plainText, plainTextLength);
+        }   else if(readFlags[0] == 0) {
+            result = messageCodec.decode(ByteBuffer.wrap(plainText, 0, plainTextLength));
+        }   else    {
+            throw new IOException("Received message with unknown flags " + readFlags[0]);
+        }
+
+        metrics.recordRead(frameLength, System.nanoTime() - startTime);
+        return result;
+    }
+
+    private Object decodeCompressed(byte[] plainText, int plainTextLength) throws IOException {
+        if(plainTextLength < 4) {
+            throw new IOException("Compressed message was too short to contain its length");
+        }
+
+        int length = ByteBuffer.wrap(plainText).getInt();
+        if(length < 0 || length > MAX_REQUEST_SIZE) {
+            throw new IllegalStateException(String.format("Decompressed length (%d bytes) was greater than the max request size of %d bytes", length, MAX_REQUEST_SIZE));
+        }
+
+        byte[] decompressed = getBuffer(decompressionBuffer, length);
+        decompressionBuffer = retainBuffer(decompressionBuffer, decompressed);
+
+        inflater.reset();
+        inflater.setInput(plainText, 4, plainTextLength - 4);
+        try {
+            int decompressedLength = inflater.inflate(decompressed, 0, length);
+            if(decompressedLength != length || !inflater.finished()) {
+                throw new IOException("Compressed message did not match its length");
+            }
+        }   catch(DataFormatException ex) {
+            throw new IOException("Malformed compressed message", ex);
+        }
+
+        return messageCodec.decode(ByteBuffer.wrap(decompressed, 0, length));
+    }
+
+    /**
+     * Encodes, compresses and encrypts <code>obj</code> into a frame.
+     * @param obj The message to encode
+     * @return A buffer ready to be read, containing the whole frame. This is reused by the next call, so must be written or copied first
+     * @throws GeneralSecurityException If encryption failed
+     * @throws IllegalStateException If the frame is greater than {@link IEncryptedObjectStream#MAX_REQUEST_SIZE}
+     */
+    public @NotNull ByteBuffer encode(@Nullable Object obj) throws GeneralSecurityException {
+        long startTime = System.nanoTime();
+        ByteBuffer frame = messageCodec.encode(obj);
+
+        int encodedLength = frame.remaining();
+        int cipherTextLength;
+        byte[] output;
+        try {
+            byte[] plainText = frame.array();
+            int plainTextOffset = frame.arrayOffset() + frame.position();
+            int plainTextLength = encodedLength;
+
+            writeFlags[0] = 0;
+            if(encodedLength >= COMPRESSION_THRESHOLD) {
+                byte[] compressed = getBuffer(compressionBuffer, plainTextLength);
+                compressionBuffer = retainBuffer(compressionBuffer, compressed);
+
+                int compressedLength = compress(plainText, plainTextOffset, plainTextLength, compressed);
+                if(compressedLength != -1) {
+                    writeFlags[0] = FLAG_COMPRESSED;
+                    plainText = compressed;
+                    plainTextOffset = 0;
+                    plainTextLength = compressedLength;
+                }
+            }
+
+            nextNonce();
+            if(encryptCipher == null) {
+                encryptCipher = cipherManager.createCipher();
+            }
+            cipherManager.initEncrypt(encryptCipher, writeNonce);
+            encryptCipher.updateAAD(writeFlags);
+
+            // The header is written in front of the encrypted message, so that the whole frame is in one buffer
+            output = getBuffer(writeBuffer, HEADER_LENGTH + encryptCipher.getOutputSize(plainTextLength));
+            cipherTextLength = encryptCipher.doFinal(plainText, plainTextOffset, plainTextLength, output, HEADER_LENGTH);
+        }   finally {
+            messageCodec.release(frame);
+        }
+        writeBuffer = retainBuffer(writeBuffer, output);
+
+        if(cipherTextLength > MAX_REQUEST_SIZE) {
+            throw new IllegalStateException(String.format("Size of serialized and encrypted object (%d bytes) was greater than the maximum request size of %d bytes", cipherTextLength, MAX_REQUEST_SIZE));
+        }
+
+        ByteBuffer result = ByteBuffer.wrap(output, 0, HEADER_LENGTH + cipherTextLength);
+        result.putInt(cipherTextLength);
+        result.put(writeFlags[0]);
+        result.put(writeNonce);
+        result.position(0);
+
+        metrics.recordWrite(encodedLength, HEADER_LENGTH + cipherTextLength, writeFlags[0] == FLAG_COMPRESSED, System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * Compresses a message into <code>output</code>, after its uncompressed length.
+     * Large messages have their start compressed first, so that most of the work is skipped if it doesn't compress well.
+     * @return The length of the compressed message, including its uncompressed length, or -1 if compressing didn't make it small enough to be worth it
+     */
+    private int compress(byte[] data, int offset, int length, byte[] output) {
+        int maxLength = length - length / MIN_COMPRESSION_SAVING_DIVISOR;
+        ByteBuffer.wrap(output).putInt(length);
+        int compressedLength = 4;
+
+        deflater.reset();
+        if(length >= COMPRESSION_SAMPLE_SIZE * 2) {
+            deflater.setInput(data, offset, COMPRESSION_SAMPLE_SIZE);
+            compressedLength += deflater.deflate(output, compressedLength, maxLength - compressedLength, Deflater.SYNC_FLUSH);
+            if(compressedLength - 4 > COMPRESSION_SAMPLE_SIZE - COMPRESSION_SAMPLE_SIZE / MIN_COMPRESSION_SAVING_DIVISOR) {
+                return -1;
+            }
+
+            offset += COMPRESSION_SAMPLE_SIZE;
+            length -= COMPRESSION_SAMPLE_SIZE;
+        }
+
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        // Stop as soon as the compressed message is too large, instead of compressing the whole thing
+        compressedLength += deflater.deflate(output, compressedLength, maxLength - compressedLength);
+        if(!deflater.finished()) {
+            return -1;
+        }
+
+        return compressedLength;
+    }
+
+    private void nextNonce() {
+        // A new random prefix is chosen whenever the counter wraps around, so that nonces are still never repeated
+        if(nonceCounter == 0) {
+            byte[] prefix = new byte[CipherManager.GCM_NONCE_LENGTH - NONCE_COUNTER_LENGTH];
+            cipherManager.nextRandomBytes(prefix);
+            System.arraycopy(prefix, 0, writeNonce, 0, prefix.length);
+        }
+
+        ByteBuffer.wrap(writeNonce).putInt(CipherManager.GCM_NONCE_LENGTH - NONCE_COUNTER_LENGTH, nonceCounter);
+        nonceCounter++;
+    }
+
+    static byte[] getBuffer(byte[] current, int length) {
+        return current.length >= length ? current : new byte[length];
+    }
+
+    static byte[] retainBuffer(byte[] current, byte[] used) {
+        return used.length > MAX_RETAINED_BUFFER_SIZE ? current : used;
+    }
+}
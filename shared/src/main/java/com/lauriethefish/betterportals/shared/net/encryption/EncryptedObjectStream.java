@@ -2,66 +2,49 @@ package com.lauriethefish.betterportals.shared.net.encryption;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.lauriethefish.betterportals.shared.net.codec.MessageCodec;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
+/**
+ * Reads and writes the frames of an {@link EncryptedFrameCodec} with blocking streams.
+ */
 public class EncryptedObjectStream implements IEncryptedObjectStream    {
     private final DataInputStream inputStream;
-    private final DataOutputStream outputStream;
-    private final CipherManager cipherManager;
+    private final OutputStream outputStream;
+    private final EncryptedFrameCodec frameCodec;
+
+    private byte[] readBuffer = new byte[EncryptedFrameCodec.HEADER_LENGTH];
 
     @Inject
-    public EncryptedObjectStream(@Assisted InputStream inputStream, @Assisted OutputStream outputStream, CipherManager cipherManager) {
+    public EncryptedObjectStream(@Assisted InputStream inputStream, @Assisted OutputStream outputStream, CipherManager cipherManager, MessageCodec messageCodec, StreamMetrics metrics) {
         this.inputStream = new DataInputStream(inputStream);
-        this.outputStream = new DataOutputStream(outputStream);
-        this.cipherManager = cipherManager;
+        this.outputStream = outputStream;
+        this.frameCodec = new EncryptedFrameCodec(cipherManager, messageCodec, metrics);
     }
 
     @Override
     public Object readObject() throws GeneralSecurityException, IOException, ClassNotFoundException {
-        int length = inputStream.readInt();
+        inputStream.readFully(readBuffer, 0, EncryptedFrameCodec.HEADER_LENGTH);
+        int frameLength = EncryptedFrameCodec.getFrameLength(ByteBuffer.wrap(readBuffer));
 
-        if(length > MAX_REQUEST_SIZE) {
-            throw new IllegalStateException(String.format("Requested length (%d bytes) was greater than the max request size of %d bytes", length, MAX_REQUEST_SIZE));
+        byte[] frame = readBuffer;
+        if(frame.length < frameLength) {
+            frame = new byte[frameLength];
+            System.arraycopy(readBuffer, 0, frame, 0, EncryptedFrameCodec.HEADER_LENGTH);
         }
+        inputStream.readFully(frame, EncryptedFrameCodec.HEADER_LENGTH, frameLength - EncryptedFrameCodec.HEADER_LENGTH);
+        readBuffer = EncryptedFrameCodec.retainBuffer(readBuffer, frame);
 
-        byte[] data = new byte[length];
-        inputStream.readFully(data);
-
-        byte[] nonce = new byte[CipherManager.GCM_NONCE_LENGTH];
-        inputStream.readFully(nonce);
-
-        GZIPInputStream decompressionStream = new GZIPInputStream(new ByteArrayInputStream(data));
-        CipherInputStream decryptionStream = new CipherInputStream(decompressionStream, cipherManager.createDecrypt(nonce));
-
-        return new ObjectInputStream(decryptionStream).readObject();
+        return frameCodec.decode(ByteBuffer.wrap(frame, 0, frameLength));
     }
 
     @Override
-    public void writeObject(Object obj) throws GeneralSecurityException, IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        GZIPOutputStream compressionStream = new GZIPOutputStream(byteArrayOutputStream);
-        Cipher cipher = cipherManager.createEncrypt();
-        CipherOutputStream encryptionStream = new CipherOutputStream(compressionStream, cipher);
-
-        new ObjectOutputStream(encryptionStream).writeObject(obj);
-        encryptionStream.close();
-        compressionStream.close();
-
-        byte[] data = byteArrayOutputStream.toByteArray();
-
-        if(data.length > MAX_REQUEST_SIZE) {
-            throw new IllegalStateException(String.format("Size of serialized and encrypted object (%d bytes) was greater than the maximum request size of %d bytes", data.length, MAX_REQUEST_SIZE));
-        }
-
-        outputStream.writeInt(data.length);
-        outputStream.write(data);
-        outputStream.write(cipher.getIV());
+    public synchronized void writeObject(Object obj) throws GeneralSecurityException, IOException {
+        ByteBuffer frame = frameCodec.encode(obj);
+        // Sent with one write, since the header is already in front of the encrypted message
+        outputStream.write(frame.array(), frame.arrayOffset(), frame.remaining());
     }
 }
@@ -4,10 +4,10 @@ import java.io.IOException;
 import java.security.GeneralSecurityException;
 
 /**
- * Individually serializes objects to avoid issues with block size.
+ * Individually encodes objects with a {@link com.lauriethefish.betterportals.shared.net.codec.MessageCodec} to avoid issues with block size.
  * Specifically, directly using a {@link javax.crypto.CipherOutputStream} isn't really possible since it has no way to flush pending bytes.
  *
- * Also uses compression since portal data transfer is pretty inefficient otherwise.
+ * Also compresses messages before encrypting them since portal data transfer is pretty inefficient otherwise, although small or incompressible messages are sent uncompressed.
  */
 public interface IEncryptedObjectStream {
     /**
@@ -0,0 +1,96 @@
+package com.lauriethefish.betterportals.shared.net.encryption;
+
+import com.google.inject.Singleton;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals the bytes sent and received by every {@link EncryptedObjectStream}, and the time spent encoding and decoding messages.
+ * Used to check how well compression works on real traffic, and how much CPU each message costs.
+ */
+@Singleton
+public class StreamMetrics {
+    private final LongAdder messagesWritten = new LongAdder();
+    private final LongAdder compressedMessagesWritten = new LongAdder();
+    private final LongAdder encodedBytesWritten = new LongAdder();
+    private final LongAdder wireBytesWritten = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+
+    private final LongAdder messagesRead = new LongAdder();
+    private final LongAdder wireBytesRead = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+
+    /**
+     * Records a written message.
+     * @param encodedBytes Length of the message before compression and encryption
+     * @param wireBytes Bytes written to the connection, including the header
+     * @param compressed Whether the message was compressed
+     * @param nanos Time taken to encode, compress and encrypt the message in nanoseconds
+     */
+    public void recordWrite(int encodedBytes, int wireBytes, boolean compressed, long nanos) {
+        messagesWritten.increment();
+        if(compressed) {
+            compressedMessagesWritten.increment();
+        }
+        encodedBytesWritten.add(encodedBytes);
+        wireBytesWritten.add(wireBytes);
+        writeNanos.add(nanos);
+    }
+
+    /**
+     * Records a read message.
+     * @param wireBytes Bytes read from the connection, including the header
+     * @param nanos Time taken to decrypt, decompress and decode the message in nanoseconds
+     */
+    public void recordRead(int wireBytes, long nanos) {
+        messagesRead.increment();
+        wireBytesRead.add(wireBytes);
+        readNanos.add(nanos);
+    }
+
+    public long getMessagesWritten() {
+        return messagesWritten.sum();
+    }
+
+    public long getCompressedMessagesWritten() {
+        return compressedMessagesWritten.sum();
+    }
+
+    public long getEncodedBytesWritten() {
+        return encodedBytesWritten.sum();
+    }
+
+    public long getWireBytesWritten() {
+        return wireBytesWritten.sum();
+    }
+
+    public long getWriteNanos() {
+        return writeNanos.sum();
+    }
+
+    public long getMessagesRead() {
+        return messagesRead.sum();
+    }
+
+    public long getWireBytesRead() {
+        return wireBytesRead.sum();
+    }
+
+    public long getReadNanos() {
+        return readNanos.sum();
+    }
+
+    /**
+     * Sets all totals back to zero.
+     */
+    public void reset() {
+        messagesWritten.reset();
+        compressedMessagesWritten.reset();
+        encodedBytesWritten.reset();
+        wireBytesWritten.reset();
+        writeNanos.reset();
+        messagesRead.reset();
+        wireBytesRead.reset();
+        readNanos.reset();
+    }
+}
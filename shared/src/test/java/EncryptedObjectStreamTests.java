@@ -1,5 +1,7 @@
 import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
+import com.lauriethefish.betterportals.shared.net.codec.MessageCodec;
 import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStream;
+import com.lauriethefish.betterportals.shared.net.encryption.StreamMetrics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -9,9 +11,11 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.UUID;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class EncryptedObjectStreamTests {
     private static class TestTransmit implements Serializable {
@@ -29,18 +33,33 @@ public class EncryptedObjectStreamTests {
     }
 
     private CipherManager cipherManager;
+    private StreamMetrics metrics;
 
     @BeforeEach
     public void setUp() throws NoSuchAlgorithmException {
         this.cipherManager = new CipherManager();
         cipherManager.init(UUID.randomUUID());
+        this.metrics = new StreamMetrics();
+    }
+
+    private byte[] writeAll(Object... objects) throws GeneralSecurityException, IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EncryptedObjectStream stream = new EncryptedObjectStream(null, output, cipherManager, new MessageCodec(), metrics);
+        for(Object obj : objects) {
+            stream.writeObject(obj);
+        }
+        return output.toByteArray();
+    }
+
+    private EncryptedObjectStream createReader(byte[] data) {
+        return new EncryptedObjectStream(new ByteArrayInputStream(data), null, cipherManager, new MessageCodec(), metrics);
     }
 
     @Test
     public void testSendAndReceiveObject() throws GeneralSecurityException, IOException, ClassNotFoundException {
         ByteArrayOutputStream testOutput = new ByteArrayOutputStream();
 
-        EncryptedObjectStream testStream = new EncryptedObjectStream(null, testOutput, cipherManager);
+        EncryptedObjectStream testStream = new EncryptedObjectStream(null, testOutput, cipherManager, new MessageCodec(), metrics);
 
         TestTransmit obj = new TestTransmit();
         obj.testFieldA = 42;
@@ -52,10 +71,70 @@ public class EncryptedObjectStreamTests {
 
         ByteArrayInputStream testInput = new ByteArrayInputStream(data);
 
-        testStream = new EncryptedObjectStream(testInput, null, cipherManager);
+        testStream = new EncryptedObjectStream(testInput, null, cipherManager, new MessageCodec(), metrics);
         TestTransmit result = (TestTransmit) testStream.readObject();
 
         assertEquals(obj, result);
     }
 
+    @Test
+    public void testCompressibleMessageIsCompressed() throws GeneralSecurityException, IOException, ClassNotFoundException {
+        byte[] message = new byte[64 * 1024];
+        Arrays.fill(message, (byte) 7);
+
+        byte[] data = writeAll(message);
+        assertEquals(1, metrics.getCompressedMessagesWritten());
+        assertTrue(data.length * 10 < message.length, String.format("Sent %d bytes for a %d byte message", data.length, message.length));
+
+        assertArrayEquals(message, (byte[]) createReader(data).readObject());
+    }
+
+    @Test
+    public void testIncompressibleMessageIsNotCompressed() throws GeneralSecurityException, IOException, ClassNotFoundException {
+        byte[] message = new byte[64 * 1024];
+        new Random(0).nextBytes(message);
+
+        byte[] data = writeAll(message);
+        assertEquals(0, metrics.getCompressedMessagesWritten());
+        // Only the header and authentication tag should be added
+        assertEquals(metrics.getEncodedBytesWritten() + 17 + 16, data.length);
+
+        assertArrayEquals(message, (byte[]) createReader(data).readObject());
+    }
+
+    @Test
+    public void testSmallMessageIsNotCompressed() throws GeneralSecurityException, IOException {
+        writeAll(new byte[32]);
+        assertEquals(0, metrics.getCompressedMessagesWritten());
+    }
+
+    @Test
+    public void testManyMessagesOnOneStream() throws GeneralSecurityException, IOException, ClassNotFoundException {
+        byte[] compressible = new byte[4096];
+        byte[] incompressible = new byte[4096];
+        new Random(1).nextBytes(incompressible);
+
+        Object[] messages = new Object[100];
+        for(int i = 0; i < messages.length; i++) {
+            messages[i] = i % 2 == 0 ? compressible : incompressible;
+        }
+
+        EncryptedObjectStream reader = createReader(writeAll(messages));
+        for(Object message : messages) {
+            assertArrayEquals((byte[]) message, (byte[]) reader.readObject());
+        }
+
+        assertEquals(messages.length, metrics.getMessagesWritten());
+        assertEquals(messages.length / 2, metrics.getCompressedMessagesWritten());
+        assertEquals(messages.length, metrics.getMessagesRead());
+        assertEquals(metrics.getWireBytesWritten(), metrics.getWireBytesRead());
+    }
+
+    @Test
+    public void testModifiedFlagsFail() throws GeneralSecurityException, IOException {
+        byte[] data = writeAll(new byte[32]);
+        data[4] = 1; // Claim that the message was compressed
+
+        assertThrows(GeneralSecurityException.class, () -> createReader(data).readObject());
+    }
 }
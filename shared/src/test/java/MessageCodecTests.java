@@ -0,0 +1,158 @@
+import com.lauriethefish.betterportals.shared.net.RequestException;
+import com.lauriethefish.betterportals.shared.net.Response;
+import com.lauriethefish.betterportals.shared.net.codec.MessageCodec;
+import com.lauriethefish.betterportals.shared.net.codec.MessageReader;
+import com.lauriethefish.betterportals.shared.net.codec.MessageSerializer;
+import com.lauriethefish.betterportals.shared.net.codec.MessageWriter;
+import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
+import com.lauriethefish.betterportals.shared.net.requests.TeleportRequest;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageCodecTests {
+    private static class TestMessage {
+        String text;
+        long[] values;
+    }
+
+    private MessageCodec codec;
+
+    @BeforeEach
+    public void setUp() {
+        this.codec = new MessageCodec();
+    }
+
+    private TeleportRequest createTeleportRequest() {
+        TeleportRequest request = new TeleportRequest();
+        request.setId(17);
+        request.setPlayerId(UUID.randomUUID());
+        request.setDestServer("lobby");
+        request.setDestWorldId(UUID.randomUUID());
+        request.setDestWorldName("world_nether");
+        request.setDestX(12.5);
+        request.setDestY(-40.0);
+        request.setDestZ(1e6);
+        request.setDestPitch(12.0f);
+        request.setDestYaw(-90.0f);
+        request.setFlying(true);
+        request.setDestVelY(0.25);
+        return request;
+    }
+
+    private void registerTestMessage(MessageCodec codec) {
+        codec.register(MessageCodec.FIRST_SERVER_ID, TestMessage.class, new MessageSerializer<>() {
+            @Override
+            public void write(@NotNull MessageWriter out, @NotNull TestMessage message) {
+                out.writeString(message.text);
+                out.writeLongs(message.values);
+            }
+
+            @Override
+            public @NotNull TestMessage read(@NotNull MessageReader in) throws IOException {
+                TestMessage message = new TestMessage();
+                message.text = in.readString();
+                message.values = in.readLongs();
+                return message;
+            }
+        });
+    }
+
+    @Test
+    public void testTeleportRequestRoundTrip() throws IOException {
+        TeleportRequest request = createTeleportRequest();
+        TeleportRequest result = (TeleportRequest) codec.decode(codec.encodeToBytes(request));
+
+        assertEquals(request.getId(), result.getId());
+        assertEquals(request.getPlayerId(), result.getPlayerId());
+        assertEquals(request.getDestServer(), result.getDestServer());
+        assertEquals(request.getDestWorldId(), result.getDestWorldId());
+        assertEquals(request.getDestWorldName(), result.getDestWorldName());
+        assertEquals(request.getDestX(), result.getDestX());
+        assertEquals(request.getDestY(), result.getDestY());
+        assertEquals(request.getDestZ(), result.getDestZ());
+        assertEquals(request.getDestPitch(), result.getDestPitch());
+        assertEquals(request.getDestYaw(), result.getDestYaw());
+        assertTrue(result.isFlying());
+        assertFalse(result.isGliding());
+        assertEquals(request.getDestVelY(), result.getDestVelY());
+    }
+
+    @Test
+    public void testResponseErrorRoundTrip() throws IOException {
+        Response response = new Response();
+        response.setId(3);
+        response.setError(new RequestException(new IllegalStateException("Inner problem"), "Outer problem"));
+
+        Response result = (Response) codec.decode(codec.encodeToBytes(response));
+        assertEquals(3, result.getId());
+
+        RequestException error = assertThrows(RequestException.class, result::checkForErrors);
+        assertEquals("Outer problem", error.getMessage());
+        assertTrue(error.getCause().getMessage().contains("Inner problem"));
+    }
+
+    @Test
+    public void testRelayedFrameIsForwardedUnchanged() throws IOException {
+        // The proxy doesn't register server messages, so relayed requests must pass through it without being decoded
+        MessageCodec serverCodec = new MessageCodec();
+        registerTestMessage(serverCodec);
+
+        TestMessage message = new TestMessage();
+        message.text = "Relayed";
+        message.values = new long[]{1, -2, Long.MAX_VALUE};
+        byte[] innerFrame = serverCodec.encodeToBytes(message);
+
+        RelayRequest relayRequest = new RelayRequest();
+        relayRequest.setDestination("survival");
+        relayRequest.setInnerRequest(innerFrame);
+
+        RelayRequest forwarded = (RelayRequest) codec.decode(codec.encodeToBytes(relayRequest));
+        assertArrayEquals(innerFrame, forwarded.getInnerRequest());
+        assertThrows(IOException.class, () -> codec.decode(forwarded.getInnerRequest()));
+
+        TestMessage result = (TestMessage) serverCodec.decode(forwarded.getInnerRequest());
+        assertEquals(message.text, result.text);
+        assertArrayEquals(message.values, result.values);
+    }
+
+    @Test
+    public void testLargeMessageGrowsBuffer() throws IOException {
+        registerTestMessage(codec);
+
+        TestMessage message = new TestMessage();
+        char[] text = new char[100_000];
+        Arrays.fill(text, 'a');
+        message.text = new String(text);
+        message.values = new long[10_000];
+
+        TestMessage result = (TestMessage) codec.decode(codec.encodeToBytes(message));
+        assertEquals(message.text, result.text);
+        assertArrayEquals(message.values, result.values);
+    }
+
+    @Test
+    public void testTruncatedFrameFails() {
+        byte[] frame = codec.encodeToBytes(createTeleportRequest());
+        assertThrows(IOException.class, () -> codec.decode(Arrays.copyOf(frame, frame.length - 1)));
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws IOException {
+        TeleportRequest request = createTeleportRequest();
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        new ObjectOutputStream(serialized).writeObject(request);
+
+        int encodedLength = codec.encodeToBytes(request).length;
+        assertTrue(encodedLength * 2 < serialized.size(), String.format("Encoded %d bytes, compared to %d with Java serialization", encodedLength, serialized.size()));
+    }
+}